@@ -16,6 +16,7 @@ import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.IntField;
+import simpledb.storage.LockMonitor;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -452,11 +453,12 @@ public class Parser {
                 if (curtrans != null)
                     throw new ParsingException(
                             "Can't start new transactions until current transaction has been committed or rolledback.");
-                curtrans = new Transaction();
+                // SET TRANSACTION READ ONLY reads a snapshot without locks
+                curtrans = new Transaction(s.isReadOnly());
                 curtrans.start();
                 inUserTrans = true;
-                System.out.println("Started a new transaction tid = "
-                        + curtrans.getId().getId());
+                System.out.println("Started a new " + (s.isReadOnly() ? "read-only " : "")
+                        + "transaction tid = " + curtrans.getId().getId());
                 break;
             default:
                 throw new ParsingException("Unsupported operation");
@@ -585,14 +587,79 @@ public class Parser {
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        // roll back a transaction left open, its pages must not reach disk
+        if (curtrans != null) {
+            try {
+                curtrans.abort();
+                System.out.println("Transaction " + curtrans.getId().getId()
+                        + " aborted.");
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            curtrans = null;
+            inUserTrans = false;
+        }
+        // remember the cached pages, no checkpoint: it writes every page
+        try {
+            Database.getBufferPool().saveResidentPages(
+                    Database.getLogFile().getWarmRestartFile());
+        } catch (IOException e) {
+            System.out.println("Unable to save the cached pages: " + e.getMessage());
+        }
+        // closes the files of the tables
+        Database.getCatalog().clear();
         System.out.println("Bye");
     }
 
     protected boolean interactive = true;
 
+    /** Hot pages listed by the locks command */
+    static final int LOCKS_HOT_PAGES = 10;
+
+    /**
+     * Handle the console command showing the lock manager counters:
+     * "locks;" prints them, "locks on;" / "locks off;" turn the counting on
+     * and off, "locks reset;" zeroes them.
+     *
+     * @return false if cmd isn't a locks command
+     */
+    protected boolean processLocksCommand(String cmd) {
+        String[] words = cmd.substring(0, cmd.length() - 1).trim().split("\\s+");
+        if (!words[0].equalsIgnoreCase("locks") || words.length > 2) {
+            return false;
+        }
+        LockMonitor monitor = Database.getBufferPool().getLockMonitor();
+        String arg = words.length == 2 ? words[1].toLowerCase() : "";
+        switch (arg) {
+            case "":
+                System.out.print(monitor.report(LOCKS_HOT_PAGES));
+                break;
+            case "on":
+            case "off":
+                monitor.setEnabled(arg.equals("on"));
+                System.out.println("Lock monitor " + arg + ".");
+                break;
+            case "reset":
+                monitor.reset();
+                System.out.println("Lock monitor reset.");
+                break;
+            default:
+                System.out.println("Usage: locks [on|off|reset];");
+                break;
+        }
+        return true;
+    }
+
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
+        // reload the pages cached when the database was shut down, while
+        // statistics are computed and queries run
+        try {
+            Database.getBufferPool().warmUp(Database.getLogFile().getWarmRestartFile());
+        } catch (IOException e) {
+            System.out.println("Warm restart failed: " + e.getMessage());
+        }
         TableStats.computeStatistics();
 
         String queryFile = null;
@@ -667,6 +734,11 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    if (processLocksCommand(cmd)) {
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
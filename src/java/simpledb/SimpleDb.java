@@ -15,7 +15,8 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
-                    if (args.length < 3 || args.length > 5) {
+                    // convert file.txt columns [types [separator [slotted]]]
+                    if (args.length < 3 || args.length > 6) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
                     }
@@ -46,12 +47,19 @@ public class SimpleDb {
                                 return;
                             }
                         }
-                        if (args.length == 5)
+                        if (args.length >= 5)
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (args.length == 6 && args[5].equalsIgnoreCase("slotted"))
+                        HeapFileEncoder.convertSlotted(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    else if (args.length == 6) {
+                        System.err.println("Unknown format " + args[5]);
+                        return;
+                    } else
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
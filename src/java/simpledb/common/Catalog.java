@@ -3,6 +3,7 @@ package simpledb.common;
 import simpledb.common.Type;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -171,11 +172,18 @@ public class Catalog {
         return info.name;
     }
 
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
         try {
             lock.lock();
+            for (TableInfo info : tableidToTableInfo.values()) {
+                try {
+                    info.file.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
             tableidToTableInfo.clear();
             nameToTaleInfo.clear();
         } finally {
@@ -197,7 +205,9 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
 
             while ((line = br.readLine()) != null) {
-                // assume line is of the format name (field type, field type, ...)
+                // assume line is of the format name (field type, field type, ...) [option ...],
+                // where option "mmap" reads the table over a memory mapping and
+                // option "slotted" stores it in a SlottedHeapFile
                 String name = line.substring(0, line.indexOf("(")).trim();
                 // System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -228,7 +238,32 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                File tabFile = new File(baseFolder + "/" + name + ".dat");
+                boolean mmap = false;
+                boolean slotted = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.isEmpty() ? new String[0] : options.split("\\s+")) {
+                    if (option.equalsIgnoreCase("mmap"))
+                        mmap = true;
+                    else if (option.equalsIgnoreCase("slotted"))
+                        slotted = true;
+                    else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                DbFile tabHf;
+                if (slotted) {
+                    if (mmap) {
+                        System.out.println("Table option mmap is not supported by slotted tables");
+                        System.exit(0);
+                    }
+                    tabHf = new SlottedHeapFile(tabFile, t);
+                } else {
+                    HeapFile hf = new HeapFile(tabFile, t);
+                    hf.setMapped(mmap);
+                    tabHf = hf;
+                }
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
@@ -2,6 +2,7 @@ package simpledb.common;
 
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
+import simpledb.util.ReplacementPolicy;
 
 import java.io.*;
 import java.util.concurrent.atomic.AtomicReference;
@@ -58,11 +59,41 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_POLICY);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * using the given replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy) {
+        return resetBufferPool(new BufferPool(pages, policy));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the given replacement policy and number of page table partitions
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy, int partitions) {
+        return resetBufferPool(new BufferPool(pages, policy, partitions));
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * which keeps cached heap pages in off-heap frames if offHeap is set
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy, int partitions,
+                                             boolean offHeap) {
+        return resetBufferPool(new BufferPool(pages, policy, partitions, offHeap));
+    }
+
+    private static BufferPool resetBufferPool(BufferPool bufferPool) {
+        _instance.get()._bufferpool.stopPageCleaner();
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), bufferPool);
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -6,6 +6,7 @@ import simpledb.storage.IntField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -28,6 +29,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +52,17 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte[] bs = new byte[strLen];
+            ByteBuffer src = buf.duplicate();
+            src.clear();
+            src.position(offset + 4);
+            src.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +81,12 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from buf, starting at offset. The position of buf is not changed.
+   * @param buf The buffer to read from
+   * @param offset The index of the first byte of the field
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
 }
@@ -1,6 +1,9 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.BufferRing;
 import simpledb.storage.DbFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -45,7 +48,16 @@ public class SeqScan implements OpIterator {
     this.tableid = tableid;
     this.tableAlias = tableAlias;
     this.dbFile = Database.getCatalog().getDatabaseFile(tableid);
-    this.iterator = this.dbFile.iterator(tid);
+    this.iterator = scanIterator();
+  }
+
+  /**
+   * Tables much larger than the buffer pool are read through a BufferRing, so
+   * the scan doesn't flush the pages other queries are using out of the pool.
+   */
+  private DbFileIterator scanIterator() {
+    BufferRing ring = Database.getBufferPool().bulkReadRing(dbFile.numPages());
+    return dbFile.iterator(tid, ring);
   }
 
   /**
@@ -80,7 +92,7 @@ public class SeqScan implements OpIterator {
     this.tableid = tableid;
     this.tableAlias = tableAlias;
     this.dbFile = Database.getCatalog().getDatabaseFile(tableid);
-    this.iterator = this.dbFile.iterator(tid);
+    this.iterator = scanIterator();
   }
 
   public SeqScan(TransactionId tid, int tableId) {
@@ -90,6 +102,12 @@ public class SeqScan implements OpIterator {
   public void open() throws DbException, TransactionAbortedException {
     // some code goes here
     open = true;
+    // a scan reads every page, for a table with more pages than the lock
+    // escalation threshold it would end up holding a table lock anyway
+    BufferPool bufferPool = Database.getBufferPool();
+    if (dbFile.numPages() > bufferPool.getLockEscalationThreshold()) {
+      bufferPool.lockTable(tid, tableid, Permissions.READ_ONLY);
+    }
     iterator.open();
   }
 
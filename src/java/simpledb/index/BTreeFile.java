@@ -11,7 +11,10 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * BTreeFile is an implementation of a DbFile that stores a B+ tree.
@@ -20,6 +23,12 @@ import java.util.*;
  * in sorted order. BTreeFile works closely with BTreeLeafPage, BTreeInternalPage,
  * and BTreeRootPtrPage. The format of these pages is described in their constructors.
  *
+ * <p>
+ * Searches descend without locking internal pages, see
+ * {@link #setLatchedDescent}: writers and structure changes then never wait
+ * for readers which have passed the upper levels of the tree, only the leaf
+ * pages are locked until the transaction completes.
+ *
  * @author Becca Taft
  * @see BTreeLeafPage#BTreeLeafPage
  * @see BTreeInternalPage#BTreeInternalPage
@@ -29,10 +38,25 @@ import java.util.*;
 public class BTreeFile implements DbFile {
 
     private final File f;
+    private final DbFileChannel channel;
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
 
+    /**
+     * Leads a read ahead from a leaf page to the leaf after it.
+     */
+    static final Function<Page, PageId> RIGHT_SIBLING = p -> ((BTreeLeafPage) p).getRightSiblingId();
+
+    /*
+     * Bumped before and after every split or merge. A search reading internal
+     * pages without locks starts over if it changed during the descent, the
+     * leaf found may no longer hold its key.
+     */
+    private final AtomicLong structureChanges = new AtomicLong();
+    private final AtomicLong descentRetries = new AtomicLong();
+    private volatile boolean latchedDescent = true;
+
     /**
      * Constructs a B+ tree file backed by the specified file.
      *
@@ -43,6 +67,7 @@ public class BTreeFile implements DbFile {
      */
     public BTreeFile(File f, int key, TupleDesc td) {
         this.f = f;
+        this.channel = new DbFileChannel(f);
         this.tableid = f.getAbsoluteFile().hashCode();
         this.keyField = key;
         this.td = td;
@@ -87,10 +112,10 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
+                int retval = channel.read(ByteBuffer.wrap(pageBuf), 0);
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -102,12 +127,8 @@ public class BTreeFile implements DbFile {
                 return new BTreeRootPtrPage(id, pageBuf);
             } else {
                 byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
+                int retval = channel.read(ByteBuffer.wrap(pageBuf),
+                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize());
                 if (retval == -1) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
@@ -127,8 +148,6 @@ public class BTreeFile implements DbFile {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     /**
@@ -140,18 +159,40 @@ public class BTreeFile implements DbFile {
     public void writePage(Page page) throws IOException {
         BTreePageId id = (BTreePageId) page.getId();
 
-        byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        ByteBuffer data = ScratchBuffers.get(BufferPool.getPageSize());
+        page.writePageData(data);
+        data.flip();
         if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-            rf.write(data);
-            rf.close();
+            channel.write(data, 0);
         } else {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
-            rf.write(data);
-            rf.close();
+            channel.write(data,
+                    BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
         }
     }
 
+    /**
+     * Write pages to disk, adjacent pages are written together.  This should
+     * not be called directly but should be called from the BufferPool when
+     * pages are flushed to disk
+     *
+     * @param pages - the pages to write to disk
+     * @return the number of write calls issued
+     */
+    public int writePages(List<Page> pages) throws IOException {
+        return CoalescedWriter.write(channel, pages, page -> {
+            BTreePageId id = (BTreePageId) page.getId();
+            if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+                return 0;
+            }
+            return BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+        });
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
     /**
      * Returns the number of pages in this BTreeFile.
      */
@@ -167,6 +208,143 @@ public class BTreeFile implements DbFile {
         return keyField;
     }
 
+    /**
+     * Choose how searches descend from the root to a leaf. Latched (the
+     * default), internal pages are read under their short-term latch without
+     * a lock, unless another transaction has one of them locked exclusively
+     * for a split or merge it hasn't committed yet. A search which overlapped
+     * with a structure change starts over holding locks. Otherwise every page
+     * on the path is locked shared until the transaction completes.
+     */
+    public void setLatchedDescent(boolean latched) {
+        latchedDescent = latched;
+    }
+
+    public boolean isLatchedDescent() {
+        return latchedDescent;
+    }
+
+    /**
+     * @return the number of latched searches which had to start over because
+     * of a concurrent split or merge
+     */
+    public long getDescentRetries() {
+        return descentRetries.get();
+    }
+
+    /**
+     * Find and lock the left-most leaf page possibly containing the key field
+     * f, starting at the root pointer. Internal pages are read as chosen with
+     * {@link #setLatchedDescent}, the leaf page is locked with permission perm.
+     *
+     * @param tid        - the transaction id
+     * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+     * @param perm       - the permissions with which to lock the leaf page
+     * @param f          - the field to search for, null for the left-most leaf page
+     * @return the left-most leaf page possibly containing the key field f
+     */
+    private BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm, Field f)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        // snapshots read copies nobody changes
+        if (latchedDescent && !bp.isSnapshot(tid)) {
+            long changes = structureChanges.get();
+            BTreePageId pid = (BTreePageId) latchedRead(tid, dirtypages, rootPtrId, null);
+            while (pid != null && pid.pgcateg() == BTreePageId.INTERNAL) {
+                pid = (BTreePageId) latchedRead(tid, dirtypages, pid, f);
+            }
+            if (pid != null) {
+                boolean held = dirtypages.containsKey(pid) || bp.holdsLock(tid, pid);
+                BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+                if (structureChanges.get() == changes) {
+                    return leaf;
+                }
+                // the key may have moved to another leaf meanwhile
+                if (!held) {
+                    dirtypages.remove(pid);
+                    bp.unpinPage(tid, pid);
+                    bp.releasePage(tid, pid, perm);
+                }
+            }
+            descentRetries.incrementAndGet();
+            return findLeafPage(tid, dirtypages, lockRoot(tid, dirtypages, perm), perm, f);
+        }
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+        BTreePageId root = rootPtr.getRootId();
+        unpinPage(tid, dirtypages, rootPtrId);
+        return findLeafPage(tid, dirtypages, root, perm, f);
+    }
+
+    /**
+     * Lock the root page, for a latched search starting over with locks. The
+     * root pointer is read without keeping its lock, which would block the
+     * next split of the root until tid completes. A locked root can't be
+     * split or replaced, so once the root pointer still points to the page
+     * locked, it is the root.
+     *
+     * @param perm - the permissions with which to lock the root if it is a leaf
+     * @return the id of the root page, locked by tid
+     */
+    private BTreePageId lockRoot(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        BTreePageId root = (BTreePageId) latchedRead(tid, dirtypages, rootPtrId, null);
+        while (true) {
+            Permissions rootPerm = root.pgcateg() == BTreePageId.LEAF ? perm : Permissions.READ_ONLY;
+            boolean held = dirtypages.containsKey(root) || bp.holdsLock(tid, root);
+            getPage(tid, dirtypages, root, rootPerm);
+            BTreePageId current = (BTreePageId) latchedRead(tid, dirtypages, rootPtrId, null);
+            if (root.equals(current) || held) {
+                unpinPage(tid, dirtypages, root);
+            } else {
+                dirtypages.remove(root);
+                bp.unpinPage(tid, root);
+                bp.releasePage(tid, root, rootPerm);
+            }
+            if (root.equals(current)) {
+                return root;
+            }
+            root = current;
+        }
+    }
+
+    /**
+     * Read the root id from the root pointer page, or the child to descend to
+     * from an internal page, without keeping a lock. If another transaction
+     * holds pid exclusively, it is changing the tree: wait for it to
+     * complete, and lock pid only while reading it.
+     *
+     * @return the page id read, or null if the page has no children (it is
+     * being changed, the search has to start over)
+     */
+    private PageId latchedRead(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Field f)
+            throws DbException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        Page page = dirtypages.get(pid);
+        boolean locked = false;
+        if (page == null) {
+            if (bp.isLockedExclusivelyByOther(tid, pid)) {
+                locked = !bp.holdsLock(tid, pid);
+                page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+            } else {
+                page = bp.getPageWithoutLock(tid, pid);
+            }
+        }
+        try {
+            if (pid.pgcateg() == BTreePageId.ROOT_PTR) {
+                return ((BTreeRootPtrPage) page).getRootId();
+            }
+            return ((BTreeInternalPage) page).childFor(f);
+        } finally {
+            unpinPage(tid, dirtypages, pid);
+            if (locked) {
+                bp.releasePage(tid, pid, Permissions.READ_ONLY);
+            }
+        }
+    }
+
     /**
      * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
      * the left-most page possibly containing the key field f. It locks all internal
@@ -193,21 +371,13 @@ public class BTreeFile implements DbFile {
         }
         // 非叶子节点直接使用READ权限遍历entries
         BTreeInternalPage internalPage = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
-        Iterator<BTreeEntry> it = internalPage.iterator();
-        BTreeEntry entry = null;
-        while (it.hasNext()) {
-            entry = it.next();
-            // 为空则获取leftChild
-            if (f == null) {
-                return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-            }
-            if (entry.getKey().compare(Op.GREATER_THAN_OR_EQ, f)) {
-                return findLeafPage(tid, dirtypages, entry.getLeftChild(), perm, f);
-            }
+        BTreePageId child = internalPage.childFor(f);
+        if (child == null) {
+            throw new DbException("internal page " + pid + " has no entries");
         }
-        // 最后一层节点为叶子节点，且内部节点的entry不应该为空
-        assert entry != null;
-        return findLeafPage(tid, dirtypages, entry.getRightChild(), perm, f);
+        // the search doesn't come back to this node, it may leave the pool
+        unpinPage(tid, dirtypages, pid);
+        return findLeafPage(tid, dirtypages, child, perm, f);
 
     }
 
@@ -227,6 +397,17 @@ public class BTreeFile implements DbFile {
         return findLeafPage(tid, new HashMap<>(), pid, Permissions.READ_ONLY, f);
     }
 
+    /**
+     * Convenience method to find a leaf page from the root when there is no
+     * dirtypages HashMap. Used by the BTreeFile iterators.
+     *
+     * @see #findLeafPage(TransactionId, Map, Permissions, Field)
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f)
+            throws DbException, TransactionAbortedException {
+        return findLeafPage(tid, new HashMap<>(), Permissions.READ_ONLY, f);
+    }
+
     /**
      * Split a leaf page to make room for new tuples and recursively split the parent node
      * as needed to accommodate a new entry. The new entry should have a key matching the key field
@@ -427,6 +608,7 @@ public class BTreeFile implements DbFile {
             throws DbException, TransactionAbortedException {
 
         BTreePage p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_ONLY);
+        unpinPage(tid, dirtypages, child);
 
         if (!p.getParentId().equals(pid)) {
             p = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
@@ -491,6 +673,16 @@ public class BTreeFile implements DbFile {
         }
     }
 
+    /**
+     * Give up the pin of a page fetched with getPage which the caller is done
+     * with. Pages in dirtypages stay pinned until the transaction completes.
+     */
+    private void unpinPage(TransactionId tid, Map<PageId, Page> dirtypages, PageId pid) {
+        if (!dirtypages.containsKey(pid)) {
+            Database.getBufferPool().unpinPage(tid, pid);
+        }
+    }
+
     /**
      * Insert a tuple into this BTreeFile, keeping the tuples in sorted order.
      * May cause pages to split if the page where tuple t belongs is full.
@@ -508,18 +700,26 @@ public class BTreeFile implements DbFile {
         // get a read lock on the root pointer page and use it to locate the root page
         BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages);
         BTreePageId rootId = rootPtr.getRootId();
+        unpinPage(tid, dirtypages, rootPtr.getId());
 
         if (rootId == null) { // the root has just been created, so set the root pointer to point to it
-            rootId = new BTreePageId(tableid, numPages(), BTreePageId.LEAF);
             rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-            rootPtr.setRootId(rootId);
+            // unless another transaction did while we waited for the lock
+            if (rootPtr.getRootId() == null) {
+                rootPtr.setRootId(new BTreePageId(tableid, numPages(), BTreePageId.LEAF));
+            }
         }
 
         // find and lock the left-most leaf page corresponding to the key field,
         // and split the leaf page if there are no more slots available
-        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+        BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, Permissions.READ_WRITE, t.getField(keyField));
         if (leafPage.getNumEmptySlots() == 0) {
-            leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            structureChanges.incrementAndGet();
+            try {
+                leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));
+            } finally {
+                structureChanges.incrementAndGet();
+            }
         }
 
         // insert the tuple into the leaf page
@@ -982,15 +1182,22 @@ public class BTreeFile implements DbFile {
         // or merge with one of the siblings
         int maxEmptySlots = page.getMaxTuples() - page.getMaxTuples() / 2; // ceiling
         if (page.getNumEmptySlots() > maxEmptySlots) {
-            handleMinOccupancyPage(tid, dirtypages, page);
+            structureChanges.incrementAndGet();
+            try {
+                handleMinOccupancyPage(tid, dirtypages, page);
+            } finally {
+                structureChanges.incrementAndGet();
+            }
         }
 
         return new ArrayList<>(dirtypages.values());
     }
 
     /**
-     * Get a read lock on the root pointer page. Create the root pointer page and root page
-     * if necessary.
+     * Get the root pointer page, creating the root pointer page and root page
+     * if necessary. It is read under the latched protocol (see
+     * {@link #setLatchedDescent}), so the caller doesn't keep a read lock
+     * which would block the next split of the root.
      *
      * @param tid        - the transaction id
      * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
@@ -1001,20 +1208,30 @@ public class BTreeFile implements DbFile {
      */
     BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
         synchronized (this) {
-            if (f.length() == 0) {
+            if (channel.size() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                channel.write(new ByteBuffer[]{ByteBuffer.wrap(emptyRootPtrData), ByteBuffer.wrap(emptyLeafData)}, 0);
             }
         }
 
-        // get a read lock on the root pointer page
-        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+        BTreePageId rootPtrId = BTreeRootPtrPage.getId(tableid);
+        if (!latchedDescent || dirtypages.containsKey(rootPtrId)) {
+            // get a read lock on the root pointer page
+            return (BTreeRootPtrPage) getPage(tid, dirtypages, rootPtrId, Permissions.READ_ONLY);
+        }
+        BufferPool bp = Database.getBufferPool();
+        if (bp.isLockedExclusivelyByOther(tid, rootPtrId)) {
+            // the root is being split, wait for it
+            boolean held = bp.holdsLock(tid, rootPtrId);
+            Page rootPtr = bp.getPage(tid, rootPtrId, Permissions.READ_ONLY);
+            if (!held) {
+                bp.releasePage(tid, rootPtrId, Permissions.READ_ONLY);
+            }
+            return (BTreeRootPtrPage) rootPtr;
+        }
+        return (BTreeRootPtrPage) bp.getPageWithoutLock(tid, rootPtrId);
     }
 
     /**
@@ -1040,6 +1257,7 @@ public class BTreeFile implements DbFile {
             int headerPageCount = 0;
             // try to find a header page with an empty slot
             while (headerPage != null && headerPage.getEmptySlot() == -1) {
+                unpinPage(tid, dirtypages, headerId);
                 headerId = headerPage.getNextPageId();
                 if (headerId != null) {
                     headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
@@ -1063,11 +1281,8 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                channel.write(ByteBuffer.wrap(emptyData), channel.size());
                 emptyPageNo = numPages();
             }
         }
@@ -1097,10 +1312,8 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        channel.write(ByteBuffer.wrap(BTreePage.createEmptyPageData()),
+                BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().discardPage(newPageId);
@@ -1155,7 +1368,10 @@ public class BTreeFile implements DbFile {
         // the header pointer in the BTreeRootPtrPage
         if (headerId == null) {
             rootPtr = (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), Permissions.READ_WRITE);
-
+            // unless another transaction did while we waited for the lock
+            headerId = rootPtr.getHeaderId();
+        }
+        if (headerId == null) {
             BTreeHeaderPage headerPage = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
             headerId = headerPage.getId();
             headerPage.init();
@@ -1166,6 +1382,7 @@ public class BTreeFile implements DbFile {
         // corresponding to emptyPageNo
         while (headerId != null && (headerPageCount + 1) * BTreeHeaderPage.getNumSlots() < emptyPageNo) {
             BTreeHeaderPage headerPage = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            unpinPage(tid, dirtypages, headerId);
             prevId = headerId;
             headerId = headerPage.getNextPageId();
             headerPageCount++;
@@ -1232,6 +1449,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
     final TransactionId tid;
     final BTreeFile f;
+    final ReadAhead readAhead = new ReadAhead(Database.getBufferPool());
 
     /**
      * Constructor for this iterator
@@ -1248,10 +1466,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
      * Open this iterator by getting an iterator on the first leaf page
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
-        curp = f.findLeafPage(tid, root, null);
+        curp = f.findLeafPage(tid, null);
         it = curp.iterator();
     }
 
@@ -1269,10 +1484,14 @@ class BTreeFileIterator extends AbstractDbFileIterator {
         while (it == null && curp != null) {
             BTreePageId nextp = curp.getRightSiblingId();
             if (nextp == null) {
+                Database.getBufferPool().unpinPage(tid, curp.getId());
                 curp = null;
             } else {
+                BTreeLeafPage prev = curp;
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                        nextp, Permissions.READ_ONLY, true);
+                Database.getBufferPool().unpinPage(tid, prev.getId());
+                readAhead.onChainedPage(curp, BTreeFile.RIGHT_SIBLING);
                 it = curp.iterator();
                 if (!it.hasNext())
                     it = null;
@@ -1298,6 +1517,9 @@ class BTreeFileIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        if (curp != null) {
+            Database.getBufferPool().unpinPage(tid, curp.getId());
+        }
         curp = null;
     }
 }
@@ -1313,6 +1535,7 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
     final TransactionId tid;
     final BTreeFile f;
+    final ReadAhead readAhead = new ReadAhead(Database.getBufferPool());
     final IndexPredicate ipred;
 
     /**
@@ -1333,14 +1556,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
      * for the given predicate operation
      */
     public void open() throws DbException, TransactionAbortedException {
-        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
-                tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
-        BTreePageId root = rootPtr.getRootId();
         if (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
                 || ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-            curp = f.findLeafPage(tid, root, ipred.getField());
+            curp = f.findLeafPage(tid, ipred.getField());
         } else {
-            curp = f.findLeafPage(tid, root, null);
+            curp = f.findLeafPage(tid, null);
         }
         it = curp.iterator();
     }
@@ -1377,8 +1597,11 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
             if (nextp == null) {
                 return null;
             } else {
+                BTreeLeafPage prev = curp;
                 curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-                        nextp, Permissions.READ_ONLY);
+                        nextp, Permissions.READ_ONLY, true);
+                Database.getBufferPool().unpinPage(tid, prev.getId());
+                readAhead.onChainedPage(curp, BTreeFile.RIGHT_SIBLING);
                 it = curp.iterator();
             }
         }
@@ -1400,5 +1623,9 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
     public void close() {
         super.close();
         it = null;
+        if (curp != null) {
+            Database.getBufferPool().unpinPage(tid, curp.getId());
+        }
+        curp = null;
     }
 }
@@ -10,6 +10,7 @@ import simpledb.storage.Page;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -118,7 +119,7 @@ public class BTreeHeaderPage implements Page {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
@@ -141,41 +142,18 @@ public class BTreeHeaderPage implements Page {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
+		ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+		writePageData(buf);
+		return buf.array();
+	}
 
+	public void writePageData(ByteBuffer dst) {
 		// write out the next and prev pointers
-		try {
-			dos.writeInt(nextPage);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(prevPage);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		dst.putInt(nextPage);
+		dst.putInt(prevPage);
 
 		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		dst.put(header);
 	}
 
 	/**
@@ -8,8 +8,10 @@ import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and
@@ -27,6 +29,9 @@ public class BTreeInternalPage extends BTreePage {
 
 	private int childCategory; // either leaf or internal
 
+	// short-term latch, held while entries are changed or searched by childFor
+	private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+
 	public void checkRep(Field lowerBound, Field upperBound, boolean checkOccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.INTERNAL);
@@ -158,7 +163,7 @@ public class BTreeInternalPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
@@ -233,61 +238,42 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
+		ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+		writePageData(buf);
+		return buf.array();
+	}
 
-		// write out the parent pointer
-		try {
-			dos.writeInt(parent);
+	/**
+	 * Write the page straight into dst, without the streams and the
+	 * intermediate arrays getPageData used to build it with.
+	 */
+	public void writePageData(ByteBuffer dst) {
+		int start = dst.position();
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// write out the parent pointer
+		dst.putInt(parent);
 
 		// write out the child page category
-		try {
-			dos.writeByte((byte) childCategory);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		dst.put((byte) childCategory);
 
 		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+		dst.put(header);
 
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
+		int keyLen = td.getFieldType(keyField).getLen();
 		for (int i=1; i<keys.length; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				putZeroes(dst, keyLen);
 				continue;
 			}
 
 			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
+			keys[i].serialize(dst, dst.position());
+			dst.position(dst.position() + keyLen);
 		}
 
 		// create the child pointers
@@ -295,43 +281,16 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				putZeroes(dst, INDEX_SIZE);
 				continue;
 			}
 
 			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
-
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			dst.putInt(children[i]);
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length +
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length);
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		putZeroes(dst, BufferPool.getPageSize() - (dst.position() - start));
 	}
 
 	/**
@@ -346,6 +305,15 @@ public class BTreeInternalPage extends BTreePage {
 	 *        delete the left child
 	 */
 	private void deleteEntry(BTreeEntry e, boolean deleteRightChild) throws DbException {
+		latch.writeLock().lock();
+		try {
+			deleteEntryLatched(e, deleteRightChild);
+		} finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	private void deleteEntryLatched(BTreeEntry e, boolean deleteRightChild) throws DbException {
 		RecordId rid = e.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to delete entry with null rid");
@@ -403,6 +371,15 @@ public class BTreeInternalPage extends BTreePage {
 	 *         order on the page
 	 */
 	public void updateEntry(BTreeEntry e) throws DbException {
+		latch.writeLock().lock();
+		try {
+			updateEntryLatched(e);
+		} finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	private void updateEntryLatched(BTreeEntry e) throws DbException {
 		RecordId rid = e.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to update entry with null rid");
@@ -442,6 +419,15 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
+		latch.writeLock().lock();
+		try {
+			insertEntryLatched(e);
+		} finally {
+			latch.writeLock().unlock();
+		}
+	}
+
+	private void insertEntryLatched(BTreeEntry e) throws DbException {
 		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
 			throw new DbException("key field type mismatch, in insertEntry");
 
@@ -546,6 +532,35 @@ public class BTreeInternalPage extends BTreePage {
 		e.setRecordId(new RecordId(pid, goodSlot));
 	}
 
+	/**
+	 * Find the child to descend to when searching for the left-most leaf page
+	 * possibly containing f, the left-most child if f is null. Safe to call
+	 * while another thread changes the entries, without a lock on the page.
+	 * Slot 0 only holds the left-most child pointer: a page whose last entry
+	 * has been deleted keeps it, and it is the only child then.
+	 * @param f - the field to search for
+	 * @return the id of the child page, or null if the page has no children
+	 */
+	public BTreePageId childFor(Field f) {
+		latch.readLock().lock();
+		try {
+			int last = -1;
+			for (int i = 0; i < numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				// the key of slot i separates the child before it from children[i]
+				if (last >= 0 && (f == null || keys[i].compare(Op.GREATER_THAN_OR_EQ, f)))
+					return new BTreePageId(pid.getTableId(), children[last], childCategory);
+				last = i;
+			}
+			if (last < 0)
+				return null;
+			return new BTreePageId(pid.getTableId(), children[last], childCategory);
+		} finally {
+			latch.readLock().unlock();
+		}
+	}
+
 	/**
 	 * Move an entry from one slot to another slot, and update the corresponding
 	 * headers
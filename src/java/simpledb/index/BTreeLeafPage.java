@@ -10,6 +10,7 @@ import simpledb.storage.*;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -152,7 +153,7 @@ public class BTreeLeafPage extends BTreePage {
 	public void setBeforeImage() {
 		synchronized(oldDataLock)
 		{
-			oldData = getPageData().clone();
+			oldData = getPageData();
 		}
 	}
 
@@ -202,84 +203,44 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent and sibling pointers
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(leftSibling);
+		ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+		writePageData(buf);
+		return buf.array();
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(rightSibling);
+	/**
+	 * Write the page straight into dst, without the streams and the
+	 * intermediate arrays getPageData used to build it with.
+	 */
+	public void writePageData(ByteBuffer dst) {
+		int start = dst.position();
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// write out the parent and sibling pointers
+		dst.putInt(parent);
+		dst.putInt(leftSibling);
+		dst.putInt(rightSibling);
 
 		// create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
+		dst.put(header);
 
 		// create the tuples
 		for (int i=0; i<tuples.length; i++) {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
+				putZeroes(dst, td.getSize());
 				continue;
 			}
 
 			// non-empty slot
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
+				tuples[i].getField(j).serialize(dst, dst.position());
+				dst.position(dst.position() + td.getFieldType(j).getLen());
 			}
 		}
 
 		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		putZeroes(dst, BufferPool.getPageSize() - (dst.position() - start));
 	}
 
 	/**
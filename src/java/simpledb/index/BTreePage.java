@@ -9,6 +9,8 @@ import simpledb.storage.Page;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
@@ -31,6 +33,8 @@ public abstract class BTreePage implements Page {
 	protected byte[] oldData;
 	protected final Byte oldDataLock= (byte) 0;
 
+	private final static byte[] ZEROES = new byte[1024];
+
 	/**
 	 * Create a BTreeInternalPage from a set of bytes of data read from disk.
 	 * The format of a BTreeInternalPage is a set of header bytes indicating
@@ -144,5 +148,15 @@ public abstract class BTreePage implements Page {
 	 */
 	public abstract boolean isSlotUsed(int i);
 
+	/**
+	 * Write n zero bytes into dst, for empty slots and padding.
+	 */
+	protected static void putZeroes(ByteBuffer dst, int n) {
+		while (n > 0) {
+			int len = Math.min(n, ZEROES.length);
+			dst.put(ZEROES, 0, len);
+			n -= len;
+		}
+	}
 }
 
@@ -6,6 +6,7 @@ import simpledb.storage.Page;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * BTreeRootPtrPage stores the pointer to the root node used in the B+ tree and
@@ -52,7 +53,7 @@ public class BTreeRootPtrPage implements Page {
 	}
 
 	public void setBeforeImage() {
-		oldData = getPageData().clone();
+		oldData = getPageData();
 	}
 
 	/**
@@ -82,37 +83,20 @@ public class BTreeRootPtrPage implements Page {
 	 * @return A byte array corresponding to the bytes of this root pointer page.
 	 */
 	public byte[] getPageData(){
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(PAGE_SIZE);
-		DataOutputStream dos = new DataOutputStream(baos);
+		ByteBuffer buf = ByteBuffer.allocate(PAGE_SIZE);
+		writePageData(buf);
+		return buf.array();
+	}
 
+	public void writePageData(ByteBuffer dst) {
 		// write out the root pointer (page number of the root page)
-		try{
-			dos.writeInt(root);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
+		dst.putInt(root);
 
 		// write out the category of the root page (leaf or internal)
-		try{
-			dos.writeByte((byte) rootCategory);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
+		dst.put((byte) rootCategory);
 
 		// write out the header pointer (page number of the first header page)
-		try{
-			dos.writeInt(header);
-		}catch(IOException e){
-			e.printStackTrace();
-		}
-
-		try {
-			dos.flush();
-		}catch(IOException e) {
-			e.printStackTrace();
-		}
-
-		return baos.toByteArray();
+		dst.putInt(header);
 	}
 
 	/**
@@ -157,7 +141,7 @@ public class BTreeRootPtrPage implements Page {
 	 * Get the id of the root page in this B+ tree
 	 * @return the id of the root page
 	 */
-	public BTreePageId getRootId() {
+	public synchronized BTreePageId getRootId() {
 		if(root == 0) {
 			return null;
 		}
@@ -169,7 +153,7 @@ public class BTreeRootPtrPage implements Page {
 	 * @param id - the id of the root page
 	 * @throws DbException if the id is invalid
 	 */
-	public void setRootId(BTreePageId id) throws DbException {
+	public synchronized void setRootId(BTreePageId id) throws DbException {
 		if(id == null) {
 			root = 0;
 		}
@@ -5,13 +5,19 @@ import simpledb.common.DbException;
 import simpledb.common.Permissions;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
-import simpledb.util.LRU;
+import simpledb.util.ReplacementPolicy;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static simpledb.common.Permissions.READ_ONLY;
 import static simpledb.common.Permissions.READ_WRITE;
@@ -42,12 +48,107 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    public static int maxPages = DEFAULT_PAGES;
+    /**
+     * Number of pages the pool may cache, changed by {@link #resize}.
+     */
+    private volatile int numPages;
+    // serializes resizes
+    private final Object resizeLock = new Object();
 
-    private LRU<PageId, Page> pages;
+    /**
+     * How often a shrinking resize checks whether dirty pages have become clean.
+     */
+    private static final long RESIZE_RETRY_MILLIS = 10;
+
+    /**
+     * Replacement policy used when none is passed to the constructor.
+     */
+    public static final ReplacementPolicy.Kind DEFAULT_POLICY = ReplacementPolicy.Kind.CLOCK;
+
+    /**
+     * Upper bound of the default partition count, and the number of pages a
+     * partition should at least hold when the count is picked automatically.
+     */
+    public static final int MAX_DEFAULT_PARTITIONS = 16;
+    public static final int MIN_PAGES_PER_PARTITION = 1024;
+
+    /**
+     * The page table is split into partitions by PageId.hashCode(). Each partition
+     * has its own replacement state and is guarded by its own monitor, so
+     * threads working on different partitions never wait for each other.
+     */
+    private final Partition[] partitions;
+
+    /**
+     * Off-heap frames holding the bytes of the cached heap pages, or null if
+     * pages keep their bytes on the Java heap.
+     */
+    private final PageFrameArena arena;
 
     private LockManager lockManager;
 
+    /**
+     * Number of page locks a transaction may hold on one table before they are
+     * replaced with a single lock on the table.
+     */
+    public static final int DEFAULT_LOCK_ESCALATION_THRESHOLD = 1000;
+
+    /**
+     * Deadlock policy of a new pool, and how often DETECT_PERIODIC looks for
+     * deadlocks.
+     */
+    public static final DeadlockPolicy DEFAULT_DEADLOCK_POLICY = DeadlockPolicy.DETECT_ON_WAIT;
+    public static final long DEADLOCK_DETECTION_INTERVAL_MILLIS = 20;
+
+    /**
+     * Writes the pages of committing transactions together, null when commits
+     * write their pages themselves.
+     */
+    private volatile PageCleaner cleaner;
+
+    /**
+     * Number of page versions kept for read-only transactions reading a
+     * snapshot, see {@link #beginSnapshot}.
+     */
+    public static final int DEFAULT_VERSION_STORE_PAGES = 1000;
+    private final VersionStore versions = new VersionStore(DEFAULT_VERSION_STORE_PAGES);
+
+    /**
+     * Pools with fewer pages than this don't read ahead unless told to.
+     */
+    public static final int MIN_PAGES_FOR_READ_AHEAD = 1024;
+    public static final int DEFAULT_READ_AHEAD_DEPTH = 16;
+    private static final int READ_AHEAD_THREADS = 2;
+
+    /**
+     * Scans of tables larger than this fraction of the pool read through a
+     * BufferRing of at most BULK_READ_RING_SIZE pages. Tables which fit into the
+     * pool are cached as a whole, so repeated scans of them don't hit the disk.
+     */
+    public static final double BULK_READ_FRACTION = 1.0;
+    public static final int BULK_READ_RING_SIZE = 32;
+    private final AtomicLong ringRecycled = new AtomicLong();
+
+    private volatile int readAheadDepth;
+    // created on the first prefetch
+    private volatile ThreadPoolExecutor readAheadExecutor;
+    // pages loaded by read ahead and not requested yet
+    private final Set<PageId> prefetched = ConcurrentHashMap.newKeySet();
+    private final AtomicLong prefetchIssued = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchWasted = new AtomicLong();
+
+    /*
+     * The pins each transaction holds, see getPage. The total count of a page is
+     * kept in its partition, these let transactionComplete drop the pins a
+     * transaction didn't give up itself.
+     */
+    private final ConcurrentHashMap<TransactionId, Map<PageId, Integer>> pins = new ConcurrentHashMap<>();
+    // pages admitted over the limit of their partition because all clean pages were pinned
+    private final AtomicLong pinOverflows = new AtomicLong();
+
+    private final LockMonitor lockMonitor = new LockMonitor();
+
 //    private HashMap<Integer, ArrayList<Page>> tableIdToDirtyAndNotExistPages;
 
 
@@ -57,13 +158,385 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, DEFAULT_POLICY);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks the pages
+     * to evict with the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy, e.g. CLOCK or LRU.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy) {
+        this(numPages, policy, defaultPartitions(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, split into
+     * numPartitions independent partitions of numPages / numPartitions pages
+     * each (rounded up).
+     * <p>
+     * Every partition evicts on its own, so with more than one partition a
+     * partition may have to evict while the others still have room. Small pools
+     * should use a single partition.
+     *
+     * @param numPages      maximum number of pages in this buffer pool.
+     * @param policy        the replacement policy, e.g. CLOCK or LRU.
+     * @param numPartitions the number of partitions of the page table.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy, int numPartitions) {
+        this(numPages, policy, numPartitions, false);
+    }
+
+    /**
+     * Creates a BufferPool like {@link #BufferPool(int, ReplacementPolicy.Kind, int)}.
+     * If offHeap is set, the pool allocates one direct buffer of numPages frames
+     * up front and cached HeapPages keep their bytes in these frames, decoding
+     * tuples only when they are read. The cached working set then adds next to
+     * nothing to the Java heap.
+     *
+     * @param offHeap whether cached HeapPages live in off-heap frames.
+     */
+    public BufferPool(int numPages, ReplacementPolicy.Kind policy, int numPartitions, boolean offHeap) {
         // some code goes here
-        maxPages = numPages;
-        pages = new LRU<>(maxPages);
+        if (numPartitions <= 0 || numPartitions > numPages) {
+            throw new IllegalArgumentException("invalid partition count " + numPartitions);
+        }
+        this.numPages = numPages;
+        int partitionPages = (numPages + numPartitions - 1) / numPartitions;
+        partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            partitions[i] = new Partition(policy.create(partitionPages), partitionPages);
+        }
+        arena = offHeap ? new PageFrameArena(partitionPages * numPartitions, pageSize) : null;
+        readAheadDepth = numPages >= MIN_PAGES_FOR_READ_AHEAD ? DEFAULT_READ_AHEAD_DEPTH : 0;
         lockManager = new LockManager();
 //        tableIdToDirtyAndNotExistPages = new HashMap<>();
     }
 
+    /**
+     * One partition per MIN_PAGES_PER_PARTITION pages, at most MAX_DEFAULT_PARTITIONS.
+     */
+    static int defaultPartitions(int numPages) {
+        return Math.max(1, Math.min(MAX_DEFAULT_PARTITIONS, numPages / MIN_PAGES_PER_PARTITION));
+    }
+
+    public int getNumPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * @return the number of pages the pool may cache
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Change the number of pages the pool may cache while it is in use. Cached
+     * pages and locks are kept. Every partition may hold numPages /
+     * getNumPartitions() pages (rounded up) from now on.
+     * <p>
+     * Growing takes effect at once. Shrinking evicts clean pages first. Dirty
+     * and pinned pages can't be evicted, so while a partition holds too many of
+     * them the call waits for their transactions to complete, at most
+     * timeoutMillis. A partition still over its share after that gives back
+     * pages whenever new ones are loaded into it.
+     * <p>
+     * The off-heap frames of the pool aren't resized, pages beyond the frames
+     * allocated by the constructor keep their bytes on the Java heap.
+     *
+     * @return true if the pool holds at most numPages pages now, false if the
+     * timeout passed while waiting for dirty pages
+     */
+    public boolean resize(int numPages, long timeoutMillis) throws InterruptedException {
+        if (numPages < partitions.length) {
+            throw new IllegalArgumentException("invalid pool size " + numPages);
+        }
+        synchronized (resizeLock) {
+            this.numPages = numPages;
+            int partitionPages = (numPages + partitions.length - 1) / partitions.length;
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            boolean shrunk = true;
+            for (Partition partition : partitions) {
+                synchronized (partition) {
+                    partition.limit = partitionPages;
+                    while (!shrink(partition)) {
+                        long left = deadline - System.currentTimeMillis();
+                        if (left <= 0) {
+                            shrunk = false;
+                            break;
+                        }
+                        partition.wait(Math.min(left, RESIZE_RETRY_MILLIS));
+                    }
+                }
+            }
+            return shrunk;
+        }
+    }
+
+    /**
+     * Evict clean pages until the partition holds at most its limit, then fit
+     * the replacement policy to the limit. The caller holds the partition.
+     *
+     * @return false if dirty or pinned pages keep the partition over its limit
+     */
+    private boolean shrink(Partition partition) {
+        ReplacementPolicy<PageId, Page> pages = partition.pages;
+        while (pages.size() > partition.limit) {
+            try {
+                release(pages.evict(evictable(partition)));
+            } catch (DbException e) {
+                return false;
+            }
+        }
+        if (pages.getCapacity() != partition.limit) {
+            pages.setCapacity(partition.limit);
+        }
+        return true;
+    }
+
+    public boolean isOffHeap() {
+        return arena != null;
+    }
+
+    /**
+     * Start a background page cleaner, see {@link PageCleaner}. From now on
+     * commits hand their dirty pages to the cleaner, which writes the pages of
+     * concurrent commits together.
+     */
+    public synchronized void startPageCleaner() {
+        stopPageCleaner();
+        PageCleaner c = new PageCleaner(this);
+        c.start();
+        cleaner = c;
+    }
+
+    /**
+     * Stop the page cleaner once its pending writes are done, commits write
+     * their pages themselves again.
+     */
+    public synchronized void stopPageCleaner() {
+        PageCleaner c = cleaner;
+        if (c != null) {
+            cleaner = null;
+            c.shutdown();
+        }
+    }
+
+    /**
+     * Set how many pages sequential scans load ahead of the page they are
+     * reading, 0 disables read ahead.
+     */
+    public void setReadAheadDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("invalid read ahead depth " + depth);
+        }
+        readAheadDepth = depth;
+    }
+
+    public int getReadAheadDepth() {
+        return readAheadDepth;
+    }
+
+    /**
+     * @return pages loaded by read ahead, those a scan asked for before they
+     * were evicted, and those which were evicted or dropped unused
+     */
+    public Map<String, Long> getReadAheadStats() {
+        HashMap<String, Long> stats = new HashMap<>();
+        stats.put("prefetchIssued", prefetchIssued.get());
+        stats.put("prefetchHits", prefetchHits.get());
+        stats.put("prefetchWasted", prefetchWasted.get());
+        return stats;
+    }
+
+    /**
+     * Load pages in the background, without locking them. Pages which are
+     * resident already are skipped.
+     */
+    void prefetch(List<PageId> pids) {
+        readAheadExecutor().execute(() -> {
+            for (PageId pid : pids) {
+                prefetchPage(pid);
+            }
+        });
+    }
+
+    /**
+     * Load up to depth pages in the background, starting with first and
+     * following next from each page to the one after it.
+     */
+    void prefetchChain(PageId first, int depth, Function<Page, PageId> next) {
+        readAheadExecutor().execute(() -> {
+            PageId pid = first;
+            for (int i = 0; i < depth && pid != null; i++) {
+                Page page = prefetchPage(pid);
+                if (page == null) {
+                    return;
+                }
+                pid = next.apply(page);
+            }
+        });
+    }
+
+    /**
+     * @return the page, resident or loaded now, or null if it couldn't be loaded
+     */
+    private Page prefetchPage(PageId pid) {
+        Partition partition = partitionOf(pid);
+        long epoch;
+        synchronized (partition) {
+            Page page = partition.pages.peek(pid);
+            if (page != null) {
+                return page;
+            }
+            epoch = partition.epoch;
+        }
+        Page page;
+        try {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        } catch (RuntimeException e) {
+            // the page may be gone, e.g. the table was dropped
+            return null;
+        }
+        synchronized (partition) {
+            Page loaded = partition.pages.peek(pid);
+            if (loaded != null) {
+                return loaded;
+            }
+            if (partition.epoch != epoch) {
+                // a page of the partition was written or dropped while reading,
+                // what we read may be stale
+                prefetchWasted.incrementAndGet();
+                return null;
+            }
+            try {
+                admit(partition, pid, page, true, false);
+            } catch (DbException e) {
+                // no clean page to make room
+                return null;
+            }
+            prefetched.add(pid);
+            prefetchIssued.incrementAndGet();
+            return page;
+        }
+    }
+
+    /**
+     * @return the ids of the cached pages, the ones the replacement policy would
+     * keep longest first. The partitions are interleaved rank by rank.
+     */
+    public List<PageId> residentPagesByHotness() {
+        List<List<PageId>> ranked = new ArrayList<>(partitions.length);
+        int total = 0;
+        for (Partition partition : partitions) {
+            List<PageId> pids = new ArrayList<>();
+            synchronized (partition) {
+                partition.pages.hotIterator().forEachRemaining(pids::add);
+            }
+            ranked.add(pids);
+            total += pids.size();
+        }
+        List<PageId> pids = new ArrayList<>(total);
+        for (int rank = 0; pids.size() < total; rank++) {
+            for (List<PageId> partitionPids : ranked) {
+                if (rank < partitionPids.size()) {
+                    pids.add(partitionPids.get(rank));
+                }
+            }
+        }
+        return pids;
+    }
+
+    /**
+     * Write the ids of the cached pages to f, for {@link #warmUp} after a restart.
+     */
+    public void saveResidentPages(File f) throws IOException {
+        WarmRestart.save(residentPagesByHotness(), f);
+    }
+
+    /**
+     * Start loading the pages saved to f by {@link #saveResidentPages} in the
+     * background, see {@link WarmRestart}. The tables must be in the catalog.
+     * Nothing is loaded if f doesn't exist.
+     *
+     * @return the loader, to follow its progress
+     */
+    public WarmRestart warmUp(File f) throws IOException {
+        List<PageId> pids = f.exists() ? WarmRestart.read(f) : Collections.emptyList();
+        WarmRestart loader = new WarmRestart(this, pids);
+        loader.start();
+        return loader;
+    }
+
+    /**
+     * @return the epoch of the partition of pid, to pass to {@link #preload}
+     */
+    long epochOf(PageId pid) {
+        Partition partition = partitionOf(pid);
+        synchronized (partition) {
+            return partition.epoch;
+        }
+    }
+
+    /**
+     * Add a page read without a lock to a free frame. The page is dropped if it
+     * is cached already, its partition is full, or a page of the partition was
+     * written or dropped since epoch was taken.
+     *
+     * @return true if the page was added
+     */
+    boolean preload(Page page, long epoch) {
+        PageId pid = page.getId();
+        Partition partition = partitionOf(pid);
+        synchronized (partition) {
+            if (partition.epoch != epoch || partition.pages.containsKey(pid)
+                    || partition.pages.size() >= partition.limit) {
+                return false;
+            }
+            try {
+                admit(partition, pid, page, false, false);
+            } catch (DbException e) {
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private ThreadPoolExecutor readAheadExecutor() {
+        ThreadPoolExecutor executor = readAheadExecutor;
+        if (executor == null) {
+            synchronized (prefetched) {
+                executor = readAheadExecutor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(READ_AHEAD_THREADS, READ_AHEAD_THREADS,
+                            1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "ReadAhead");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    executor.allowCoreThreadTimeOut(true);
+                    readAheadExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * @return the counters of the page cleaner, empty if it doesn't run
+     */
+    public Map<String, Long> getCleanerStats() {
+        PageCleaner c = cleaner;
+        return c == null ? new HashMap<>() : c.getStats();
+    }
+
+    private Partition partitionOf(PageId pid) {
+        return partitions[Math.floorMod(pid.hashCode(), partitions.length)];
+    }
+
     public static int getPageSize() {
         return pageSize;
     }
@@ -89,24 +562,480 @@ public class BufferPool {
      * space in the buffer pool, a page should be evicted and the new page
      * should be added in its place.
      *
+     * <p>
+     * The returned page is pinned for tid: it isn't evicted until tid calls
+     * {@link #unpinPage} once per getPage, or completes. Callers done with a
+     * page they keep no reference to should unpin it, so that long transactions
+     * don't hold the whole pool. If every clean page of a full partition is
+     * pinned, the partition goes over its size until pages are unpinned.
+     *
      * @param tid  the ID of the transaction requesting the page
      * @param pid  the ID of the requested page
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, false);
+    }
+
+    /**
+     * Same as {@link #getPage(TransactionId, PageId, Permissions)}, for callers
+     * reading a file sequentially. The replacement policy may evict pages read
+     * this way before the ones fetched by point lookups.
+     *
+     * @param sequential true if the page is fetched by a sequential scan
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean sequential)
+            throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, sequential, null);
+    }
+
+    /**
+     * Same as {@link #getPage(TransactionId, PageId, Permissions, boolean)} for
+     * a sequential scan reading through ring, see {@link BufferRing}. Pages the
+     * scan loads are recycled through the ring instead of staying in the pool.
+     *
+     * @param ring the ring of the scan, null to use the shared pool as usual
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, true, ring);
+    }
+
+    private Page getPage(TransactionId tid, PageId pid, Permissions perm, boolean sequential, BufferRing ring)
+            throws TransactionAbortedException, DbException {
         // some code goes here
+        long snapshot = versions.snapshotOf(tid);
+        if (snapshot >= 0) {
+            return getSnapshotPage(pid, perm, snapshot);
+        }
         lockManager.getLock(tid, pid, perm);
-        if (pages.containsKey(pid)) {
-//          System.out.println("page" + pid + " is in buffer pool");
-            return pages.get(pid);
-        } else {
-            Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            pages.put(pid, p, page -> page.isDirty() == null);
-            System.out.println("pages " + pages.toString());
+        return fetch(tid, pid, sequential, ring);
+    }
+
+    /**
+     * Same as {@link #getPage(TransactionId, PageId, Permissions)}, without
+     * locking the page. Only for index pages whose readers don't need locks:
+     * they read under a page latch and check that no structure change
+     * happened meanwhile, see {@link simpledb.index.BTreeFile}.
+     */
+    public Page getPageWithoutLock(TransactionId tid, PageId pid) throws DbException {
+        return fetch(tid, pid, false, null);
+    }
+
+    /**
+     * Retrieve pid to change some of its records, each locked with
+     * {@link #lockRecord} first, see {@link HeapFile#insertTuple}. The page is
+     * locked IX: other transactions may change other records of it meanwhile,
+     * but not read it until tid completes. Readers keep the page locked S
+     * until they complete, tid waits for them. The page is pinned as by
+     * getPage.
+     */
+    public Page getPageForRecordUpdate(TransactionId tid, PageId pid)
+            throws TransactionAbortedException, DbException {
+        if (versions.snapshotOf(tid) >= 0) {
+            throw new DbException("read-only transaction can't write " + pid);
+        }
+        lockManager.lockForRecords(tid, pid);
+        return fetch(tid, pid, false, null);
+    }
+
+    /**
+     * Release the lock of one {@link #getPageForRecordUpdate} call, once tid
+     * found nothing to change on the page.
+     *
+     * @throws DbException if tid doesn't hold pid for record updates
+     */
+    public void releasePageForRecordUpdate(TransactionId tid, PageId pid) throws DbException {
+        lockManager.releaseLock(tid, pid, LockMode.IX);
+    }
+
+    /**
+     * Lock record rid exclusively for tid until it completes, waiting as long
+     * as another transaction holds it. tid must have retrieved its page with
+     * {@link #getPageForRecordUpdate}.
+     *
+     * @throws TransactionAbortedException if waiting would deadlock
+     */
+    public void lockRecord(TransactionId tid, RecordId rid) throws TransactionAbortedException {
+        lockManager.lockRecord(tid, rid, true);
+    }
+
+    /**
+     * Same as {@link #lockRecord}, without waiting.
+     *
+     * @return true if the lock has been granted
+     */
+    public boolean tryLockRecord(TransactionId tid, RecordId rid) {
+        return lockManager.tryLockRecord(tid, rid);
+    }
+
+    /**
+     * @return true if tid holds the lock of record rid, or its page or table
+     * exclusively
+     */
+    public boolean holdsRecordLock(TransactionId tid, RecordId rid) {
+        return lockManager.holdsRecordLock(tid, rid);
+    }
+
+    /**
+     * @return true if a transaction other than tid holds pid, or its table,
+     * exclusively, so that pid may change until that transaction completes
+     */
+    public boolean isLockedExclusivelyByOther(TransactionId tid, PageId pid) {
+        return lockManager.lockedExclusivelyByOther(tid, pid);
+    }
+
+    // look up pid, reading it on a miss, and pin it for tid
+    private Page fetch(TransactionId tid, PageId pid, boolean sequential, BufferRing ring) throws DbException {
+        Partition partition = partitionOf(pid);
+        Page p;
+        boolean prefetchHit = false;
+        synchronized (partition) {
+            p = partition.pages.get(pid, sequential);
+            if (p != null) {
+                pin(partition, tid, pid);
+                prefetchHit = !prefetched.isEmpty() && prefetched.remove(pid);
+            }
+        }
+        if (p != null) {
+            if (prefetchHit) {
+                prefetchHits.incrementAndGet();
+                // read ahead loaded it for the scan, it belongs to the ring
+                if (ring != null) {
+                    recycle(ring.add(pid));
+                }
+            }
             return p;
         }
+        // read outside of the monitor, hits on the partition don't wait for the disk
+        p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        synchronized (partition) {
+            // another transaction holding a shared lock may have loaded it meanwhile
+            Page loaded = partition.pages.peek(pid);
+            if (loaded != null) {
+                pin(partition, tid, pid);
+                return loaded;
+            }
+            admit(partition, pid, p, sequential, true);
+            pin(partition, tid, pid);
+        }
+        if (ring != null) {
+            recycle(ring.add(pid));
+        }
+        return p;
+    }
+
+    /**
+     * Read pid as of snapshot, without locks. The page returned is a copy
+     * nobody modifies, it isn't pinned.
+     */
+    private Page getSnapshotPage(PageId pid, Permissions perm, long snapshot)
+            throws TransactionAbortedException, DbException {
+        if (perm != READ_ONLY) {
+            throw new DbException("read-only transaction can't write " + pid);
+        }
+        Partition partition = partitionOf(pid);
+        Page current;
+        long epoch;
+        synchronized (partition) {
+            current = partition.pages.peek(pid);
+            epoch = partition.epoch;
+        }
+        if (current != null) {
+            // the committed image, also if an active transaction has changed the page
+            current = current.getBeforeImage();
+        } else {
+            // NO STEAL, the file only holds committed changes
+            current = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            // cache it for transactions to come, unless it has been changed meanwhile
+            preload(current, epoch);
+            // a copy also if it isn't cached: a page of a mapped file reads
+            // the mapping, which shows the commits to come
+            current = current.getBeforeImage();
+        }
+        // versions are kept before pages are written, looking afterwards
+        // catches a commit which wrote pid while it was read
+        return versions.read(pid, snapshot, current);
+    }
+
+    /**
+     * Record that tid uses pid, the caller holds the partition of pid.
+     */
+    private void pin(Partition partition, TransactionId tid, PageId pid) {
+        partition.pins.merge(pid, 1, Integer::sum);
+        pins.computeIfAbsent(tid, k -> new ConcurrentHashMap<>()).merge(pid, 1, Integer::sum);
+    }
+
+    /**
+     * Give up one pin tid holds on pid, see {@link #getPage}. Unpinning a page
+     * tid doesn't have pinned does nothing.
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        Map<PageId, Integer> held = pins.get(tid);
+        if (held == null) {
+            return;
+        }
+        Partition partition = partitionOf(pid);
+        synchronized (partition) {
+            Integer n = held.get(pid);
+            if (n == null) {
+                return;
+            }
+            if (n > 1) {
+                held.put(pid, n - 1);
+            } else {
+                held.remove(pid);
+            }
+            partition.pins.computeIfPresent(pid, (k, c) -> c > 1 ? c - 1 : null);
+        }
+    }
+
+    /**
+     * @return true if a transaction has pid pinned
+     */
+    public boolean isPinned(PageId pid) {
+        Partition partition = partitionOf(pid);
+        synchronized (partition) {
+            return partition.pins.containsKey(pid);
+        }
+    }
+
+    /**
+     * Drop every pin tid still holds.
+     */
+    private void unpinAll(TransactionId tid) {
+        Map<PageId, Integer> held = pins.remove(tid);
+        if (held == null) {
+            return;
+        }
+        held.forEach((pid, count) -> {
+            Partition partition = partitionOf(pid);
+            synchronized (partition) {
+                partition.pins.computeIfPresent(pid, (k, n) -> n > count ? n - count : null);
+            }
+        });
+    }
+
+    /**
+     * @return a predicate accepting the pages of partition which may be evicted:
+     * clean (NO STEAL) and not pinned
+     */
+    private static Predicate<Page> evictable(Partition partition) {
+        return page -> page.isDirty() == null && !partition.pins.containsKey(page.getId());
+    }
+
+    /**
+     * Drop a page which left a BufferRing from the pool, unless it has been
+     * dirtied or pinned meanwhile.
+     */
+    private void recycle(PageId pid) {
+        if (pid == null) {
+            return;
+        }
+        Partition partition = partitionOf(pid);
+        synchronized (partition) {
+            Page p = partition.pages.peek(pid);
+            if (p != null && evictable(partition).test(p)) {
+                partition.pages.remove(pid);
+                release(p);
+                ringRecycled.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @param tablePages the number of pages of the table a scan is about to read
+     * @return a BufferRing for the scan if the table is larger than
+     * BULK_READ_FRACTION of the pool, null if the scan should use the shared pool
+     */
+    public BufferRing bulkReadRing(int tablePages) {
+        int poolPages = numPages;
+        if (tablePages <= poolPages * BULK_READ_FRACTION) {
+            return null;
+        }
+        return new BufferRing(Math.max(1, Math.min(BULK_READ_RING_SIZE, poolPages / 8)));
+    }
+
+    /**
+     * Add p to partition, evicting a clean page if it is full. Must hold the
+     * monitor of partition.
+     */
+    private void admit(Partition partition, PageId pid, Page p, boolean sequential, boolean overflow)
+            throws DbException {
+        // a partition left over its limit gives back what it can
+        if (partition.pages.getCapacity() != partition.limit) {
+            shrink(partition);
+        }
+        if (partition.pages.size() >= partition.limit) {
+            try {
+                release(partition.pages.evict(evictable(partition)));
+            } catch (DbException e) {
+                // if only pins keep the clean pages in, go over the limit rather
+                // than drop a page in use, shrink() gives the frames back later
+                if (!overflow || !hasCleanPage(partition)) {
+                    throw e;
+                }
+                partition.pages.setCapacity(partition.pages.size() + 1);
+                pinOverflows.incrementAndGet();
+            }
+        }
+        partition.pages.put(pid, p, evictable(partition), sequential);
+        if (arena != null && p instanceof HeapPage) {
+            ((HeapPage) p).attach(arena);
+        }
+    }
 
+    private static boolean hasCleanPage(Partition partition) {
+        Iterator<Page> it = partition.pages.valueIterator();
+        while (it.hasNext()) {
+            if (it.next().isDirty() == null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called for every page which leaves the pool, gives its frame back.
+     */
+    private void release(Page p) {
+        if (!prefetched.isEmpty() && prefetched.remove(p.getId())) {
+            prefetchWasted.incrementAndGet();
+        }
+        if (p instanceof HeapPage) {
+            ((HeapPage) p).detach();
+        }
+    }
+
+    /**
+     * @return counters of the replacement policy summed over all partitions,
+     * e.g. the hits of each 2Q queue
+     */
+    public Map<String, Long> getReplacementStats() {
+        HashMap<String, Long> stats = new HashMap<>();
+        for (Partition partition : partitions) {
+            synchronized (partition) {
+                partition.pages.getStats().forEach((k, v) -> stats.merge(k, v, Long::sum));
+            }
+        }
+        stats.put("ringRecycled", ringRecycled.get());
+        stats.put("pinOverflows", pinOverflows.get());
+        return stats;
+    }
+
+    /**
+     * @return the number of lock requests which had to wait, of transactions
+     * aborted to prevent or resolve deadlocks and of page lock escalations,
+     * and for each deadlock policy the aborts, the milliseconds spent waiting
+     * for locks and the microseconds spent detecting deadlocks, e.g.
+     * "WAIT_DIE.aborts"
+     */
+    public Map<String, Long> getLockStats() {
+        HashMap<String, Long> stats = new HashMap<>();
+        stats.put("lockWaits", lockManager.lockWaits.get());
+        lockManager.deadLockDetector.addStats(stats);
+        stats.put("escalations", lockManager.escalations.get());
+        return stats;
+    }
+
+    /**
+     * @return the instrumentation of the lock manager, off until enabled
+     */
+    public LockMonitor getLockMonitor() {
+        return lockMonitor;
+    }
+
+    /**
+     * Make tid a read-only transaction reading a snapshot of the database as
+     * of the last commit. Its pages are read without locks, so it never waits
+     * for writers nor makes them wait: pages written by transactions
+     * committing later are read as they were before, from versions kept until
+     * no snapshot needs them. Call before tid reads any page, the snapshot
+     * ends with {@link #transactionComplete}.
+     * <p>
+     * At most {@link #getVersionStorePages} versions are kept, a snapshot
+     * reading a page version dropped because of that limit is aborted.
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.begin(tid);
+    }
+
+    /**
+     * @return true if tid is reading a snapshot, see {@link #beginSnapshot}
+     */
+    public boolean isSnapshot(TransactionId tid) {
+        return versions.snapshotOf(tid) >= 0;
+    }
+
+    public int getVersionStorePages() {
+        return versions.getLimit();
+    }
+
+    /**
+     * Set the number of page versions kept for snapshots, dropping the oldest
+     * if more are kept.
+     */
+    public void setVersionStorePages(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("invalid version store size " + pages);
+        }
+        versions.setLimit(pages);
+    }
+
+    /**
+     * @return the number of page versions held for snapshots and of active
+     * snapshots, the versions kept so far ("versionsKept"), the snapshot reads
+     * served from them ("versionReads") and the snapshots aborted because a
+     * version they needed was dropped ("snapshotTooOld")
+     */
+    public Map<String, Long> getSnapshotStats() {
+        return versions.getStats();
+    }
+
+    /**
+     * Lock a whole table for tid, shared (READ_ONLY) or exclusive (READ_WRITE).
+     * The pages of the table are then read, or also written, without page
+     * locks, and the page locks tid held on it are released. May block if the
+     * lock cannot be acquired.
+     *
+     * @throws TransactionAbortedException if waiting for the lock would deadlock
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm) throws TransactionAbortedException {
+        if (versions.snapshotOf(tid) >= 0) {
+            // snapshots read without locks
+            return;
+        }
+        lockManager.lockTable(tid, tableId, LockMode.of(perm));
+    }
+
+    /**
+     * Change how deadlocks are prevented or resolved, see {@link DeadlockPolicy}.
+     * Waits which have begun under the old policy are checked by the new one
+     * the next time they are woken up.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        lockManager.deadLockDetector.setPolicy(policy);
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return lockManager.deadLockDetector.getPolicy();
+    }
+
+    public int getLockEscalationThreshold() {
+        return lockManager.escalationThreshold;
+    }
+
+    /**
+     * Set the number of page locks a transaction may hold on one table, one
+     * lock more and they are replaced with a single S (or X, if any of them is
+     * exclusive) lock on the table.
+     */
+    public void setLockEscalationThreshold(int pages) {
+        if (pages <= 0) {
+            throw new IllegalArgumentException("invalid escalation threshold " + pages);
+        }
+        lockManager.escalationThreshold = pages;
     }
 
 //    public void addPage(Integer tableId, Page p, PageId pid) throws DbException {
@@ -155,49 +1084,169 @@ public class BufferPool {
     public boolean holdsLock(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
-//        return lockManager.holdsLock(tid, pid, null);
-        return true;
+        return lockManager.holdsLock(tid, pid);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * A commit whose pages can't be written is rolled back instead: the pages
+     * are written back as they were before it, as far as possible, and its
+     * changes are undone in the pool before its locks are released.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws UncheckedIOException if a commit failed to write its pages
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
-        List<PageId> pids = lockManager.getPageIdsHoldByAndAndTransactionId(tid);
+        if (versions.end(tid)) {
+            // read a snapshot, holds no locks
+            return;
+        }
+        List<Page> dirty = new ArrayList<>();
+        // pages tid changed records of while other transactions may change
+        // other records, written without their changes
+        List<HeapPage> shared = new ArrayList<>();
+        // only pages tid has locked exclusively, or locked records of, can be dirtied by it
+        for (PageId pid : lockManager.getPageIdsWrittenBy(tid)) {
+            Page page;
+            Partition partition = partitionOf(pid);
+            synchronized (partition) {
+                page = partition.pages.peek(pid);
+            }
+            if (page instanceof HeapPage && ((HeapPage) page).hasChanges(tid)
+                    && !lockManager.holdsExclusively(tid, pid)) {
+                if (commit) {
+                    dirty.add(page);
+                    shared.add((HeapPage) page);
+                } else {
+                    // roll back only the records of tid
+                    ((HeapPage) page).endChanges(tid, false);
+                }
+            } else if (page != null && page.isDirty() == tid) {
+                if (commit) {
+                    dirty.add(page);
+                } else {
+                    // revert change for dirty pages
+                    refreshPageFromDisk(pid);
+                }
+            }
+        }
+        IOException failure = null;
+        if (commit) {
+            // commits of a shared page write it one at a time, each including
+            // the changes of those before, locked in page order
+            shared.sort(Comparator.comparingInt((HeapPage p) -> p.getId().getTableId())
+                    .thenComparingInt(p -> p.getId().getPageNumber()));
+            for (HeapPage page : shared) {
+                page.commitLock.lock();
+            }
+            try {
+                // keeps the versions active snapshots still read
+                versions.beginCommit(dirty);
+                try {
+                    List<Page> images = new ArrayList<>(dirty.size());
+                    for (Page page : dirty) {
+                        images.add(shared.contains(page)
+                                ? new HeapPage((HeapPageId) page.getId(), ((HeapPage) page).getCommittedData(tid))
+                                : page);
+                    }
+                    // flush change for dirty pages, before any lock is released
+                    PageCleaner c = cleaner;
+                    if (c != null) {
+                        c.flush(images);
+                    } else {
+                        writePages(images);
+                    }
+                    for (Page page : dirty) {
+                        if (page instanceof HeapPage) {
+                            ((HeapPage) page).endChanges(tid, true);
+                        }
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                    rollBackCommit(tid, dirty, shared, e);
+                } finally {
+                    versions.commitDone(dirty);
+                }
+            } finally {
+                for (HeapPage page : shared) {
+                    page.commitLock.unlock();
+                }
+            }
+        }
+        unpinAll(tid);
+        lockManager.releaseAll(tid);
+        if (failure != null) {
+            throw new UncheckedIOException("commit of transaction " + tid.getId() + " failed, rolled back", failure);
+        }
+    }
+
+    // the pages of a commit couldn't all be written: write back their before
+    // images over those which may have been, and undo the changes of tid
+    private void rollBackCommit(TransactionId tid, List<Page> dirty, List<HeapPage> shared, IOException failure) {
+        List<Page> befores = new ArrayList<>(dirty.size());
+        for (Page page : dirty) {
+            befores.add(page.getBeforeImage());
+        }
+        try {
+            writePages(befores);
+        } catch (IOException e) {
+            failure.addSuppressed(e);
+        }
+        for (Page page : dirty) {
+            if (shared.contains(page)) {
+                ((HeapPage) page).endChanges(tid, false);
+            } else {
+                refreshPageFromDisk(page.getId());
+            }
+        }
+    }
 
-        for (PageId pid : pids) {
-            try {
-                Page page = getPage(tid, pid, READ_ONLY);
-                if (page.isDirty() == tid) {
-                    if (commit) {
-                        // flush change for dirty pages
-                        flushPage(pid);
-                    } else {
-                        // revert change for dirty pages
-                        refreshPageFromDisk(pid);
-                    }
-                }
-                // release lock
-                lockManager.unsafeReleaseLock(tid, pid);
-            } catch (Exception e) {
-                System.out.println("transactionComplete failed: " + e);
+    /**
+     * Write pages to disk and mark them clean. The pages of each file are
+     * written with a single {@link DbFile#writePages} call, in (tableId, pageNo)
+     * order.
+     *
+     * @return the number of write calls issued
+     */
+    int writePages(List<Page> pages) throws IOException {
+        TreeMap<Integer, List<Page>> byTable = new TreeMap<>();
+        for (Page page : pages) {
+            byTable.computeIfAbsent(page.getId().getTableId(), k -> new ArrayList<>()).add(page);
+        }
+        int writes = 0;
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            writes += Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+        }
+        for (Page page : pages) {
+            Partition partition = partitionOf(page.getId());
+            synchronized (partition) {
+                partition.epoch++;
+                page.markDirty(false, null);
             }
         }
+        return writes;
     }
 
     public void refreshPageFromDisk(PageId pid) {
-        pages.remove(pid);
-        Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-        try {
-            pages.put(pid, p, null);
-        } catch (Exception e) {
-            e.printStackTrace();
+        Partition partition = partitionOf(pid);
+        synchronized (partition) {
+            Page old = partition.pages.remove(pid);
+            if (old == null) {
+                return;
+            }
+            partition.epoch++;
+            release(old);
+            Page p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            try {
+                admit(partition, pid, p, false, true);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -258,11 +1307,20 @@ public class BufferPool {
      * break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        for (Iterator<Page> it = pages.iterator3(); it.hasNext(); ) {
-            Page page = it.next();
-            flushPage(page.getId());
-            page.markDirty(false, null);
-//            lockManager.refreshPageLock(page.getId());
+        for (Partition partition : partitions) {
+            List<Page> resident = new ArrayList<>();
+            synchronized (partition) {
+                partition.pages.valueIterator().forEachRemaining(resident::add);
+            }
+            for (Page page : resident) {
+                synchronized (partition) {
+                    // evicted meanwhile, it was clean (NO STEAL)
+                    if (partition.pages.peek(page.getId()) != page) {
+                        continue;
+                    }
+                    flushPage(page.getId());
+                }
+            }
         }
     }
 
@@ -275,12 +1333,17 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        pages.remove(pid);
-        lockManager.refreshPageLock(pid);
-
+        Partition partition = partitionOf(pid);
+        synchronized (partition) {
+            Page p = partition.pages.remove(pid);
+            if (p != null) {
+                release(p);
+            }
+            partition.epoch++;
+        }
     }
 
     /**
@@ -288,15 +1351,18 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        Page page = this.pages.get(pid);
-        if (page == null) {
-            throw new IOException("this page is not in memory");
+    private void flushPage(PageId pid) throws IOException {
+        Partition partition = partitionOf(pid);
+        synchronized (partition) {
+            Page page = partition.pages.peek(pid);
+            if (page == null) {
+                throw new IOException("this page is not in memory");
+            }
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            file.writePage(page);
+            page.markDirty(false, null);
+            partition.epoch++;
         }
-        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        file.writePage(page);
-        page.markDirty(false, null);
-//        lockManager.refreshPageLock(pid);
     }
 
     /**
@@ -305,336 +1371,973 @@ public class BufferPool {
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-
+        List<Page> dirty = new ArrayList<>();
+        for (Partition partition : partitions) {
+            synchronized (partition) {
+                for (Iterator<Page> it = partition.pages.valueIterator(); it.hasNext(); ) {
+                    Page page = it.next();
+                    if (page.isDirty() == tid) {
+                        dirty.add(page);
+                    }
+                }
+            }
+        }
+        writePages(dirty);
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * A slice of the page table, see {@link #partitions}.
      */
-    private synchronized void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
-        try {
-            Iterator<PageId> iterator = pages.iterator();
-            while (iterator.hasNext()) {
-                PageId pageId = iterator.next();
-                if (pages.get(pageId).isDirty() == null) {
-                    flushPage(pageId);
-                    lockManager.refreshPageLock(pageId);
-                    pages.remove(pageId);
-                }
-            }
-            throw new DbException("no clean pages");
-        } catch (IOException e) {
-            throw new DbException(e.getMessage());
+    private static class Partition {
+        final ReplacementPolicy<PageId, Page> pages;
+        // bumped whenever a page of the partition is written or dropped, lets
+        // read ahead detect that the bytes it read may be outdated
+        long epoch;
+        // number of pages the partition may hold, pages may be over it for a
+        // while after the pool was shrunk
+        int limit;
+        // number of pins on each pinned page, pages without pins aren't in here
+        final HashMap<PageId, Integer> pins = new HashMap<>();
+
+        Partition(ReplacementPolicy<PageId, Page> pages, int limit) {
+            this.pages = pages;
+            this.limit = limit;
         }
     }
 
 //    public HashMap<Integer, ArrayList<Page>> getTableIdToDirtyAndNotExistPages(){
 //        return tableIdToDirtyAndNotExistPages;
 //    }
+    /**
+     * Lock modes. Pages are locked shared (S) or exclusive (X), or IX by a
+     * transaction locking records of them, which are locked X. Tables may be
+     * locked in any mode: a transaction locking pages holds the matching
+     * intention mode (IS, IX) on their table, SIX is S together with IX.
+     */
+    enum LockMode {
+        IS, IX, S, SIX, X;
+
+        // COMPATIBLE[a][b]: a and b may be held by different transactions at once
+        private static final boolean[][] COMPATIBLE = {
+                {true, true, true, true, false},
+                {true, true, false, false, false},
+                {true, false, true, false, false},
+                {true, false, false, false, false},
+                {false, false, false, false, false},
+        };
+
+        // COVERS[a][b]: holding a allows everything b does
+        private static final boolean[][] COVERS = {
+                {true, false, false, false, false},
+                {true, true, false, false, false},
+                {true, false, true, false, false},
+                {true, true, true, true, false},
+                {true, true, true, true, true},
+        };
+
+        boolean compatible(LockMode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        boolean covers(LockMode other) {
+            return COVERS[ordinal()][other.ordinal()];
+        }
+
+        /**
+         * @return the weakest mode covering this and other
+         */
+        LockMode join(LockMode other) {
+            if (covers(other)) {
+                return this;
+            }
+            if (other.covers(this)) {
+                return other;
+            }
+            // IX and S
+            return SIX;
+        }
+
+        static LockMode of(Permissions perm) {
+            return perm == READ_ONLY ? S : X;
+        }
 
+        /**
+         * @return the mode to hold on the table of a page locked in this mode
+         */
+        LockMode intention() {
+            return this == S ? IS : IX;
+        }
+    }
+
+    /**
+     * Multi-granularity locks on tables and pages. A page is locked S or X
+     * after its table has been locked IS or IX; a transaction holding its table
+     * S, SIX or X needs no page locks the table lock covers. Once a transaction
+     * holds more than the escalation threshold of page locks on one table,
+     * they are replaced with a single S or X lock on the table.
+     * <p>
+     * Records are locked X under an IX lock of their page, so transactions may
+     * change different records of one page at the same time, while readers
+     * of the whole page wait for them.
+     * <p>
+     * Locks are held until their transaction completes (strict two-phase
+     * locking): readers don't release pages they have read, so a transaction
+     * granted a lock after waiting never changes what a running one has seen.
+     * <p>
+     * A request conflicting with the holders of a lock, or with a request
+     * already waiting for it, waits in the lock's FIFO queue until it can be
+     * granted. Waiting transactions are tracked by the
+     * {@link DeadLockDetector}, a request which would close a cycle of waits
+     * aborts its transaction instead of waiting.
+     * <p>
+     * The locks of each transaction are indexed by transaction, so completing
+     * a transaction costs as much as the locks it holds, however many other
+     * transactions hold locks.
+     */
     class LockManager {
-        // transaction
-        // page
-        // perm
-        private ConcurrentHashMap<PageId, Object> locksForPage;
-        private HashMap<PageId, LockNode> pageIdToLockNode;
+        // locks held or waited for, keyed by PageId, by RecordId for record
+        // locks, or by the Integer id of a table for table locks. A node
+        // leaves the table once it is idle
+        private final ConcurrentHashMap<Object, LockNode> lockTable;
+        private final ConcurrentHashMap<TransactionId, TransactionLocks> locksByTransaction;
+
+        private final DeadLockDetector deadLockDetector;
 
-        private DeadLockDetector deadLockDetector;
+        private volatile int escalationThreshold = DEFAULT_LOCK_ESCALATION_THRESHOLD;
+
+        private final AtomicLong lockWaits = new AtomicLong();
+        private final AtomicLong escalations = new AtomicLong();
 
         public LockManager() {
-            locksForPage = new ConcurrentHashMap<>();
-            pageIdToLockNode = new HashMap<>();
+            lockTable = new ConcurrentHashMap<>();
+            locksByTransaction = new ConcurrentHashMap<>();
             deadLockDetector = new DeadLockDetector();
         }
 
+        /**
+         * Lock pid for tid with perm, waiting as long as the lock conflicts.
+         *
+         * @throws TransactionAbortedException if waiting would deadlock, or the
+         *                                     waiting thread is interrupted
+         */
         public void getLock(TransactionId tid, PageId pid, Permissions perm) throws TransactionAbortedException {
-//            System.out.println("pageIdToLockNode: " + pageIdToLockNode);
-//            System.out.println("get lock tid " + tid + " pid " + pid + " perm " + perm);
-            locksForPage.computeIfAbsent(pid, k -> new Object());
-            synchronized (locksForPage.get(pid)) {
-                LockNode lockNode = pageIdToLockNode.get(pid);
+            lockPage(tid, pid, LockMode.of(perm), true);
+        }
+
+        /**
+         * Lock pid for tid with perm if that's possible without waiting.
+         *
+         * @return true if the lock has been granted
+         */
+        public boolean tryLock(TransactionId tid, PageId pid, Permissions perm) {
+            try {
+                return lockPage(tid, pid, LockMode.of(perm), false);
+            } catch (TransactionAbortedException e) {
+                // only waiting aborts
+                return false;
+            }
+        }
+
+        /**
+         * Lock pid IX for tid, so it may lock records of the page, see
+         * {@link #lockRecord}.
+         */
+        public void lockForRecords(TransactionId tid, PageId pid) throws TransactionAbortedException {
+            lockPage(tid, pid, LockMode.IX, true);
+        }
+
+        /**
+         * Lock record rid exclusively for tid, which holds its page IX.
+         * Nothing is locked if tid holds the page or the table exclusively.
+         *
+         * @param wait if false, fail instead of waiting
+         * @return true if the lock has been granted
+         */
+        public boolean lockRecord(TransactionId tid, RecordId rid, boolean wait) throws TransactionAbortedException {
+            if (deadLockDetector.isVictim(tid)) {
+                throw new TransactionAbortedException();
+            }
+            PageId pid = rid.getPageId();
+            if (!holdsExclusively(tid, pid) && !lock(tid, rid, LockMode.X, wait)) {
+                return false;
+            }
+            locksOf(tid).written.add(pid);
+            return true;
+        }
+
+        /**
+         * Lock record rid exclusively for tid if that's possible without waiting.
+         */
+        public boolean tryLockRecord(TransactionId tid, RecordId rid) {
+            try {
+                return lockRecord(tid, rid, false);
+            } catch (TransactionAbortedException e) {
+                // only waiting aborts
+                return false;
+            }
+        }
+
+        private boolean lockPage(TransactionId tid, PageId pid, LockMode mode, boolean wait)
+                throws TransactionAbortedException {
+            if (deadLockDetector.isVictim(tid)) {
+                throw new TransactionAbortedException();
+            }
+            int tableId = pid.getTableId();
+            TransactionLocks locks = locksOf(tid);
+            LockMode table = locks.tables.get(tableId);
+            if (table == null || !table.covers(mode.intention())) {
+                if (!lock(tid, tableId, mode.intention(), wait)) {
+                    return false;
+                }
+                table = locks.tables.get(tableId);
+            }
+            if (table != null && table.covers(mode) && (mode != LockMode.IX || table == LockMode.X)) {
+                // the table lock covers the page
+                if (mode == LockMode.X) {
+                    locks.written.add(pid);
+                }
+                return true;
+            }
+            if (!lock(tid, pid, mode, wait)) {
+                return false;
+            }
+            Set<PageId> pages = locks.pages.get(tableId);
+            if (wait && pages != null && pages.size() > escalationThreshold) {
+                // pages locked for writing need the table locked exclusively
+                LockMode escalated = locks.tables.get(tableId).covers(LockMode.IX) ? LockMode.X : LockMode.S;
+                lockTable(tid, tableId, escalated);
+                escalations.incrementAndGet();
+            }
+            return true;
+        }
+
+        /**
+         * Lock table tableId for tid in mode (S or X), waiting as long as the
+         * lock conflicts. The page locks of tid the table lock covers are
+         * released.
+         */
+        public void lockTable(TransactionId tid, int tableId, LockMode mode) throws TransactionAbortedException {
+            lock(tid, tableId, mode, true);
+            TransactionLocks locks = locksOf(tid);
+            Set<PageId> pages = locks.pages.get(tableId);
+            if (pages == null) {
+                return;
+            }
+            LockMode table = locks.tables.get(tableId);
+            for (PageId pid : new ArrayList<>(pages)) {
+                LockNode lockNode = lockTable.get(pid);
                 if (lockNode == null) {
-                    pageIdToLockNode.put(pid, new LockNode(perm, tid, this.deadLockDetector, pid));
-                    return;
+                    continue;
+                }
+                synchronized (lockNode) {
+                    Holder held = lockNode.holders.get(tid);
+                    if (held != null && table.covers(held.mode())) {
+                        lockNode.unsafeReleaseLock(tid);
+                        retireIfIdle(lockNode);
+                    }
+                }
+            }
+        }
+
+        // lock key for tid in mode, false if that has to wait and wait isn't set
+        private boolean lock(TransactionId tid, Object key, LockMode mode, boolean wait)
+                throws TransactionAbortedException {
+            while (true) {
+                LockNode lockNode = lockTable.computeIfAbsent(key, LockNode::new);
+                synchronized (lockNode) {
+                    if (lockNode.retired) {
+                        continue;
+                    }
+                    if (lockNode.tryLock(tid, mode)) {
+                        return true;
+                    }
+                    if (!wait) {
+                        retireIfIdle(lockNode);
+                        return false;
+                    }
+                    lockNode.waitForLock(tid, mode);
+                    return true;
                 }
-                lockNode.getLock(tid, perm);
-                deadLockDetector.pageAllocatedToTransaction(tid, pid);
             }
         }
 
         public void releaseLock(TransactionId tid, PageId pid, Permissions perm) throws DbException {
-//            System.out.println("release lock tid " + tid + " pid " + pid);
-            LockNode lockNode = pageIdToLockNode.get(pid);
+            releaseLock(tid, pid, LockMode.of(perm));
+        }
+
+        /**
+         * Release one acquisition of pid in mode by tid.
+         */
+        public void releaseLock(TransactionId tid, PageId pid, LockMode mode) throws DbException {
+            LockNode lockNode = lockTable.get(pid);
             if (lockNode == null) {
+                if (coveredByTable(tid, pid)) {
+                    return;
+                }
                 throw new DbException("no lock has been get, tid " + tid.getId() + " pid " + pid);
             }
-            lockNode.releaseLock(tid, perm);
-            deadLockDetector.removePageAllocatedToTransaction(tid, pid);
+            synchronized (lockNode) {
+                lockNode.releaseLock(tid, mode);
+                retireIfIdle(lockNode);
+            }
         }
 
         public void unsafeReleaseLock(TransactionId tid, PageId pid) throws DbException {
-//            System.out.println("unsafe release lock tid " + tid + " pid " + pid);
-            LockNode lockNode = pageIdToLockNode.get(pid);
+            LockNode lockNode = lockTable.get(pid);
             if (lockNode == null) {
+                if (coveredByTable(tid, pid)) {
+                    return;
+                }
                 throw new DbException("no lock has been get, tid " + tid.getId() + " pid " + pid);
             }
-            lockNode.unsafeReleaseLock(tid);
-            deadLockDetector.removeByTransactionId(tid);
+            synchronized (lockNode) {
+                lockNode.unsafeReleaseLock(tid);
+                retireIfIdle(lockNode);
+            }
         }
 
-        public void refreshPageLock(PageId pid) {
-            if (locksForPage.get(pid) == null) {
-                return;
+        // the caller holds the node's monitor
+        private void retireIfIdle(LockNode lockNode) {
+            if (lockNode.holders.isEmpty() && lockNode.queue.isEmpty()) {
+                lockNode.retired = true;
+                lockTable.remove(lockNode.key, lockNode);
+            }
+        }
+
+        private TransactionLocks locksOf(TransactionId tid) {
+            return locksByTransaction.computeIfAbsent(tid, k -> new TransactionLocks());
+        }
+
+        public boolean lockedExclusivelyByOther(TransactionId tid, PageId pid) {
+            return conflicts(tid, pid, LockMode.S) || conflicts(tid, pid.getTableId(), LockMode.IS);
+        }
+
+        // true if a transaction other than tid holds key in a mode conflicting with mode
+        private boolean conflicts(TransactionId tid, Object key, LockMode mode) {
+            LockNode lockNode = lockTable.get(key);
+            if (lockNode == null) {
+                return false;
             }
-            synchronized (locksForPage.get(pid)) {
-                pageIdToLockNode.remove(pid);
+            synchronized (lockNode) {
+                return !lockNode.compatible(tid, mode);
             }
         }
 
-        public List<PageId> getPageIdsHoldByAndAndTransactionId(TransactionId tid) {
-            ArrayList<PageId> pids = new ArrayList<>();
-            for (Map.Entry<PageId, LockNode> entry : pageIdToLockNode.entrySet()) {
-                if (entry.getValue().holdsLock(tid)) {
-                    pids.add(entry.getKey());
-                }
+        // true if tid holds pid, or its table, exclusively
+        boolean holdsExclusively(TransactionId tid, PageId pid) {
+            TransactionLocks locks = locksByTransaction.get(tid);
+            if (locks == null) {
+                return false;
+            }
+            if (locks.tables.get(pid.getTableId()) == LockMode.X) {
+                return true;
+            }
+            LockNode lockNode = lockTable.get(pid);
+            if (lockNode == null) {
+                return false;
+            }
+            synchronized (lockNode) {
+                Holder held = lockNode.holders.get(tid);
+                return held != null && held.mode() == LockMode.X;
             }
-            return pids;
         }
 
-        class LockNode {
-            PageId pageId;
-            private ConcurrentHashMap<Permissions, ConcurrentHashMap<TransactionId, Integer>> permToTidAndTimes; // perm may be requested many times
-            private ArrayBlockingQueue<Object> signal; // signal to get the permission
-            private DeadLockDetector deadLockDetector;
-
-            public LockNode(Permissions perm, TransactionId tid, DeadLockDetector deadLockDetector, PageId pageId) {
-                this.deadLockDetector = deadLockDetector;
-                this.pageId = pageId;
-                this.permToTidAndTimes = new ConcurrentHashMap<>();
-                changeLockOwnership(perm, tid);
-            }
-
-            public synchronized void getLock(TransactionId tid, Permissions newPerm) throws TransactionAbortedException {
-                // empty
-                if (permToTidAndTimes.isEmpty()) {
-                    changeLockOwnership(newPerm, tid);
-                    return;
+        /**
+         * @return true if tid holds the lock of record rid, or its page or
+         * table exclusively
+         */
+        public boolean holdsRecordLock(TransactionId tid, RecordId rid) {
+            TransactionLocks locks = locksByTransaction.get(tid);
+            return locks != null && locks.records.contains(rid) || holdsExclusively(tid, rid.getPageId());
+        }
+
+        private boolean coveredByTable(TransactionId tid, PageId pid) {
+            TransactionLocks locks = locksByTransaction.get(tid);
+            if (locks == null) {
+                return false;
+            }
+            LockMode table = locks.tables.get(pid.getTableId());
+            return table != null && table.covers(LockMode.S);
+        }
+
+        /**
+         * @return the pages tid has locked exclusively since it began, even if
+         * it has released them meanwhile, written under an exclusive table
+         * lock, or locked records of
+         */
+        public List<PageId> getPageIdsWrittenBy(TransactionId tid) {
+            TransactionLocks locks = locksByTransaction.get(tid);
+            return locks == null ? new ArrayList<>() : new ArrayList<>(locks.written);
+        }
+
+        public boolean holdsLock(TransactionId tid, PageId pid) {
+            if (coveredByTable(tid, pid)) {
+                return true;
+            }
+            TransactionLocks locks = locksByTransaction.get(tid);
+            if (locks == null) {
+                return false;
+            }
+            Set<PageId> pages = locks.pages.get(pid.getTableId());
+            return pages != null && pages.contains(pid);
+        }
+
+        /**
+         * Release every lock of a completing transaction, and forget about it.
+         */
+        public void releaseAll(TransactionId tid) {
+            deadLockDetector.forget(tid);
+            TransactionLocks locks = locksByTransaction.remove(tid);
+            if (locks == null) {
+                return;
+            }
+            List<Object> keys = new ArrayList<>();
+            locks.pages.values().forEach(keys::addAll);
+            keys.addAll(locks.records);
+            keys.addAll(locks.tables.keySet());
+            for (Object key : keys) {
+                LockNode lockNode = lockTable.get(key);
+                if (lockNode == null) {
+                    continue;
                 }
-                // already has this perm, times++
-                if (permToTidAndTimes.containsKey(newPerm) && permToTidAndTimes.get(newPerm).containsKey(tid)) {
-                    permToTidAndTimes.get(newPerm).computeIfPresent(tid, (k, v) -> v + 1);
-                    return;
+                synchronized (lockNode) {
+                    lockNode.unsafeReleaseLock(tid);
+                    retireIfIdle(lockNode);
                 }
-                if (newPerm == Permissions.READ_ONLY) {
-                    // shared lock
-                    if (!permToTidAndTimes.containsKey(READ_WRITE) && permToTidAndTimes.containsKey(READ_ONLY)) {
-                        permToTidAndTimes.get(READ_ONLY).compute(tid, (k, v) -> {
-                            if (v == null) v = 1;
-                            else v += 1;
-                            return v;
-                        });
-                        return;
-                    }
-                    // down grade
-                    if (permToTidAndTimes.containsKey(READ_WRITE) &&
-                            permToTidAndTimes.get(READ_WRITE).containsKey(tid) &&
-                            permToTidAndTimes.get(READ_WRITE).size() == 1) {
-                        permToTidAndTimes.put(newPerm, new ConcurrentHashMap<TransactionId, Integer>() {{
-                            this.put(tid, 1);
-                        }});
-                        return;
-                    }
-                } else if (newPerm == READ_WRITE) {
-                    if (permToTidAndTimes.containsKey(READ_ONLY) &&
-                            permToTidAndTimes.get(READ_ONLY).containsKey(tid) &&
-                            permToTidAndTimes.get(READ_ONLY).size() == 1) {
-                        permToTidAndTimes.put(newPerm, new ConcurrentHashMap<TransactionId, Integer>() {{
-                            this.put(tid, 1);
-                        }});
-                        return;
+            }
+        }
+
+        /**
+         * The locks of one transaction. A transaction may run on several threads.
+         */
+        class TransactionLocks {
+            // table id -> the pages locked on it
+            final ConcurrentHashMap<Integer, Set<PageId>> pages = new ConcurrentHashMap<>();
+            // table id -> the mode the table is locked in
+            final ConcurrentHashMap<Integer, LockMode> tables = new ConcurrentHashMap<>();
+            // the records locked
+            final Set<RecordId> records = ConcurrentHashMap.newKeySet();
+            // pages locked exclusively, or with records locked, at some point:
+            // the only ones the transaction can have dirtied
+            final Set<PageId> written = ConcurrentHashMap.newKeySet();
+        }
+
+        /**
+         * How often a transaction has acquired a lock in each mode.
+         */
+        class Holder {
+            final int[] counts = new int[LockMode.values().length];
+
+            LockMode mode() {
+                LockMode mode = null;
+                for (LockMode m : LockMode.values()) {
+                    if (counts[m.ordinal()] > 0) {
+                        mode = mode == null ? m : mode.join(m);
                     }
                 }
+                return mode;
+            }
+        }
+
+        /**
+         * The lock of one record, page or table. All fields are guarded by the node's
+         * monitor, which waiting requests wait on.
+         */
+        class LockNode {
+            final Object key;
+            final HashMap<TransactionId, Holder> holders = new HashMap<>();
+            // waiting requests, upgrades first, then in arrival order
+            final LinkedList<Request> queue = new LinkedList<>();
+            // set once the node has left the lock table, a request finding it has to look again
+            boolean retired;
+
+            LockNode(Object key) {
+                this.key = key;
+            }
 
+            void waitForLock(TransactionId tid, LockMode mode) throws TransactionAbortedException {
+                Request request = new Request(tid, mode, holders.containsKey(tid));
+                if (request.upgrade) {
+                    // an upgrade overtakes every plain request, it would deadlock behind a conflicting one
+                    int i = 0;
+                    while (i < queue.size() && queue.get(i).upgrade) {
+                        i++;
+                    }
+                    queue.add(i, request);
+                } else {
+                    queue.addLast(request);
+                }
+                lockWaits.incrementAndGet();
+                long start = System.nanoTime();
+                boolean interrupted = false;
                 try {
-                    Thread.sleep(new Random().nextInt(50));
+                    while (!grantable(request)) {
+                        deadLockDetector.transactionWaitFor(tid, key, blockers(request));
+                        wait();
+                    }
                 } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+                    interrupted = true;
+                } catch (TransactionAbortedException e) {
+                    // not allowed to wait, tid is a victim now
+                } finally {
+                    queue.remove(request);
+                    // from here on the detector doesn't interrupt this thread
+                    deadLockDetector.removeTransactionWaitFor(tid, key);
+                    long waited = System.nanoTime() - start;
+                    deadLockDetector.waited(waited);
+                    lockMonitor.waited(key, waited);
+                    // the requests behind may be grantable now
+                    notifyAll();
                 }
-                throw new TransactionAbortedException();
-//                waitAllLockReleased(tid);
-//                changeLockOwnership(newPerm, tid);
+                if (deadLockDetector.isVictim(tid)) {
+                    // picked as a victim, any interrupt came from the detector
+                    Thread.interrupted();
+                    throw new TransactionAbortedException();
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                    lockMonitor.aborted(LockMonitor.AbortReason.INTERRUPTED);
+                    throw new TransactionAbortedException();
+                }
+                grant(tid, mode);
             }
 
-            public void releaseLock(TransactionId tid, Permissions perm) throws DbException {
-                if (!permToTidAndTimes.containsKey(perm) || !permToTidAndTimes.get(perm).containsKey(tid)) {
-                    return;
-//                    throw new DbException("transaction " + tid.getId() + " do not has perm " + perm);
+            boolean tryLock(TransactionId tid, LockMode mode) {
+                Holder held = holders.get(tid);
+                // re-entrant, or covered by a stronger mode
+                if (held != null && held.mode().covers(mode)) {
+                    grant(tid, mode);
+                    return true;
                 }
-                if (permToTidAndTimes.get(perm).get(tid) == 1) {
-                    permToTidAndTimes.get(perm).remove(tid);
-                } else {
-                    permToTidAndTimes.get(perm).computeIfPresent(tid, (k, v) -> v - 1);
+                if (held == null && !queue.isEmpty()) {
+                    // first come, first served
+                    return false;
+                }
+                if (!compatible(tid, target(tid, mode))) {
+                    return false;
                 }
-                if (permToTidAndTimes.get(perm).size() == 0) {
-                    permToTidAndTimes.remove(perm);
+                grant(tid, mode);
+                return true;
+            }
+
+            // the mode tid ends up holding once mode is granted
+            private LockMode target(TransactionId tid, LockMode mode) {
+                Holder held = holders.get(tid);
+                return held == null ? mode : held.mode().join(mode);
+            }
+
+            private boolean compatible(TransactionId tid, LockMode mode) {
+                for (Map.Entry<TransactionId, Holder> holder : holders.entrySet()) {
+                    if (!holder.getKey().equals(tid) && !holder.getValue().mode().compatible(mode)) {
+                        return false;
+                    }
                 }
-                if (permToTidAndTimes.isEmpty()) {
-                    try {
-                        signal.put(new Object());
-                    } catch (Exception e) {
-                        System.out.println("releaseLock failed " + e);
+                return true;
+            }
+
+            private boolean grantable(Request request) {
+                for (Request ahead : queue) {
+                    if (ahead == request) {
+                        break;
+                    }
+                    if (conflicts(request, ahead)) {
+                        return false;
                     }
                 }
+                return compatible(request.tid, target(request.tid, request.mode));
             }
 
-            public void unsafeReleaseLock(TransactionId tid) {
-                if (permToTidAndTimes.containsKey(READ_ONLY)) {
-                    permToTidAndTimes.get(READ_ONLY).remove(tid);
-                    if (permToTidAndTimes.get(READ_ONLY).size() == 0) {
-                        permToTidAndTimes.remove(READ_ONLY);
+            private boolean conflicts(Request request, Request other) {
+                return !other.tid.equals(request.tid) && !other.mode.compatible(request.mode);
+            }
+
+            // the transactions request is waiting for
+            private Set<TransactionId> blockers(Request request) {
+                LockMode mode = target(request.tid, request.mode);
+                HashSet<TransactionId> blockers = new HashSet<>();
+                for (Map.Entry<TransactionId, Holder> holder : holders.entrySet()) {
+                    if (!holder.getKey().equals(request.tid) && !holder.getValue().mode().compatible(mode)) {
+                        blockers.add(holder.getKey());
+                    }
+                }
+                for (Request ahead : queue) {
+                    if (ahead == request) {
+                        break;
+                    }
+                    if (conflicts(request, ahead)) {
+                        blockers.add(ahead.tid);
                     }
                 }
-                if (permToTidAndTimes.containsKey(READ_WRITE)) {
-                    permToTidAndTimes.get(READ_WRITE).remove(tid);
-                    if (permToTidAndTimes.get(READ_WRITE).size() == 0) {
-                        permToTidAndTimes.remove(READ_WRITE);
+                return blockers;
+            }
+
+            private void grant(TransactionId tid, LockMode mode) {
+                Holder held = holders.get(tid);
+                TransactionLocks locks = locksOf(tid);
+                if (held == null) {
+                    held = new Holder();
+                    holders.put(tid, held);
+                    if (key instanceof PageId) {
+                        PageId pid = (PageId) key;
+                        locks.pages.computeIfAbsent(pid.getTableId(), k -> ConcurrentHashMap.newKeySet()).add(pid);
+                    } else if (key instanceof RecordId) {
+                        locks.records.add((RecordId) key);
                     }
                 }
-                if (permToTidAndTimes.isEmpty()) {
-                    try {
-                        signal.put(new Object());
-                    } catch (Exception e) {
-                        System.out.println("releaseLock failed " + e);
+                lockMonitor.acquired(mode, held.mode() != null && !held.mode().covers(mode));
+                held.counts[mode.ordinal()]++;
+                if (key instanceof PageId) {
+                    if (mode == LockMode.X) {
+                        locks.written.add((PageId) key);
                     }
+                } else if (key instanceof Integer) {
+                    locks.tables.put((Integer) key, held.mode());
                 }
             }
 
-            private void waitAllLockReleased(TransactionId tid) throws TransactionAbortedException {
-                deadLockDetector.transactionWaitForPage(tid, pageId);
-                System.out.println("tid " + tid + " wait for pageId" + pageId);
-                try {
-                    signal.take();
-                } catch (Exception e) {
-                    e.printStackTrace();
+            void releaseLock(TransactionId tid, LockMode mode) {
+                Holder held = holders.get(tid);
+                if (held == null || held.counts[mode.ordinal()] == 0) {
+                    return;
+                }
+                held.counts[mode.ordinal()]--;
+                if (held.mode() == null) {
+                    removeHolder(tid);
+                } else if (key instanceof Integer) {
+                    locksOf(tid).tables.put((Integer) key, held.mode());
+                }
+                notifyAll();
+            }
+
+            void unsafeReleaseLock(TransactionId tid) {
+                if (holders.containsKey(tid)) {
+                    removeHolder(tid);
+                    notifyAll();
+                }
+            }
+
+            private void removeHolder(TransactionId tid) {
+                holders.remove(tid);
+                TransactionLocks locks = locksByTransaction.get(tid);
+                if (locks == null) {
+                    return;
+                }
+                if (key instanceof PageId) {
+                    Set<PageId> pages = locks.pages.get(((PageId) key).getTableId());
+                    if (pages != null) {
+                        pages.remove(key);
+                    }
+                } else if (key instanceof RecordId) {
+                    locks.records.remove(key);
+                } else {
+                    locks.tables.remove(key);
                 }
-                deadLockDetector.removeTransactionWaitForPage(tid, pageId);
             }
 
-            private void changeLockOwnership(Permissions perm, TransactionId tid) {
-                permToTidAndTimes.clear();
-                permToTidAndTimes.put(perm, new ConcurrentHashMap<TransactionId, Integer>() {{
-                    this.put(tid, 1);
-                }});
-                signal = new ArrayBlockingQueue<>(1);
+            @Override
+            public String toString() {
+                return "holders " + holders.keySet() + " waiting " + queue;
             }
+        }
+
+        class Request {
+            final TransactionId tid;
+            final LockMode mode;
+            // the transaction holds the lock in a weaker mode already
+            final boolean upgrade;
 
-            public boolean holdsLock(TransactionId tid) {
-                return (permToTidAndTimes.containsKey(READ_ONLY) && permToTidAndTimes.get(READ_ONLY).containsKey(tid)) ||
-                        (permToTidAndTimes.containsKey(READ_WRITE) && permToTidAndTimes.get(READ_WRITE).containsKey(tid));
+            Request(TransactionId tid, LockMode mode, boolean upgrade) {
+                this.tid = tid;
+                this.mode = mode;
+                this.upgrade = upgrade;
             }
 
             @Override
             public String toString() {
-                return permToTidAndTimes.toString();
+                return tid.getId() + " " + mode;
             }
         }
     }
 
 
+    /**
+     * How a lock manager keeps transactions from waiting for each other forever.
+     */
+    public enum DeadlockPolicy {
+        /**
+         * A request which would close a cycle in the wait-for graph aborts its
+         * transaction instead of waiting.
+         */
+        DETECT_ON_WAIT,
+        /**
+         * Requests wait unchecked, a background thread looks for cycles in the
+         * wait-for graph every DEADLOCK_DETECTION_INTERVAL_MILLIS and aborts the
+         * transaction of each cycle which has dirtied the fewest pages.
+         */
+        DETECT_PERIODIC,
+        /**
+         * An older transaction (smaller TransactionId) waits for younger ones,
+         * a younger one requesting a lock an older one holds aborts.
+         */
+        WAIT_DIE,
+        /**
+         * An older transaction requesting a lock a younger one holds aborts the
+         * younger one, a younger one waits for older ones.
+         */
+        WOUND_WAIT
+    }
+
+    /**
+     * Wait-for graph of the transactions waiting for locks, and the deadlock
+     * policy applied to it. Every wait is registered before the waiting thread
+     * blocks. Transactions picked as victims while they wait are interrupted;
+     * those that aren't waiting abort on their next lock request.
+     */
     class DeadLockDetector {
-        private HashMap<TransactionId, ArrayList<PageId>> transactionIdsWaitForPages;
-        private HashMap<PageId, ArrayList<TransactionId>> pagesAllocatedToTransactionIds;
+        // waiting transaction -> lock key -> what it waits for there
+        private final HashMap<TransactionId, HashMap<Object, Wait>> transactionIdsWaitFor;
+        // transactions picked to abort, until they complete
+        private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+
+        private volatile DeadlockPolicy policy = DEFAULT_DEADLOCK_POLICY;
+        // runs while the policy is DETECT_PERIODIC
+        private Thread detector;
+
+        // aborts, nanoseconds spent waiting and detecting, per policy
+        private final EnumMap<DeadlockPolicy, AtomicLong[]> stats = new EnumMap<>(DeadlockPolicy.class);
+        private static final int ABORTS = 0;
+        private static final int WAIT_NANOS = 1;
+        private static final int DETECTION_NANOS = 2;
 
         public DeadLockDetector() {
-            transactionIdsWaitForPages = new HashMap<>();
-            pagesAllocatedToTransactionIds = new HashMap<>();
+            transactionIdsWaitFor = new HashMap<>();
+            for (DeadlockPolicy p : DeadlockPolicy.values()) {
+                stats.put(p, new AtomicLong[]{new AtomicLong(), new AtomicLong(), new AtomicLong()});
+            }
         }
 
-        synchronized public void removeByTransactionId(TransactionId tid) {
-            transactionIdsWaitForPages.remove(tid);
-            for (Map.Entry<PageId, ArrayList<TransactionId>> entry : pagesAllocatedToTransactionIds.entrySet()) {
-                if (entry.getValue().contains(tid)) {
-                    ArrayList<TransactionId> newArray = entry.getValue().stream().filter(transactionId -> transactionId != tid).collect(Collectors.toCollection(ArrayList::new));
-                    pagesAllocatedToTransactionIds.put(entry.getKey(), newArray);
-                }
+        private class Wait {
+            final Set<TransactionId> blockers;
+            final Thread thread;
+
+            Wait(Set<TransactionId> blockers, Thread thread) {
+                this.blockers = blockers;
+                this.thread = thread;
+            }
+        }
+
+        synchronized public void setPolicy(DeadlockPolicy policy) {
+            this.policy = policy;
+            if (policy == DeadlockPolicy.DETECT_PERIODIC && detector == null) {
+                detector = new Thread(this::detectPeriodically, "DeadLockDetector");
+                detector.setDaemon(true);
+                detector.start();
             }
+            // a running detector stops by itself
+        }
+
+        public DeadlockPolicy getPolicy() {
+            return policy;
         }
 
-        synchronized public void transactionWaitForPage(TransactionId tid, PageId pageId) throws TransactionAbortedException {
-            transactionIdsWaitForPages.compute(tid, (k, v) -> {
-                if (v == null) return new ArrayList<PageId>() {{
-                    add(pageId);
-                }};
-                v.add(pageId);
-                return v;
-            });
-            detectDeadLock(tid, null, new HashSet<TransactionId>());
+        /**
+         * Record that tid, on the current thread, waits for blockers to release
+         * the lock of key, replacing what has been recorded for this lock before.
+         *
+         * @throws TransactionAbortedException if the policy doesn't let tid wait
+         */
+        synchronized public void transactionWaitFor(TransactionId tid, Object key, Set<TransactionId> blockers)
+                throws TransactionAbortedException {
+            DeadlockPolicy p = policy;
+            long start = System.nanoTime();
+            boolean abort = victims.contains(tid);
+            switch (p) {
+                case DETECT_ON_WAIT:
+                    abort |= reaches(blockers, tid);
+                    break;
+                case WAIT_DIE:
+                    for (TransactionId blocker : blockers) {
+                        abort |= blocker.getId() < tid.getId();
+                    }
+                    break;
+                case WOUND_WAIT:
+                    for (TransactionId blocker : blockers) {
+                        if (blocker.getId() > tid.getId() && !victims.contains(blocker)) {
+                            abort(blocker, p);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+            stats.get(p)[DETECTION_NANOS].addAndGet(System.nanoTime() - start);
+            if (abort) {
+                removeTransactionWaitFor(tid, key);
+                if (victims.add(tid)) {
+                    stats.get(p)[ABORTS].incrementAndGet();
+                    lockMonitor.aborted(reasonOf(p));
+                }
+                throw new TransactionAbortedException();
+            }
+            transactionIdsWaitFor.computeIfAbsent(tid, k -> new HashMap<>()).put(key, new Wait(blockers, Thread.currentThread()));
         }
 
-        synchronized public void removeTransactionWaitForPage(TransactionId tid, PageId pageId) {
-            transactionIdsWaitForPages.compute(tid, (k, v) -> {
-                if (v == null) {
-                    throw new IllegalArgumentException("tid " + tid + " not exists");
+        synchronized public void removeTransactionWaitFor(TransactionId tid, Object key) {
+            HashMap<Object, Wait> waits = transactionIdsWaitFor.get(tid);
+            if (waits != null) {
+                waits.remove(key);
+                if (waits.isEmpty()) {
+                    transactionIdsWaitFor.remove(tid);
                 }
-                if (v.size() == 1 && v.get(0).equals(pageId)) {
-                    return null;
+            }
+        }
+
+        public boolean isVictim(TransactionId tid) {
+            return victims.contains(tid);
+        }
+
+        /**
+         * Forget about a completed transaction.
+         */
+        public void forget(TransactionId tid) {
+            victims.remove(tid);
+        }
+
+        public void waited(long nanos) {
+            stats.get(policy)[WAIT_NANOS].addAndGet(nanos);
+        }
+
+        // the caller holds the monitor
+        private void abort(TransactionId victim, DeadlockPolicy p) {
+            victims.add(victim);
+            stats.get(p)[ABORTS].incrementAndGet();
+            lockMonitor.aborted(reasonOf(p));
+            HashMap<Object, Wait> waits = transactionIdsWaitFor.get(victim);
+            if (waits != null) {
+                for (Wait wait : waits.values()) {
+                    wait.thread.interrupt();
                 }
-                v.remove(pageId);
-                return v;
-            });
+            }
         }
 
-        synchronized public void pageAllocatedToTransaction(TransactionId tid, PageId pageId) throws TransactionAbortedException {
-            pagesAllocatedToTransactionIds.compute(pageId, (k, v) -> {
-                if (v == null) return new ArrayList<TransactionId>() {{
-                    add(tid);
-                }};
-                v.add(tid);
-                return v;
-            });
-//            detectDeadLock(null, pageId, new HashSet<TransactionId>());
+        private LockMonitor.AbortReason reasonOf(DeadlockPolicy p) {
+            return p == DeadlockPolicy.WAIT_DIE || p == DeadlockPolicy.WOUND_WAIT
+                    ? LockMonitor.AbortReason.PREVENTION : LockMonitor.AbortReason.DEADLOCK;
         }
 
-        synchronized public void removePageAllocatedToTransaction(TransactionId tid, PageId pageId) {
-            pagesAllocatedToTransactionIds.compute(pageId, (k, v) -> {
-                if (v == null) {
-                    throw new IllegalArgumentException("pageId " + pageId + " not exists");
+        void addStats(Map<String, Long> into) {
+            long aborts = 0;
+            for (Map.Entry<DeadlockPolicy, AtomicLong[]> e : stats.entrySet()) {
+                AtomicLong[] counters = e.getValue();
+                into.put(e.getKey() + ".aborts", counters[ABORTS].get());
+                into.put(e.getKey() + ".waitMillis", counters[WAIT_NANOS].get() / 1000000);
+                into.put(e.getKey() + ".detectionMicros", counters[DETECTION_NANOS].get() / 1000);
+                aborts += counters[ABORTS].get();
+            }
+            into.put("deadlocks", aborts);
+        }
+
+        // whether target can be reached from the transactions in from, following the waits
+        private boolean reaches(Set<TransactionId> from, TransactionId target) {
+            HashSet<TransactionId> visited = new HashSet<>();
+            ArrayDeque<TransactionId> stack = new ArrayDeque<>(from);
+            while (!stack.isEmpty()) {
+                TransactionId tid = stack.pop();
+                if (tid.equals(target)) {
+                    return true;
+                }
+                if (!visited.add(tid)) {
+                    continue;
                 }
-                if (v.size() == 1 && v.get(0).equals(tid)) {
-                    return null;
+                for (TransactionId next : waitsFor(tid)) {
+                    stack.push(next);
                 }
-                v.remove(tid);
-                return v;
-            });
+            }
+            return false;
         }
 
-        private void detectDeadLock(TransactionId tid, PageId pageId, HashSet<TransactionId> tidSet) throws TransactionAbortedException {
-            if (tid != null) {
-                if (tidSet.contains(tid)) {
-                    System.out.println("tid " + tid + "\ntransactionIdsWaitForPages: " + transactionIdsWaitForPages + "\n pagesAllocatedToTransactionIds: " + pagesAllocatedToTransactionIds);
-                    throw new TransactionAbortedException();
+        // the caller holds the monitor
+        private Set<TransactionId> waitsFor(TransactionId tid) {
+            HashMap<Object, Wait> waits = transactionIdsWaitFor.get(tid);
+            if (waits == null) {
+                return Collections.emptySet();
+            }
+            HashSet<TransactionId> blockers = new HashSet<>();
+            for (Wait wait : waits.values()) {
+                blockers.addAll(wait.blockers);
+            }
+            return blockers;
+        }
+
+        private void detectPeriodically() {
+            while (true) {
+                try {
+                    Thread.sleep(DEADLOCK_DETECTION_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
                 }
-                tidSet.add(tid);
-                ArrayList<PageId> pageIds = transactionIdsWaitForPages.get(tid);
-                if (pageIds != null) {
-                    for (PageId temp : pageIds) {
-                        detectDeadLock(null, temp, tidSet);
+                synchronized (this) {
+                    if (policy != DeadlockPolicy.DETECT_PERIODIC) {
+                        detector = null;
+                        return;
                     }
+                    long start = System.nanoTime();
+                    List<TransactionId> cycle;
+                    while ((cycle = findCycle()) != null) {
+                        abort(leastWork(cycle), DeadlockPolicy.DETECT_PERIODIC);
+                    }
+                    stats.get(DeadlockPolicy.DETECT_PERIODIC)[DETECTION_NANOS].addAndGet(System.nanoTime() - start);
                 }
-
             }
+        }
 
-            if (pageId != null) {
-                ArrayList<TransactionId> transactionIds = pagesAllocatedToTransactionIds.get(pageId);
-                if (transactionIds != null) {
-                    for (TransactionId temp : transactionIds) {
-                        detectDeadLock(temp, null, tidSet);
+        // a cycle of waiting transactions, none of them a victim already, or null
+        private List<TransactionId> findCycle() {
+            HashSet<TransactionId> done = new HashSet<>();
+            for (TransactionId root : transactionIdsWaitFor.keySet()) {
+                if (victims.contains(root) || done.contains(root)) {
+                    continue;
+                }
+                // depth first, path holds the transactions on the way from root
+                ArrayList<TransactionId> path = new ArrayList<>();
+                ArrayList<Iterator<TransactionId>> next = new ArrayList<>();
+                path.add(root);
+                next.add(waitsFor(root).iterator());
+                while (!path.isEmpty()) {
+                    Iterator<TransactionId> it = next.get(next.size() - 1);
+                    if (!it.hasNext()) {
+                        done.add(path.remove(path.size() - 1));
+                        next.remove(next.size() - 1);
+                        continue;
+                    }
+                    TransactionId tid = it.next();
+                    if (victims.contains(tid) || done.contains(tid)) {
+                        continue;
+                    }
+                    int i = path.indexOf(tid);
+                    if (i >= 0) {
+                        return new ArrayList<>(path.subList(i, path.size()));
                     }
+                    path.add(tid);
+                    next.add(waitsFor(tid).iterator());
+                }
+            }
+            return null;
+        }
+
+        // the transaction of cycle which has dirtied the fewest pages, the youngest of those
+        private TransactionId leastWork(List<TransactionId> cycle) {
+            TransactionId victim = null;
+            int victimWork = Integer.MAX_VALUE;
+            for (TransactionId tid : cycle) {
+                LockManager.TransactionLocks locks = lockManager.locksByTransaction.get(tid);
+                int work = locks == null ? 0 : locks.written.size();
+                if (work < victimWork || (work == victimWork && tid.getId() > victim.getId())) {
+                    victim = tid;
+                    victimWork = work;
                 }
             }
+            return victim;
         }
     }
 
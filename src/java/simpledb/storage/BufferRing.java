@@ -0,0 +1,43 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small private set of buffer pool frames for one large scan (a bulk read
+ * access strategy). Pages the scan has to load from disk are remembered here,
+ * once the ring is full the oldest of them is dropped from the pool again
+ * before the scan loads the next page. A scan of any length thus takes at most
+ * the ring size of shared pool space, and the pages other queries keep using
+ * stay cached.
+ * <p>
+ * Not thread safe, each scan has its own.
+ *
+ * @see BufferPool#bulkReadRing(int)
+ */
+public class BufferRing {
+    private final int size;
+    private final ArrayDeque<PageId> pages;
+
+    public BufferRing(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("invalid ring size");
+        }
+        this.size = size;
+        this.pages = new ArrayDeque<>(size + 1);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Remember a page loaded for the scan.
+     *
+     * @return the page which has to leave the pool to make room, or null if the
+     * ring isn't full yet
+     */
+    PageId add(PageId pid) {
+        pages.addLast(pid);
+        return pages.size() > size ? pages.pollFirst() : null;
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Writes a set of pages of one file with as few system calls as possible: the
+ * pages are sorted by their offset in the file and every run of adjacent pages
+ * is serialized one after the other into one buffer, which goes out as a
+ * single write.
+ */
+public class CoalescedWriter {
+
+    private CoalescedWriter() {
+    }
+
+    /**
+     * @param channel the channel of the file to write to
+     * @param pages  the pages to write, in any order
+     * @param offset the offset of a page in the file
+     * @return the number of writes issued
+     */
+    public static int write(DbFileChannel channel, List<Page> pages, ToLongFunction<Page> offset) throws IOException {
+        if (pages.isEmpty()) {
+            return 0;
+        }
+        List<Page> sorted = new ArrayList<>(pages);
+        sorted.sort(Comparator.comparingLong(offset));
+        // no page is larger than BufferPool pages
+        ByteBuffer buf = ScratchBuffers.get(sorted.size() * BufferPool.getPageSize());
+        int writes = 0;
+        int start = 0;
+        while (start < sorted.size()) {
+            long position = offset.applyAsLong(sorted.get(start));
+            int from = buf.position();
+            int i = start;
+            while (i < sorted.size() && offset.applyAsLong(sorted.get(i)) == position + buf.position() - from) {
+                sorted.get(i).writePageData(buf);
+                i++;
+            }
+            ByteBuffer run = buf.duplicate();
+            run.position(from);
+            run.limit(buf.position());
+            channel.write(run, position);
+            writes++;
+            start = i;
+        }
+        return writes;
+    }
+}
@@ -33,6 +33,40 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk. Implementations should write adjacent
+     * pages together, see {@link CoalescedWriter}.
+     *
+     * @param pages The pages to write, all of them belong to this file.
+     * @return the number of write calls issued
+     * @throws IOException if a write fails
+     */
+    default int writePages(List<Page> pages) throws IOException {
+        for (Page p : pages) {
+            writePage(p);
+        }
+        return pages.size();
+    }
+
+    /**
+     * Read the specified pages from disk. Implementations should read adjacent
+     * pages together. Pages which don't exist are left out of the result.
+     *
+     * @param pids The pages to read, all of them belong to this file.
+     * @throws IOException if a read fails
+     */
+    default List<Page> readPages(List<PageId> pids) throws IOException {
+        List<Page> pages = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            try {
+                pages.add(readPage(pid));
+            } catch (IllegalArgumentException e) {
+                // gone, e.g. the file was truncated
+            }
+        }
+        return pages;
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
         * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +107,22 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator for a scan reading the file through ring, see
+     * {@link BufferPool#bulkReadRing}, or through the shared pool if ring is
+     * null. Files which don't support rings return {@link #iterator(TransactionId)}.
+     */
+    default DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return iterator(tid);
+    }
+
+    /**
+     * Release what this file keeps open, like its channel. The file may
+     * still be used afterwards, it opens what it needs again.
+     */
+    default void close() throws IOException {
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,207 @@
+package simpledb.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The channel a DbFile reads and writes its pages through, opened on first
+ * use and kept open until {@link #close}. Reads and writes are positional, so
+ * threads reading different pages of a file don't wait for each other.
+ * <p>
+ * A thread interrupted during an I/O operation closes a FileChannel for every
+ * thread using it, and the deadlock detector interrupts waiting threads. So
+ * operations run with the interrupt status cleared, and restore it once done;
+ * an operation finding the channel closed, also by a concurrent close, opens
+ * it again and carries on.
+ * <p>
+ * The file may also be read through read-only memory mappings of
+ * CHUNK_BYTES each, see {@link #map}. They see what is written through the
+ * channel, and stay valid once the channel is closed. The file must not be
+ * truncated while it is mapped.
+ */
+public class DbFileChannel implements Closeable {
+    /**
+     * The size of the regions of the file mapped at once.
+     */
+    public static final int CHUNK_BYTES = 1 << 24;
+
+    private final File file;
+    private volatile FileChannel channel;
+    // gathered writes move the position of the channel
+    private final Object positionLock = new Object();
+    // chunk number -> its mapping, which may end before the chunk does if
+    // the file did when it was mapped
+    private final ConcurrentHashMap<Long, MappedByteBuffer> chunks = new ConcurrentHashMap<>();
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private interface Operation<T> {
+        T run(FileChannel channel) throws IOException;
+    }
+
+    private <T> T run(Operation<T> operation) throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                FileChannel c = open();
+                try {
+                    return operation.run(c);
+                } catch (ClosedChannelException e) {
+                    interrupted |= Thread.interrupted();
+                    synchronized (this) {
+                        if (channel == c) {
+                            channel = null;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        FileChannel c = channel;
+        if (c != null) {
+            return c;
+        }
+        synchronized (this) {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+            return channel;
+        }
+    }
+
+    /**
+     * Read from position on until dst is full or the end of the file.
+     *
+     * @return the number of bytes read, -1 if position is past the end
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int start = dst.position();
+        return run(c -> {
+            while (dst.hasRemaining()) {
+                if (c.read(dst, position + dst.position() - start) < 0) {
+                    break;
+                }
+            }
+            int read = dst.position() - start;
+            return read == 0 && dst.hasRemaining() ? -1 : read;
+        });
+    }
+
+    /**
+     * Write all of src at position.
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        int start = src.position();
+        run(c -> {
+            while (src.hasRemaining()) {
+                c.write(src, position + src.position() - start);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Write all of srcs, one after the other, from position on.
+     */
+    public void write(ByteBuffer[] srcs, long position) throws IOException {
+        long total = 0;
+        for (ByteBuffer src : srcs) {
+            total += src.remaining();
+        }
+        long length = total;
+        ByteBuffer last = srcs[srcs.length - 1];
+        synchronized (positionLock) {
+            run(c -> {
+                while (last.hasRemaining()) {
+                    long remaining = 0;
+                    for (ByteBuffer src : srcs) {
+                        remaining += src.remaining();
+                    }
+                    c.position(position + length - remaining);
+                    c.write(srcs);
+                }
+                return null;
+            });
+        }
+    }
+
+    /**
+     * Force what has been written to the file to the disk.
+     */
+    public void force() throws IOException {
+        run(c -> {
+            c.force(false);
+            return null;
+        });
+    }
+
+    /**
+     * Map size bytes of the file from position on, read-only. The chunk
+     * holding them is mapped on first use, and mapped again once the file
+     * has grown past the end of its mapping.
+     *
+     * @return a buffer of the bytes, or null if they are past the end of the
+     * file or cross the end of a chunk
+     */
+    public ByteBuffer map(long position, int size) throws IOException {
+        long chunk = position / CHUNK_BYTES;
+        int offset = (int) (position % CHUNK_BYTES);
+        if (offset + size > CHUNK_BYTES) {
+            return null;
+        }
+        MappedByteBuffer mapping = chunks.get(chunk);
+        if (mapping == null || mapping.capacity() < offset + size) {
+            synchronized (chunks) {
+                mapping = chunks.get(chunk);
+                if (mapping == null || mapping.capacity() < offset + size) {
+                    long start = chunk * CHUNK_BYTES;
+                    long length = Math.min(CHUNK_BYTES, size() - start);
+                    if (length < offset + size) {
+                        return null;
+                    }
+                    mapping = run(c -> c.map(FileChannel.MapMode.READ_ONLY, start, length));
+                    chunks.put(chunk, mapping);
+                }
+            }
+        }
+        ByteBuffer region = mapping.duplicate();
+        region.position(offset);
+        region.limit(offset + size);
+        return region.slice();
+    }
+
+    /**
+     * @return the length of the file
+     */
+    public long size() throws IOException {
+        return run(FileChannel::size);
+    }
+
+    /**
+     * Close the channel, the next operation opens it again.
+     */
+    public synchronized void close() throws IOException {
+        // mappings are unmapped once they are no longer used
+        chunks.clear();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.execution.Predicate;
 import simpledb.common.Type;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -17,6 +18,14 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field to buf, starting at offset.
+     * Uses absolute puts, the position of buf is not changed.
+     * @param buf The buffer to write to.
+     * @param offset The index of the first byte.
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
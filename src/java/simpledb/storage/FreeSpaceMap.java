@@ -0,0 +1,193 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Number of free slots of each page of a HeapFile, so that inserts find a
+ * page with room without reading the pages before it. Kept in memory, and
+ * saved when the file is closed to a side file next to the heap file (see
+ * {@link #fileOf}) with two bytes per page, {@link #UNKNOWN} for a page whose
+ * free space isn't known. Pages past the end of the side file are unknown too.
+ * <p>
+ * The map is a hint: inserts look at the page itself, and correct the map
+ * when a page it took for having room is full. Unknown pages are taken for
+ * having room. An entry which says there is less room than a page has on
+ * disk would lose that space for good, though. So the side file is emptied
+ * before the first page it lists gains room, and only written again on close
+ * once the pages have been forced: after a crash every page is unknown.
+ * Nothing is written or forced on commit.
+ */
+public class FreeSpaceMap {
+    /**
+     * The entry of a page whose free space isn't known.
+     */
+    public static final int UNKNOWN = 0xFFFF;
+
+    private static final int ENTRY_SIZE = 2;
+
+    private final File file;
+    // the file the pages are written to
+    private final DbFileChannel data;
+
+    // guarded by this: the free slots of each page when it was last written,
+    // the pages known to be full, which may also be pages inserts filled
+    // since they were written, and whether the side file holds stored
+    private int[] stored;
+    private final BitSet full = new BitSet();
+    private boolean saved;
+
+    /**
+     * @return the side file of the free space map of heapFile
+     */
+    public static File fileOf(File heapFile) {
+        return new File(heapFile.getPath() + ".fsm");
+    }
+
+    /**
+     * Delete the side file of heapFile, which is being written from scratch
+     * and would otherwise get the map of the file it replaces.
+     */
+    public static void discard(File heapFile) {
+        fileOf(heapFile).delete();
+    }
+
+    /**
+     * Load the map of heapFile, all pages are unknown if it has none yet.
+     *
+     * @param data the channel the pages of heapFile are written through
+     */
+    FreeSpaceMap(File heapFile, DbFileChannel data) {
+        this.file = fileOf(heapFile);
+        this.data = data;
+        int[] entries = new int[0];
+        if (file.exists()) {
+            try (FileChannel c = FileChannel.open(file.toPath(), READ)) {
+                ByteBuffer bytes = ByteBuffer.allocate((int) (c.size() / ENTRY_SIZE * ENTRY_SIZE));
+                while (bytes.hasRemaining() && c.read(bytes) >= 0) {
+                }
+                bytes.flip();
+                entries = new int[bytes.limit() / ENTRY_SIZE];
+                for (int i = 0; i < entries.length; i++) {
+                    entries[i] = bytes.getShort() & 0xFFFF;
+                    if (entries[i] == 0) {
+                        full.set(i);
+                    }
+                }
+                saved = true;
+            } catch (IOException e) {
+                // start over, unknown pages are checked by inserts
+                entries = new int[0];
+                full.clear();
+            }
+        }
+        this.stored = entries;
+    }
+
+    /**
+     * @return the first page from from on, and before numPages, which may
+     * have room, or -1 if there is none
+     */
+    public synchronized int nextPageWithRoom(int from, int numPages) {
+        int page = full.nextClearBit(from);
+        return page < numPages ? page : -1;
+    }
+
+    /**
+     * Record that an insert found page full, until it is written again.
+     */
+    synchronized void setFull(int page) {
+        full.set(page);
+    }
+
+    /**
+     * Record that a slot of page has been freed, it may be reused once the
+     * page is written.
+     */
+    synchronized void freed(int page) {
+        full.clear(page);
+    }
+
+    /**
+     * @return the free slots page had when it was last written, or UNKNOWN
+     */
+    public synchronized int getFreeSlots(int page) {
+        return page < stored.length ? stored[page] : UNKNOWN;
+    }
+
+    /**
+     * Empty the side file before it claims less room than the pages about to
+     * be written have.
+     */
+    synchronized void beforeWrite(List<Page> pages) throws IOException {
+        if (!saved) {
+            return;
+        }
+        for (Page page : pages) {
+            if (freeSlots(page) > getFreeSlots(page.getId().getPageNumber())) {
+                try (FileChannel c = FileChannel.open(file.toPath(), WRITE, TRUNCATE_EXISTING)) {
+                    c.force(false);
+                }
+                saved = false;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Update the entries of the pages just written.
+     */
+    synchronized void afterWrite(List<Page> pages) {
+        for (Page page : pages) {
+            int pageNo = page.getId().getPageNumber();
+            int free = freeSlots(page);
+            if (pageNo >= stored.length) {
+                int length = stored.length;
+                stored = Arrays.copyOf(stored, Math.max(pageNo + 1, length * 2));
+                Arrays.fill(stored, length, stored.length, UNKNOWN);
+            }
+            if (stored[pageNo] != free) {
+                stored[pageNo] = free;
+                saved = false;
+            }
+            full.set(pageNo, free == 0);
+        }
+    }
+
+    private static int freeSlots(Page page) {
+        return Math.min(((HeapPage) page).getNumEmptySlots(), UNKNOWN - 1);
+    }
+
+    /**
+     * Save the map to the side file, after the pages it describes.
+     */
+    synchronized void close() throws IOException {
+        if (saved || stored.length == 0) {
+            return;
+        }
+        // the pages first, the entries must not claim less room than they have
+        data.force();
+        ByteBuffer entries = ByteBuffer.allocate(stored.length * ENTRY_SIZE);
+        for (int free : stored) {
+            entries.putShort((short) free);
+        }
+        entries.flip();
+        try (FileChannel c = FileChannel.open(file.toPath(), WRITE, CREATE, TRUNCATE_EXISTING)) {
+            while (entries.hasRemaining()) {
+                c.write(entries);
+            }
+            c.force(false);
+        }
+        saved = true;
+    }
+}
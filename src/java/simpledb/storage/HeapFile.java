@@ -2,21 +2,22 @@ package simpledb.storage;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
-import simpledb.common.Permissions;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
-import static simpledb.common.Permissions.READ_ONLY;
-import static simpledb.common.Permissions.READ_WRITE;
-
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
  * in no particular order. Tuples are stored on pages, each of which is a fixed
@@ -32,10 +33,48 @@ public class HeapFile implements DbFile {
     private TupleDesc td;
     private int tableId;
     // private HashMap<PageId, Page> pages;
+    // serializes writes, reads go through the channel without it
     private ReentrantLock lock; //file lock
+    private final DbFileChannel channel;
+    // pages are read over a memory mapping of the file, see setMapped
+    private volatile boolean mapped = false;
 
     private BufferPool bufferPool ;
 
+    /**
+     * Maximum number of adjacent pages {@link #readPages} reads at once.
+     */
+    public static final int MAX_READ_RUN = 64;
+
+    /**
+     * Maximum number of pages appended at once for inserters, see
+     * {@link #insertTuple}.
+     */
+    public static final int MAX_EXTENT_PAGES = 8;
+
+    /*
+     * Insert targets: each inserting thread keeps inserting into a page of its
+     * own until it is full, instead of every inserter going for the first
+     * page with room. owners maps the page numbers handed out to the thread
+     * owning them, pages owned by a thread that died are free again.
+     */
+    private final ConcurrentHashMap<Thread, Inserter> inserters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Thread> owners = new ConcurrentHashMap<>();
+    private volatile boolean insertTargets = true;
+
+    // which pages have room, so that inserts don't read every page
+    private final FreeSpaceMap freeSpace;
+    // the length of the file in bytes, it only grows through writePage(s)
+    // unless the file is appended to behind our back, see readPage
+    private volatile long length;
+
+    // the pages owned by one thread, only used by that thread
+    private static class Inserter {
+        int target = -1;
+        // the rest of the last extent appended for the thread
+        final ArrayDeque<Integer> reserved = new ArrayDeque<>();
+    }
+
     /**
      * Constructs a heap file backed by the specified file.
      *
@@ -48,7 +87,10 @@ public class HeapFile implements DbFile {
         this.td = td;
         this.tableId = f.getAbsolutePath().hashCode();
         this.lock = new ReentrantLock();
+        this.channel = new DbFileChannel(f);
         this.bufferPool = Database.getBufferPool();
+        this.freeSpace = new FreeSpaceMap(f, this.channel);
+        this.length = f.length();
     }
 
     /**
@@ -90,196 +132,308 @@ public class HeapFile implements DbFile {
         //    this.file.length());
         // some code goes here
         if (pid.getClass() != HeapPageId.class) {
-            System.out.println("wrong page id class");
-            return null;
+            throw new IllegalArgumentException("not a page id of a heap file: " + pid);
         }
-        if ((long) pid.getPageNumber() * BufferPool.getPageSize() >= this.file.length()) {
-            throw new IllegalArgumentException();
+        long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
+        if (offset >= this.length) {
+            // the file may have been appended to by someone else
+            this.length = Math.max(this.length, this.file.length());
+            if (offset >= this.length) {
+                throw new IllegalArgumentException();
+            }
         }
-        try (RandomAccessFile raf = new RandomAccessFile(this.file, "r")) {
+        try {
             HeapPageId hpid = (HeapPageId) pid;
-            lock.lock();
+            if (mapped) {
+                ByteBuffer region = channel.map(offset, BufferPool.getPageSize());
+                if (region != null) {
+                    return new HeapPage(hpid, region);
+                }
+                // the page crosses the end of a chunk
+            }
             byte[] bytes = new byte[BufferPool.getPageSize()];
-            //System.out.printf("bytes length: %d, off %d, len %d\n", bytes.length,
-            //        pid.getPageNumber() * BufferPool.getPageSize(), BufferPool.getPageSize());
-            raf.seek((long) pid.getPageNumber() * BufferPool.getPageSize());
-            int res = raf.read(bytes);
+            int res = channel.read(ByteBuffer.wrap(bytes), offset);
             if (res == -1) {
-                System.out.printf("unable to read stream, pageNo %d\n", pid.getPageNumber());
-                return null;
+                throw new IllegalArgumentException("no page " + pid.getPageNumber() + " in " + file);
             }
             return new HeapPage(hpid, bytes);
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            lock.unlock();
+            throw new UncheckedIOException("unable to read page " + pid.getPageNumber() + " of " + file, e);
         }
-        return null;
+    }
+
+    /**
+     * Reads every run of adjacent pages, up to MAX_READ_RUN of them, with a
+     * single read.
+     */
+    public List<Page> readPages(List<PageId> pids) throws IOException {
+        if (mapped) {
+            // nothing to save by reading pages together
+            return DbFile.super.readPages(pids);
+        }
+        int pageSize = BufferPool.getPageSize();
+        int numPages = numPages();
+        List<Integer> pageNos = new ArrayList<>(pids.size());
+        for (PageId pid : pids) {
+            if (pid instanceof HeapPageId && pid.getPageNumber() < numPages) {
+                pageNos.add(pid.getPageNumber());
+            }
+        }
+        Collections.sort(pageNos);
+        List<Page> pages = new ArrayList<>(pageNos.size());
+        int start = 0;
+        while (start < pageNos.size()) {
+            int end = start + 1;
+            while (end < pageNos.size() && end - start < MAX_READ_RUN
+                    && pageNos.get(end) == pageNos.get(end - 1) + 1) {
+                end++;
+            }
+            byte[] run = new byte[(end - start) * pageSize];
+            if (channel.read(ByteBuffer.wrap(run), (long) pageNos.get(start) * pageSize) < run.length) {
+                throw new EOFException("truncated at page " + pageNos.get(start));
+            }
+            for (int i = start; i < end; i++) {
+                int offset = (i - start) * pageSize;
+                pages.add(new HeapPage(new HeapPageId(this.tableId, pageNos.get(i)),
+                        Arrays.copyOfRange(run, offset, offset + pageSize)));
+            }
+            start = end;
+        }
+        return pages;
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
+        lock.lock();
+        try {
+            List<Page> pages = List.of(page);
+            freeSpace.beforeWrite(pages);
+            long offset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+            ByteBuffer data = ScratchBuffers.get(BufferPool.getPageSize());
+            page.writePageData(data);
+            data.flip();
+            channel.write(data, offset);
+            this.length = Math.max(this.length, offset + data.limit());
+            freeSpace.afterWrite(pages);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
-            lock.lock();
-            raf.seek((long) page.getId().getPageNumber() * BufferPool.getPageSize());
-            raf.write(page.getPageData());
+    // see DbFile.java for javadocs
+    public int writePages(List<Page> pages) throws IOException {
+        lock.lock();
+        try {
+            freeSpace.beforeWrite(pages);
+            int writes = CoalescedWriter.write(this.channel, pages,
+                    page -> (long) page.getId().getPageNumber() * BufferPool.getPageSize());
+            for (Page page : pages) {
+                this.length = Math.max(this.length, (page.getId().getPageNumber() + 1L) * BufferPool.getPageSize());
+            }
+            freeSpace.afterWrite(pages);
+            return writes;
         } finally {
             lock.unlock();
         }
     }
 
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        // the map forces the pages before it saves their entries
+        freeSpace.close();
+        channel.close();
+    }
+
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile, from the length it had
+     * when it was last read or written here.
      */
     public int numPages() {
         // some code goes here
-        return (int) Math.ceil((1.0 * this.file.length()) / (1.0 * BufferPool.getPageSize()));
+        return (int) Math.ceil((1.0 * this.length) / (1.0 * BufferPool.getPageSize()));
     }
 
-    // see DbFile.java for javadocs
+    /**
+     * @return the free space map telling inserts which pages have room
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
+    /**
+     * Read pages over a memory mapping of the file instead of copying them
+     * into the heap, for tables which are mostly read: a page is only copied
+     * once it is changed. The file is mapped in chunks of
+     * {@link DbFileChannel#CHUNK_BYTES}, the last one is mapped again when
+     * the file grows past it. Off by default.
+     */
+    public void setMapped(boolean mapped) {
+        this.mapped = mapped;
+    }
+
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Insert targets are on by default. Without them every insert looks for
+     * the first page with room, and pages are appended one at a time.
+     */
+    public void setInsertTargets(boolean insertTargets) {
+        this.insertTargets = insertTargets;
+    }
+
+    public boolean isInsertTargets() {
+        return insertTargets;
+    }
+
+    // see DbFile.java for javadocs. Tuples are inserted and deleted under
+    // record locks, transactions changing different slots of one page don't
+    // wait for each other. Each thread inserts into its own target page until
+    // it is full, then looks for another page with room nobody owns in the
+    // free space map, or appends an extent of as many pages as there are
+    // inserters
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // find a page having empty slots
-        for (int i = 0; i < numPages(); i++) {
-            HeapPage hp = (HeapPage) bufferPool
-                    .getPage(tid, new HeapPageId(this.tableId, i), Permissions.READ_WRITE);
-            if (hp.getNumEmptySlots() != 0) {
-                System.out.println("inserted page: " + hp);
-                System.out.println("bufferpool " + bufferPool);
-                hp.insertTuple(t);
-                hp.markDirty(true, tid);
-                return List.of(hp);
+        if (!insertTargets) {
+            return insertFirstFree(tid, t);
+        }
+        Thread me = Thread.currentThread();
+        Inserter inserter = inserters.computeIfAbsent(me, k -> new Inserter());
+        while (true) {
+            if (inserter.target < 0 && !inserter.reserved.isEmpty()) {
+                inserter.target = inserter.reserved.poll();
+            }
+            if (inserter.target >= 0) {
+                HeapPage hp = insertInto(tid, inserter.target, t);
+                if (hp != null) {
+                    return List.of(hp);
+                }
+                // full, let others use what is freed on it later
+                owners.remove(inserter.target, me);
+                inserter.target = -1;
+                continue;
+            }
+            int numPages = numPages();
+            for (int i = freeSpace.nextPageWithRoom(0, numPages); i >= 0;
+                 i = freeSpace.nextPageWithRoom(i + 1, numPages)) {
+                if (ownedByOther(i, me) || !claim(i, me)) {
+                    continue;
+                }
+                HeapPage hp = insertInto(tid, i, t);
+                if (hp != null) {
+                    inserter.target = i;
+                    return List.of(hp);
+                }
+                owners.remove(i, me);
             }
-            bufferPool.releasePage(tid, hp.pid, READ_WRITE);
+            appendExtent(inserter, me);
         }
-        // if no page having empty slots, create a page and write page
-        HeapPageId newHpid = new HeapPageId(this.tableId, numPages());
-        HeapPage newHp = new HeapPage(newHpid, HeapPage.createEmptyPageData());
-        writePage(newHp);
-        newHp = (HeapPage) bufferPool.getPage(tid, newHpid, READ_WRITE);
-        newHp.insertTuple(t);
-        newHp.markDirty(true, tid);
-        return List.of(newHp);
     }
 
-    // see DbFile.java for javadocs
-    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+    // insert t into page pageNo if it has an empty slot, null if it hasn't.
+    // A page found full is left out by later inserts unless running
+    // transactions changed it, which may give slots back when they abort
+    private HeapPage insertInto(TransactionId tid, int pageNo, Tuple t)
             throws DbException, TransactionAbortedException {
-        HeapPage hp = (HeapPage) bufferPool
-                .getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
-        hp.deleteTuple(t);
-        return new ArrayList<Page>() {{
-            add(hp);
-        }};
+        HeapPageId pid = new HeapPageId(this.tableId, pageNo);
+        HeapPage hp = (HeapPage) bufferPool.getPageForRecordUpdate(tid, pid);
+        if (hp.getNumEmptySlots() != 0 && hp.insertTuple(t, tid, rid -> bufferPool.tryLockRecord(tid, rid))) {
+            return hp;
+        }
+        if (hp.getNumEmptySlots() == 0 && !hp.hasChanges()) {
+            freeSpace.setFull(pageNo);
+        }
+        bufferPool.unpinPage(tid, pid);
+        bufferPool.releasePageForRecordUpdate(tid, pid);
+        return null;
     }
 
-    // see DbFile.java for javadocs
-    public DbFileIterator iterator(TransactionId tid) {
-        // some code goes here
-        return new HeapFileIterator(tid, this.tableId, numPages());
+    private boolean ownedByOther(int pageNo, Thread me) {
+        Thread owner = owners.get(pageNo);
+        return owner != null && owner != me && owner.isAlive();
     }
 
-    public String toString() {
-        return "tableId: " + this.tableId + "file: " + this.file.toString();
+    private boolean claim(int pageNo, Thread me) {
+        return owners.compute(pageNo, (k, owner) -> owner == null || !owner.isAlive() ? me : owner) == me;
     }
-}
 
-class HeapFileIterator extends AbstractDbFileIterator {
-    private int tableId;
-    private int maxPageNumber;
-
-    private TransactionId tid;
-    private int currentPageNumber = 0;
-    private HeapPage currentPage = null;
-    private HeapPageId currentPageId = null;
-    private Iterator<Tuple> currentIterator = null;
-    private Boolean open = false;
-    private BufferPool bufferPool;
-
-    public HeapFileIterator(TransactionId tid, int tableId, int maxPageNumber) {
-        this.tableId = tableId;
-        this.maxPageNumber = maxPageNumber;
-        this.tid = tid;
-        this.bufferPool = Database.getBufferPool();
+    // append empty pages for the inserter, as many as there are live inserters
+    private void appendExtent(Inserter inserter, Thread me) throws IOException {
+        inserters.keySet().removeIf(thread -> !thread.isAlive());
+        int extent = Math.max(1, Math.min(MAX_EXTENT_PAGES, inserters.size()));
+        List<Page> pages = new ArrayList<>(extent);
+        lock.lock();
+        try {
+            int first = numPages();
+            for (int i = 0; i < extent; i++) {
+                pages.add(new HeapPage(new HeapPageId(this.tableId, first + i), HeapPage.createEmptyPageData()));
+            }
+            writePages(pages);
+        } finally {
+            lock.unlock();
+        }
+        for (Page page : pages) {
+            int pageNo = page.getId().getPageNumber();
+            owners.put(pageNo, me);
+            inserter.reserved.add(pageNo);
+        }
     }
 
-    @Override
-    public void open() throws DbException, TransactionAbortedException {
-        open = true;
-        currentPageNumber = 0;
-        currentPageId = new HeapPageId(tableId, currentPageNumber);
-        currentPageNumber++;
-        currentPage = (HeapPage) bufferPool.getPage(tid, currentPageId, READ_ONLY);
-//        System.out.println("current open pid" + currentPage.getId().toString());
-
-        if (currentPage == null) {
-            System.out.println("open fail, no page");
-            throw new DbException("open fail, no page");
+    // look for the first page with room, from the start of the file
+    private List<Page> insertFirstFree(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        int i = 0;
+        while (true) {
+            // find a page having an empty slot
+            for (i = freeSpace.nextPageWithRoom(i, numPages()); i >= 0;
+                 i = freeSpace.nextPageWithRoom(i + 1, numPages())) {
+                HeapPage hp = insertInto(tid, i, t);
+                if (hp != null) {
+                    return List.of(hp);
+                }
+            }
+            // if no page having empty slots, create a page and write page,
+            // unless another transaction has appended one meanwhile
+            i = numPages();
+            lock.lock();
+            try {
+                if (i == numPages()) {
+                    writePage(new HeapPage(new HeapPageId(this.tableId, i), HeapPage.createEmptyPageData()));
+                }
+            } finally {
+                lock.unlock();
+            }
         }
-        currentIterator = currentPage.iterator();
     }
 
-    @Override
-    public void rewind() throws DbException, TransactionAbortedException {
-        open = true;
-        currentPageNumber = 0;
-        bufferPool.releasePage(tid, currentPage.pid, READ_ONLY);
-        currentPageId = new HeapPageId(tableId, currentPageNumber);
-        currentPageNumber++;
-        currentPage = (HeapPage) bufferPool.getPage(tid, currentPageId, READ_ONLY);
-        if (currentPage == null) {
-            System.out.println("rewind fail, no page");
-            throw new DbException("rewind fail, no page");
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple is not stored in a file");
         }
-        currentIterator = currentPage.iterator();
+        HeapPage hp = (HeapPage) bufferPool.getPageForRecordUpdate(tid, rid.getPageId());
+        bufferPool.lockRecord(tid, rid);
+        hp.deleteTuple(t, tid);
+        freeSpace.freed(rid.getPageId().getPageNumber());
+        return new ArrayList<Page>() {{
+            add(hp);
+        }};
     }
 
-    @Override
-    protected Tuple readNext() throws DbException, TransactionAbortedException {
-        // not open
-        if (!open) {
-            throw new IllegalStateException();
-        }
-        if (currentIterator == null) {
-            System.out.println("currentIterator is null");
-            return null;
-        }
-        // if current page still has next
-        if (currentIterator.hasNext()) {
-            return currentIterator.next();
-        }
-        // current page do not have next
-        // if it is the last page, then return null
-        if (currentPageNumber >= maxPageNumber) {
-            return null;
-        }
-        // then read new page
-        bufferPool.releasePage(tid, currentPageId, READ_ONLY);
-        currentPageId = new HeapPageId(this.tableId, currentPageNumber);
-        currentPageNumber++;
-        currentPage = (HeapPage) bufferPool.getPage(tid, currentPageId, READ_ONLY);
-//        System.out.println("current open pid" + currentPage.getId().toString());
-        if (currentPage == null) {
-            // no new page
-            currentIterator = null;
-            System.out.printf("readNext fail, currentPageNumber %d has no page\n", currentPageNumber - 1);
-            return null;
-        }
-        currentIterator = currentPage.iterator();
-        if (currentIterator.hasNext()) {
-            return currentIterator.next();
-        }
-        // currentPage is an empty page
-        // read next page
-        // return null;
-        return readNext();
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        // some code goes here
+        return new HeapFileIterator(tid, this.tableId, this::numPages);
+    }
+
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapFileIterator(tid, this.tableId, this::numPages, ring);
     }
 
-    @Override
-    public void close() {
-        super.close();
-        open = false;
-        bufferPool.releasePage(tid, currentPageId, READ_ONLY);
+    public String toString() {
+        return "tableId: " + this.tableId + "file: " + this.file.toString();
     }
 }
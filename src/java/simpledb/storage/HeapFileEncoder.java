@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -108,6 +110,7 @@ public class HeapFileEncoder {
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
     FileOutputStream os = new FileOutputStream(outFile);
+    FreeSpaceMap.discard(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
     char[] buf = new char[1024];
@@ -224,4 +227,78 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file of
+   * SlottedHeapPages, in which strings only take the bytes they use. <br>
+   *
+   * The input is read as by {@link #convert(File, File, int, int, Type[], char)},
+   * lines with a malformed int are skipped. Each page is filled with records
+   * in the order of the input until the next one doesn't fit.
+   *
+   * @see SlottedHeapPage
+   * @see SlottedHeapFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @throws IOException if the input/output file can't be opened or a
+   *   record doesn't fit on a page
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      FreeSpaceMap.discard(outFile);
+
+      List<byte[]> records = new ArrayList<>();
+      int used = SlottedHeapPage.HEADER_SIZE;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          if (values.length < numFields) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          ByteArrayOutputStream recordBAOS = new ByteArrayOutputStream();
+          DataOutputStream recordStream = new DataOutputStream(recordBAOS);
+          try {
+              for (int i = 0; i < numFields; i++) {
+                  String s = values[i].trim();
+                  if (typeAr[i] == Type.INT_TYPE) {
+                      recordStream.writeInt(Integer.parseInt(s));
+                  } else if (typeAr[i] == Type.STRING_TYPE) {
+                      if (s.length() > Type.STRING_LEN)
+                          s = s.substring(0, Type.STRING_LEN);
+                      recordStream.writeInt(s.length());
+                      recordStream.writeBytes(s);
+                  }
+              }
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          byte[] record = recordBAOS.toByteArray();
+          if (SlottedHeapPage.HEADER_SIZE + SlottedHeapPage.spaceFor(record.length) > npagebytes)
+              throw new IOException("record too large for a page: " + line);
+
+          // start a new page once the record doesn't fit
+          if (used + SlottedHeapPage.spaceFor(record.length) > npagebytes) {
+              os.write(SlottedHeapPage.createPageData(records, npagebytes));
+              npages++;
+              records.clear();
+              used = SlottedHeapPage.HEADER_SIZE;
+          }
+          records.add(record);
+          used += SlottedHeapPage.spaceFor(record.length);
+      }
+      // like convert, an empty table still gets an empty page
+      if (!records.isEmpty() || npages == 0)
+          os.write(SlottedHeapPage.createPageData(records, npagebytes));
+      br.close();
+      os.close();
+  }
 }
@@ -0,0 +1,145 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+import java.util.function.IntFunction;
+import java.util.function.IntSupplier;
+
+import static simpledb.common.Permissions.READ_ONLY;
+
+/**
+ * Scans the pages of a HeapFile, or of another file of TuplePages numbered
+ * from 0 on, in order. Pages are unpinned as the scan
+ * leaves them, but stay locked shared until the transaction completes: a
+ * writer committing under a scan which has moved on would let the scanning
+ * transaction act on values it no longer sees.
+ * <p>
+ * Once the scan reaches the last page it asks the file for its length
+ * again: a transaction the scan waited for may have appended pages, and
+ * its inserts have to be seen together with its deletes.
+ */
+class HeapFileIterator extends AbstractDbFileIterator {
+    private int tableId;
+    private int maxPageNumber;
+    private IntSupplier numPages;
+
+    private TransactionId tid;
+    private int currentPageNumber = 0;
+    private Page currentPage = null;
+    private HeapPageId currentPageId = null;
+    private Iterator<Tuple> currentIterator = null;
+    private Boolean open = false;
+    private BufferPool bufferPool;
+    private ReadAhead readAhead;
+    private IntFunction<PageId> pageIdOf;
+    // null unless the scan reads through a ring
+    private BufferRing ring;
+
+    public HeapFileIterator(TransactionId tid, int tableId, IntSupplier numPages) {
+        this(tid, tableId, numPages, null);
+    }
+
+    public HeapFileIterator(TransactionId tid, int tableId, IntSupplier numPages, BufferRing ring) {
+        this.tableId = tableId;
+        this.numPages = numPages;
+        this.maxPageNumber = numPages.getAsInt();
+        this.tid = tid;
+        this.bufferPool = Database.getBufferPool();
+        this.readAhead = new ReadAhead(bufferPool);
+        this.pageIdOf = pageNo -> new HeapPageId(tableId, pageNo);
+        this.ring = ring;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        open = true;
+        currentPageNumber = 0;
+        maxPageNumber = numPages.getAsInt();
+        currentPageId = new HeapPageId(tableId, currentPageNumber);
+        currentPageNumber++;
+        currentPage = bufferPool.getPage(tid, currentPageId, READ_ONLY, ring);
+        readAhead.onPage(currentPageId, maxPageNumber, pageIdOf);
+//        System.out.println("current open pid" + currentPage.getId().toString());
+
+        if (currentPage == null) {
+            System.out.println("open fail, no page");
+            throw new DbException("open fail, no page");
+        }
+        currentIterator = ((TuplePage) currentPage).iterator();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        open = true;
+        currentPageNumber = 0;
+        maxPageNumber = numPages.getAsInt();
+        bufferPool.unpinPage(tid, currentPageId);
+        currentPageId = new HeapPageId(tableId, currentPageNumber);
+        currentPageNumber++;
+        currentPage = bufferPool.getPage(tid, currentPageId, READ_ONLY, ring);
+        readAhead.onPage(currentPageId, maxPageNumber, pageIdOf);
+        if (currentPage == null) {
+            System.out.println("rewind fail, no page");
+            throw new DbException("rewind fail, no page");
+        }
+        currentIterator = ((TuplePage) currentPage).iterator();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        // not open
+        if (!open) {
+            throw new IllegalStateException();
+        }
+        if (currentIterator == null) {
+            System.out.println("currentIterator is null");
+            return null;
+        }
+        // if current page still has next
+        if (currentIterator.hasNext()) {
+            return currentIterator.next();
+        }
+        // current page do not have next
+        // if it is the last page, then return null
+        if (currentPageNumber >= maxPageNumber) {
+            maxPageNumber = numPages.getAsInt();
+            if (currentPageNumber >= maxPageNumber) {
+                return null;
+            }
+        }
+        // then read new page
+        bufferPool.unpinPage(tid, currentPageId);
+        currentPageId = new HeapPageId(this.tableId, currentPageNumber);
+        currentPageNumber++;
+        currentPage = bufferPool.getPage(tid, currentPageId, READ_ONLY, ring);
+        readAhead.onPage(currentPageId, maxPageNumber, pageIdOf);
+//        System.out.println("current open pid" + currentPage.getId().toString());
+        if (currentPage == null) {
+            // no new page
+            currentIterator = null;
+            System.out.printf("readNext fail, currentPageNumber %d has no page\n", currentPageNumber - 1);
+            return null;
+        }
+        currentIterator = ((TuplePage) currentPage).iterator();
+        if (currentIterator.hasNext()) {
+            return currentIterator.next();
+        }
+        // currentPage is an empty page
+        // read next page
+        // return null;
+        return readNext();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (open && currentPageId != null) {
+            bufferPool.unpinPage(tid, currentPageId);
+        }
+        open = false;
+    }
+}
@@ -3,12 +3,18 @@ package simpledb.storage;
 import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 import static simpledb.util.StringUtils.convertByteToHexadecimal;
 
@@ -19,23 +25,63 @@ import static simpledb.util.StringUtils.convertByteToHexadecimal;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements TuplePage {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
-    final Tuple[] tuples;
     final int numSlots;
+    final int headerSize;
+
+    /*
+     * The bytes of the page, in the on-disk format. Tuples are decoded from here
+     * when they are read and encoded into it when they are inserted. The buffer
+     * is either on the heap, or a frame of a PageFrameArena while the page is
+     * cached by an off-heap BufferPool, or a read-only region of a mapped
+     * HeapFile until the page is first changed. Only accessed with absolute
+     * get/put, while holding RWPageLock, since attach/detach/writable replace
+     * it.
+     */
+    private ByteBuffer data;
+    private PageFrameArena arena;
+    private int frame = -1;
 
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
 
-    private final Byte RWPageLock = (byte) 0;
+    private final Object RWPageLock = new Object();
 
     private TransactionId lastestTransactionId = null;
 
     private Boolean dirty = false;
 
+    /*
+     * Slots changed under record locks by transactions still running, with
+     * what each held before. Several transactions may change records of the
+     * page at once, the changes of each are written or rolled back on their
+     * own. Guarded by RWPageLock.
+     */
+    private final HashMap<Integer, SlotChange> changes = new HashMap<>();
+
+    /**
+     * Held by a commit from taking the committed image of this page until it
+     * is written, so commits of transactions which changed records of the
+     * page write it one at a time.
+     */
+    final ReentrantLock commitLock = new ReentrantLock();
+
+    // the state of a slot before a running transaction changed it
+    private static class SlotChange {
+        final TransactionId tid;
+        final boolean used;
+        final byte[] tuple;
+
+        SlotChange(TransactionId tid, boolean used, byte[] tuple) {
+            this.tid = tid;
+            this.used = used;
+            this.tuple = tuple;
+        }
+    }
+
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
@@ -50,6 +96,7 @@ public class HeapPage implements Page {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * The bytes are copied, tuples are only decoded when they are read.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
@@ -59,26 +106,31 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        if (data.length < headerSize + numSlots * td.getSize()) {
+            throw new IOException("page data too short");
         }
-        dis.close();
+        this.data = ByteBuffer.wrap(Arrays.copyOf(data, BufferPool.getPageSize()));
 
         setBeforeImage();
     }
 
+    /**
+     * Create a HeapPage over a read-only region of a mapped HeapFile,
+     * without copying it. The bytes are copied when the page is first
+     * changed, until then they are also its before image.
+     */
+    HeapPage(HeapPageId id, ByteBuffer mapped) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.numSlots = getNumTuples();
+        this.headerSize = getHeaderSize();
+        if (mapped.capacity() < BufferPool.getPageSize()) {
+            throw new IOException("page data too short");
+        }
+        this.data = mapped.asReadOnlyBuffer();
+    }
+
     /**
      * Retrieve the number of tuples on this page.
      *
@@ -103,12 +155,25 @@ public class HeapPage implements Page {
     /**
      * Return a view of this page before it was modified
      * -- used by recovery
+     * <p>
+     * Records changed by running transactions are as they were before.
      */
     public HeapPage getBeforeImage() {
         try {
             byte[] oldDataRef = null;
-            synchronized (oldDataLock) {
-                oldDataRef = oldData;
+            synchronized (RWPageLock) {
+                if (!changes.isEmpty()) {
+                    oldDataRef = getCommittedData(null);
+                }
+            }
+            if (oldDataRef == null) {
+                synchronized (oldDataLock) {
+                    oldDataRef = oldData;
+                }
+            }
+            if (oldDataRef == null) {
+                // still mapped, see writable
+                oldDataRef = getCommittedData(null);
             }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
@@ -120,8 +185,9 @@ public class HeapPage implements Page {
     }
 
     public void setBeforeImage() {
+        byte[] pageData = getCommittedData(null);
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = pageData;
         }
     }
 
@@ -134,39 +200,97 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            // System.out.printf("slotId %d is used\n", slotId);
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+     * Read the tuple in slotId. Only its bytes are copied, without the
+     * padding of strings, the fields are decoded when the tuple is asked for
+     * them.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    private Tuple readTuple(int slotId) {
+        byte[] bytes;
+        synchronized (RWPageLock) {
+            if (!isSlotUsed(slotId)) {
+                return null;
+            }
+            int start = headerSize + slotId * td.getSize();
+            int length = 0;
+            for (int j = 0; j < td.numFields(); j++) {
+                length += fieldLength(start + td.getFieldOffset(j), td.getFieldType(j));
+            }
+            bytes = new byte[length];
+            int copied = 0;
+            for (int j = 0; j < td.numFields(); j++) {
+                int offset = start + td.getFieldOffset(j);
+                int n = fieldLength(offset, td.getFieldType(j));
+                for (int k = 0; k < n; k++) {
+                    bytes[copied++] = data.get(offset + k);
                 }
             }
-            return null;
         }
-        // System.out.printf("slotId %d is unused\n", slotId);
+        Tuple t = new Tuple(td, bytes);
+        t.setRecordId(new RecordId(pid, slotId));
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    // the bytes the field at offset uses, the caller holds RWPageLock
+    private int fieldLength(int offset, Type type) {
+        return type == Type.STRING_TYPE ? 4 + data.getInt(offset) : type.getLen();
+    }
+
+    // the offset of a field of the tuple in slot, which must be used, the
+    // caller holds RWPageLock
+    private int fieldOffset(int slot, int field, Type type) {
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot)) {
+            throw new NoSuchElementException("slot " + slot + " is empty");
+        }
+        if (td.getFieldType(field) != type) {
+            throw new IllegalArgumentException("field " + field + " is not of type " + type);
         }
+        return headerSize + slot * td.getSize() + td.getFieldOffset(field);
+    }
 
-        return t;
+    /**
+     * @return the number of slots of this page, used or not
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * Read an int field straight from the bytes of the page, without
+     * decoding the tuple.
+     *
+     * @param slot  a used slot of this page
+     * @param field the index of an INT_TYPE field
+     * @throws NoSuchElementException   if the slot is empty
+     * @throws IllegalArgumentException if the field is not an int
+     */
+    public int getInt(int slot, int field) {
+        synchronized (RWPageLock) {
+            return data.getInt(fieldOffset(slot, field, Type.INT_TYPE));
+        }
+    }
+
+    /**
+     * Read a string field straight from the bytes of the page, without
+     * decoding the tuple.
+     *
+     * @param slot  a used slot of this page
+     * @param field the index of a STRING_TYPE field
+     * @throws NoSuchElementException   if the slot is empty
+     * @throws IllegalArgumentException if the field is not a string
+     */
+    public String getString(int slot, int field) {
+        byte[] bytes;
+        synchronized (RWPageLock) {
+            int offset = fieldOffset(slot, field, Type.STRING_TYPE);
+            bytes = new byte[data.getInt(offset)];
+            ByteBuffer src = data.duplicate();
+            src.clear();
+            src.position(offset + 4);
+            src.get(bytes);
+        }
+        return new String(bytes);
     }
 
     /**
@@ -181,65 +305,22 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); // - numSlots *
-        // td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        byte[] pageData = new byte[BufferPool.getPageSize()];
+        writePageData(ByteBuffer.wrap(pageData));
+        return pageData;
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * The bytes of the page are already in the on-disk format, so this is a
+     * single bulk copy.
+     */
+    public void writePageData(ByteBuffer dst) {
+        synchronized (RWPageLock) {
+            ByteBuffer src = data.duplicate();
+            src.clear();
+            src.limit(Math.min(src.capacity(), BufferPool.getPageSize()));
+            dst.put(src);
         }
-
-        return baos.toByteArray();
     }
 
     /**
@@ -266,19 +347,17 @@ public class HeapPage implements Page {
      *                     already empty.
      */
     public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())
+                || rid.getTupleNumber() < 0 || rid.getTupleNumber() >= numSlots) {
+            throw new DbException("not found tuple");
+        }
         synchronized (RWPageLock) {
-            for (int i = 0; i < getNumTuples(); i++) {
-                if (this.tuples[i] != null && this.tuples[i].equals(t)) {
-                    if (!isSlotUsed(i)) {
-                        throw new DbException("already deleted");
-                    }
-                    this.tuples[i] = null;
-                    markSlotUsed(i, false);
-                    return;
-                }
+            if (!isSlotUsed(rid.getTupleNumber())) {
+                throw new DbException("already deleted");
             }
+            markSlotUsed(rid.getTupleNumber(), false);
         }
-        throw new DbException("not found tuple");
     }
 
     /**
@@ -290,21 +369,161 @@ public class HeapPage implements Page {
      *                     is mismatch.
      */
     public void insertTuple(Tuple t) throws DbException {
-        if (!t.getTupleDesc().equals(this.td) || this.getNumEmptySlots() == 0) {
+        if (!t.getTupleDesc().equals(this.td)) {
             throw new DbException("tuple desc not equal or have no empty slots");
         }
         synchronized (RWPageLock) {
-            for (int i = 0; i < getNumTuples(); i++) {
+            for (int i = 0; i < numSlots; i++) {
                 if (!isSlotUsed(i)) {
-                    markSlotUsed(i, true);
-                    t.setRecordId(new RecordId(this.pid, i));
-                    tuples[i] = t;
+                    writeTuple(i, t);
                     return;
                 }
             }
         }
 
-        throw new DbException("insert tuple failed");
+        throw new DbException("tuple desc not equal or have no empty slots");
+    }
+
+    /**
+     * Adds t to an empty slot as a change of tid, which may be rolled back on
+     * its own while other transactions change other slots. Only slots whose
+     * record lock can be locked for tid are used: a slot emptied by a running
+     * transaction stays locked by it, to be refilled if it aborts.
+     *
+     * @param lock locks the record of a slot for tid, without waiting
+     * @return false if no empty slot could be locked
+     * @throws DbException if tupledesc is mismatch
+     */
+    boolean insertTuple(Tuple t, TransactionId tid, Predicate<RecordId> lock) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("tuple desc not equal");
+        }
+        synchronized (RWPageLock) {
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i) && lock.test(new RecordId(pid, i))) {
+                    change(i, tid);
+                    writeTuple(i, t);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Deletes t as a change of tid, which holds the lock of its record.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    void deleteTuple(Tuple t, TransactionId tid) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())
+                || rid.getTupleNumber() < 0 || rid.getTupleNumber() >= numSlots) {
+            throw new DbException("not found tuple");
+        }
+        synchronized (RWPageLock) {
+            if (!isSlotUsed(rid.getTupleNumber())) {
+                throw new DbException("already deleted");
+            }
+            change(rid.getTupleNumber(), tid);
+            markSlotUsed(rid.getTupleNumber(), false);
+        }
+    }
+
+    /**
+     * @return true if tid has changed records of this page which are neither
+     * committed nor rolled back
+     */
+    boolean hasChanges(TransactionId tid) {
+        synchronized (RWPageLock) {
+            for (SlotChange c : changes.values()) {
+                if (c.tid.equals(tid)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return true if any running transaction has changed records of this page
+     */
+    boolean hasChanges() {
+        synchronized (RWPageLock) {
+            return !changes.isEmpty();
+        }
+    }
+
+    /**
+     * @return the bytes of this page without the record changes of running
+     * transactions other than tid, what the page holds once tid commits
+     */
+    byte[] getCommittedData(TransactionId tid) {
+        synchronized (RWPageLock) {
+            byte[] pageData = getPageData();
+            ByteBuffer image = ByteBuffer.wrap(pageData);
+            for (Map.Entry<Integer, SlotChange> e : changes.entrySet()) {
+                if (!e.getValue().tid.equals(tid)) {
+                    restore(image, e.getKey(), e.getValue());
+                }
+            }
+            return pageData;
+        }
+    }
+
+    /**
+     * End the record changes of tid: forget them once they are written, or
+     * roll them back. The page stays dirty as long as other transactions have
+     * changes on it.
+     */
+    void endChanges(TransactionId tid, boolean commit) {
+        synchronized (RWPageLock) {
+            for (Iterator<Map.Entry<Integer, SlotChange>> it = changes.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Integer, SlotChange> e = it.next();
+                if (e.getValue().tid.equals(tid)) {
+                    if (!commit) {
+                        restore(data, e.getKey(), e.getValue());
+                    }
+                    it.remove();
+                }
+            }
+            TransactionId other = changes.isEmpty() ? null : changes.values().iterator().next().tid;
+            markDirty(other != null, other);
+        }
+    }
+
+    // remember what slot held before the first change of tid, the caller holds RWPageLock
+    private void change(int slot, TransactionId tid) {
+        if (!changes.containsKey(slot)) {
+            byte[] tuple = new byte[td.getSize()];
+            int offset = headerSize + slot * td.getSize();
+            for (int j = 0; j < tuple.length; j++) {
+                tuple[j] = data.get(offset + j);
+            }
+            changes.put(slot, new SlotChange(tid, isSlotUsed(slot), tuple));
+        }
+        markDirty(true, tid);
+    }
+
+    private void restore(ByteBuffer buf, int slot, SlotChange c) {
+        int offset = headerSize + slot * td.getSize();
+        for (int j = 0; j < c.tuple.length; j++) {
+            buf.put(offset + j, c.tuple[j]);
+        }
+        setSlotUsed(buf, slot, c.used);
+    }
+
+    // encode t into slot and mark it used, the caller holds RWPageLock
+    private void writeTuple(int slot, Tuple t) {
+        writable();
+        int offset = headerSize + slot * td.getSize();
+        for (int j = 0; j < td.numFields(); j++) {
+            t.getField(j).serialize(data, offset);
+            offset += td.getFieldType(j).getLen();
+        }
+        markSlotUsed(slot, true);
+        t.setRecordId(new RecordId(this.pid, slot));
     }
 
     /**
@@ -312,12 +531,14 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        if (dirty) {
-            lastestTransactionId = tid;
-            this.dirty = true;
-        } else {
-            lastestTransactionId = null;
-            this.dirty = false;
+        synchronized (RWPageLock) {
+            if (dirty) {
+                lastestTransactionId = tid;
+                this.dirty = true;
+            } else {
+                lastestTransactionId = null;
+                this.dirty = false;
+            }
         }
     }
 
@@ -326,12 +547,13 @@ public class HeapPage implements Page {
      * the page is not dirty
      */
     public TransactionId isDirty() {
-        if (this.dirty) {
-            return lastestTransactionId;
-        } else {
-            return null;
+        synchronized (RWPageLock) {
+            if (this.dirty) {
+                return lastestTransactionId;
+            } else {
+                return null;
+            }
         }
-
     }
 
     /**
@@ -340,9 +562,11 @@ public class HeapPage implements Page {
     public int getNumEmptySlots() {
         // some code goes here
         int numEmptySlots = 0;
-        for (Tuple t : this.tuples) {
-            if (t == null)
-                numEmptySlots++;
+        synchronized (RWPageLock) {
+            for (int i = 0; i < numSlots; i++) {
+                if (!isSlotUsed(i))
+                    numEmptySlots++;
+            }
         }
         return numEmptySlots;
     }
@@ -353,43 +577,144 @@ public class HeapPage implements Page {
     public boolean isSlotUsed(int i) {
         // some code goes here
         byte a = (byte) (1 << (i % 8));
-        return ((header[i / 8]) & (a)) != 0;
+        synchronized (RWPageLock) {
+            return (data.get(i / 8) & a) != 0;
+        }
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        //System.out.printf("markSlotUsed i: %d, value: %b\n", i, value);
-        byte a = (byte) (1 << (i % 8));
-        //System.out.printf("a: %x, before header: %x\n", a, header[i / 8]);
-        if (value) {
-            header[i / 8] = (byte) (header[i / 8] | a);
-        } else {
-            header[i / 8] = (byte) (header[i / 8] - a);
+        writable();
+        setSlotUsed(data, i, value);
+    }
+
+    // copy the bytes of a mapped page before they are changed, keeping them
+    // as the before image. The caller holds RWPageLock
+    private void writable() {
+        if (!data.isReadOnly()) {
+            return;
+        }
+        ByteBuffer heap = ByteBuffer.allocate(data.capacity());
+        copy(data, heap);
+        synchronized (oldDataLock) {
+            oldData = heap.array().clone();
         }
-        //System.out.printf("after header: %x\n",header[i / 8]);
-        //System.out.println();
+        data = heap;
+    }
+
+    private static void setSlotUsed(ByteBuffer buf, int i, boolean value) {
+        byte a = (byte) (1 << (i % 8));
+        byte b = buf.get(i / 8);
+        buf.put(i / 8, (byte) (value ? b | a : b & ~a));
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this
      * iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * <p>
+     * The used slots are those at the time of the call, tuples are decoded as
+     * the iterator reaches them and tuples deleted in the meantime are skipped.
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        ArrayList<Tuple> ts = new ArrayList<>();
-        for (Tuple t : tuples) {
-            if (t != null)
-                ts.add(t);
+        byte[] header = getHeader();
+        return new Iterator<Tuple>() {
+            private int slot = -1;
+            private Tuple next = null;
+
+            public boolean hasNext() {
+                while (next == null && ++slot < numSlots) {
+                    if ((header[slot / 8] & (1 << (slot % 8))) != 0) {
+                        next = readTuple(slot);
+                    }
+                }
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+        };
+    }
+
+    private byte[] getHeader() {
+        byte[] header = new byte[headerSize];
+        synchronized (RWPageLock) {
+            for (int i = 0; i < headerSize; i++) {
+                header[i] = data.get(i);
+            }
         }
-        return ts.iterator();
+        return header;
+    }
+
+    /**
+     * Move the bytes of this page into a frame of arena. Does nothing if the
+     * page is already in a frame, or if the arena has no free frame left.
+     */
+    void attach(PageFrameArena arena) {
+        synchronized (RWPageLock) {
+            if (this.arena != null || arena.getFrameSize() != data.capacity()) {
+                return;
+            }
+            int f = arena.allocate();
+            if (f < 0) {
+                return;
+            }
+            ByteBuffer target = arena.frame(f);
+            copy(data, target);
+            this.data = target;
+            this.arena = arena;
+            this.frame = f;
+        }
+    }
+
+    /**
+     * Move the bytes of this page back to the heap and release its frame, after
+     * which the frame may be handed to another page. Pages may still be read
+     * after they left the BufferPool, so the bytes have to stay available.
+     */
+    void detach() {
+        synchronized (RWPageLock) {
+            if (this.arena == null) {
+                return;
+            }
+            ByteBuffer heap = ByteBuffer.allocate(data.capacity());
+            copy(data, heap);
+            this.data = heap;
+            this.arena.release(frame);
+            this.arena = null;
+            this.frame = -1;
+        }
+    }
+
+    /**
+     * @return true if the bytes of this page are in a frame of a PageFrameArena
+     */
+    public boolean isOffHeap() {
+        synchronized (RWPageLock) {
+            return arena != null;
+        }
+    }
+
+    private static void copy(ByteBuffer from, ByteBuffer to) {
+        ByteBuffer src = from.duplicate();
+        src.clear();
+        ByteBuffer dst = to.duplicate();
+        dst.clear();
+        dst.put(src);
     }
 
     public String toString() {
         return "PageId: " + this.pid.toString() + " lastestTransactionId :" + lastestTransactionId + "header: "
-                + convertByteToHexadecimal(this.header) + "\t";
+                + convertByteToHexadecimal(getHeader()) + "\t";
     }
 
 
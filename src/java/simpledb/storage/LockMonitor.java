@@ -0,0 +1,280 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters of the lock manager of a BufferPool: lock acquisitions per mode,
+ * upgrades, waits with a histogram of how long they took, aborted
+ * transactions per reason, and the pages waited for most over the last
+ * {@link #WINDOW_MILLIS}. Off by default, when off the lock manager only
+ * pays for a volatile read per event.
+ * <p>
+ * Waits for record locks count for the page of the record, waits for table
+ * locks don't count for any page.
+ */
+public class LockMonitor {
+    /**
+     * Why the lock manager aborted a transaction.
+     */
+    public enum AbortReason {
+        /**
+         * Picked as the victim of a cycle of waiting transactions, by
+         * DETECT_ON_WAIT or DETECT_PERIODIC.
+         */
+        DEADLOCK,
+        /**
+         * Not allowed to wait by WAIT_DIE, or wounded by WOUND_WAIT.
+         */
+        PREVENTION,
+        /**
+         * The waiting thread was interrupted by something else than the
+         * deadlock detector.
+         */
+        INTERRUPTED
+    }
+
+    /**
+     * Bucket i of the wait histogram counts waits shorter than 2^i
+     * microseconds and not shorter than 2^(i-1), the last one the longer waits.
+     */
+    public static final int HISTOGRAM_BUCKETS = 24;
+
+    /**
+     * How far back the hot page report looks, in milliseconds. The window
+     * moves by WINDOW_MILLIS / WINDOW_SLOTS at a time.
+     */
+    public static final long WINDOW_MILLIS = 60000;
+    private static final int WINDOW_SLOTS = 6;
+
+    private volatile boolean enabled;
+
+    private final AtomicLong[] acquired = new AtomicLong[BufferPool.LockMode.values().length];
+    private final AtomicLong upgrades = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final EnumMap<AbortReason, AtomicLong> aborts = new EnumMap<>(AbortReason.class);
+
+    // waits per page, one slot per WINDOW_MILLIS / WINDOW_SLOTS
+    private final Slot[] window = new Slot[WINDOW_SLOTS];
+
+    private static class Slot {
+        // the period of the slot, as time / slot length
+        volatile long period = -1;
+        final ConcurrentHashMap<PageId, AtomicLong[]> pages = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * A page waited for, with the waits and the time they took in the window.
+     */
+    public static class HotPage {
+        public final PageId pid;
+        public final long waits;
+        public final long waitMicros;
+
+        HotPage(PageId pid, long waits, long waitMicros) {
+            this.pid = pid;
+            this.waits = waits;
+            this.waitMicros = waitMicros;
+        }
+
+        @Override
+        public String toString() {
+            return pid + ": " + waits + " waits, " + waitMicros + " us";
+        }
+    }
+
+    LockMonitor() {
+        for (int i = 0; i < acquired.length; i++) {
+            acquired[i] = new AtomicLong();
+        }
+        for (AbortReason reason : AbortReason.values()) {
+            aborts.put(reason, new AtomicLong());
+        }
+        for (int i = 0; i < WINDOW_SLOTS; i++) {
+            window[i] = new Slot();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Zero every counter and forget the hot pages.
+     */
+    public synchronized void reset() {
+        for (AtomicLong counter : acquired) {
+            counter.set(0);
+        }
+        upgrades.set(0);
+        waits.set(0);
+        waitNanos.set(0);
+        maxWaitNanos.set(0);
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+        for (AtomicLong counter : aborts.values()) {
+            counter.set(0);
+        }
+        for (Slot slot : window) {
+            slot.period = -1;
+            slot.pages.clear();
+        }
+    }
+
+    void acquired(BufferPool.LockMode mode, boolean upgrade) {
+        if (!enabled) {
+            return;
+        }
+        acquired[mode.ordinal()].incrementAndGet();
+        if (upgrade) {
+            upgrades.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record a wait of nanos for the lock of key, a PageId, RecordId or table id.
+     */
+    void waited(Object key, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        waits.incrementAndGet();
+        waitNanos.addAndGet(nanos);
+        maxWaitNanos.accumulateAndGet(nanos, Math::max);
+        histogram.incrementAndGet(bucketOf(nanos / 1000));
+
+        PageId pid = key instanceof RecordId ? ((RecordId) key).getPageId()
+                : key instanceof PageId ? (PageId) key : null;
+        if (pid != null) {
+            AtomicLong[] counters = slotOf(System.currentTimeMillis()).pages
+                    .computeIfAbsent(pid, k -> new AtomicLong[]{new AtomicLong(), new AtomicLong()});
+            counters[0].incrementAndGet();
+            counters[1].addAndGet(nanos);
+        }
+    }
+
+    void aborted(AbortReason reason) {
+        if (enabled) {
+            aborts.get(reason).incrementAndGet();
+        }
+    }
+
+    static int bucketOf(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    // the slot of the period now falls in, emptied if it held an older period
+    private Slot slotOf(long now) {
+        long period = now / (WINDOW_MILLIS / WINDOW_SLOTS);
+        Slot slot = window[(int) (period % WINDOW_SLOTS)];
+        if (slot.period != period) {
+            synchronized (this) {
+                if (slot.period != period) {
+                    slot.pages.clear();
+                    slot.period = period;
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * @return lock acquisitions per mode (e.g. "acquired.X"), upgrades, waits,
+     * the total and longest wait in microseconds and aborts per reason (e.g.
+     * "aborts.DEADLOCK")
+     */
+    public Map<String, Long> getStats() {
+        HashMap<String, Long> stats = new HashMap<>();
+        for (BufferPool.LockMode mode : BufferPool.LockMode.values()) {
+            stats.put("acquired." + mode, acquired[mode.ordinal()].get());
+        }
+        stats.put("upgrades", upgrades.get());
+        stats.put("waits", waits.get());
+        stats.put("waitMicros", waitNanos.get() / 1000);
+        stats.put("maxWaitMicros", maxWaitNanos.get() / 1000);
+        for (Map.Entry<AbortReason, AtomicLong> e : aborts.entrySet()) {
+            stats.put("aborts." + e.getKey(), e.getValue().get());
+        }
+        return stats;
+    }
+
+    /**
+     * @return the number of waits in each bucket, see {@link #HISTOGRAM_BUCKETS}
+     */
+    public long[] getWaitHistogram() {
+        long[] counts = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            counts[i] = histogram.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * @return the n pages waited for most often over the last WINDOW_MILLIS,
+     * most waited for first
+     */
+    public List<HotPage> getHotPages(int n) {
+        long period = System.currentTimeMillis() / (WINDOW_MILLIS / WINDOW_SLOTS);
+        HashMap<PageId, long[]> totals = new HashMap<>();
+        for (Slot slot : window) {
+            if (slot.period <= period - WINDOW_SLOTS) {
+                continue;
+            }
+            for (Map.Entry<PageId, AtomicLong[]> e : slot.pages.entrySet()) {
+                long[] total = totals.computeIfAbsent(e.getKey(), k -> new long[2]);
+                total[0] += e.getValue()[0].get();
+                total[1] += e.getValue()[1].get();
+            }
+        }
+        List<HotPage> pages = new ArrayList<>(totals.size());
+        for (Map.Entry<PageId, long[]> e : totals.entrySet()) {
+            pages.add(new HotPage(e.getKey(), e.getValue()[0], e.getValue()[1] / 1000));
+        }
+        pages.sort((a, b) -> a.waits != b.waits ? Long.compare(b.waits, a.waits)
+                : Long.compare(b.waitMicros, a.waitMicros));
+        return pages.size() > n ? new ArrayList<>(pages.subList(0, n)) : pages;
+    }
+
+    /**
+     * @return the counters, the non-empty buckets of the wait histogram and
+     * the n hottest pages, as lines of text
+     */
+    public String report(int n) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("lock monitor ").append(enabled ? "on" : "off").append('\n');
+        Map<String, Long> stats = getStats();
+        for (String key : new TreeSet<>(stats.keySet())) {
+            sb.append("  ").append(key).append(": ").append(stats.get(key)).append('\n');
+        }
+        long[] counts = getWaitHistogram();
+        sb.append("waits by duration\n");
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            String bound = i == counts.length - 1 ? ">= " + (1L << (i - 1)) : "< " + (1L << i);
+            sb.append("  ").append(bound).append(" us: ").append(counts[i]).append('\n');
+        }
+        sb.append("pages waited for most in the last ").append(WINDOW_MILLIS / 1000).append(" s\n");
+        for (HotPage page : getHotPages(n)) {
+            sb.append("  ").append(page).append('\n');
+        }
+        return sb.toString();
+    }
+}
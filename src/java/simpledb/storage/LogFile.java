@@ -6,6 +6,7 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -242,9 +243,10 @@ public class LogFile {
         for (int j : pageInfo) {
             raf.writeInt(j);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        ByteBuffer pageData = ScratchBuffers.get(BufferPool.getPageSize());
+        p.writePageData(pageData);
+        raf.writeInt(pageData.position());
+        raf.write(pageData.array(), pageData.arrayOffset(), pageData.position());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -464,12 +466,21 @@ public class LogFile {
         }
     }
 
+    /** The file listing the pages cached at shutdown, next to the log file.
+        @see BufferPool#warmUp
+    */
+    public File getWarmRestartFile() {
+        return new File(logFile.getPath() + WarmRestart.SUFFIX);
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
     public synchronized void shutdown() {
         try {
+            // remember the cached pages, they are loaded again on startup
+            Database.getBufferPool().saveResidentPages(getWarmRestartFile());
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
             raf.close();
         } catch (IOException e) {
@@ -2,6 +2,8 @@ package simpledb.storage;
 
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -48,6 +50,15 @@ public interface Page {
 
   byte[] getPageData();
 
+  /**
+   * Write the bytes {@link #getPageData} returns into dst, from its position
+   * on, and advance the position past them. Lets the page be written out
+   * without allocating its bytes, dst must have room for them.
+   */
+  default void writePageData(ByteBuffer dst) {
+      dst.put(getPageData());
+  }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
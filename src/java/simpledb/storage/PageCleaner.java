@@ -0,0 +1,164 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background thread writing the pages of committing transactions for a
+ * BufferPool.
+ * <p>
+ * The pool is NO STEAL / FORCE: pages of a running transaction never reach the
+ * disk and a commit returns only once its pages are written. Committing
+ * transactions hand their dirty pages to {@link #flush(List)} and wait. All
+ * requests pending when the cleaner wakes up are merged, sorted by
+ * (tableId, pageNo) and written with one gathered write per run of adjacent
+ * pages, so concurrent commits share their I/O. Commits still wait for their
+ * writes: deferring them past the commit would need a redo log.
+ */
+public class PageCleaner extends Thread {
+    private final BufferPool bufferPool;
+
+    // guards requests and running
+    private final Object lock = new Object();
+    private final ArrayDeque<FlushRequest> requests = new ArrayDeque<>();
+    private boolean running = true;
+
+    private final AtomicLong flushRequests = new AtomicLong();
+    private final AtomicLong pagesFlushed = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    // pages written during the last full second
+    private volatile long pagesPerSecond;
+    private long windowStart = System.currentTimeMillis();
+    private long windowPages;
+
+    private static class FlushRequest {
+        final List<Page> pages;
+        boolean done;
+        IOException error;
+
+        FlushRequest(List<Page> pages) {
+            this.pages = pages;
+        }
+    }
+
+    PageCleaner(BufferPool bufferPool) {
+        super("PageCleaner");
+        this.bufferPool = bufferPool;
+        setDaemon(true);
+    }
+    /**
+     * Write pages and wait until they are on disk.
+     */
+    void flush(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        FlushRequest request = new FlushRequest(pages);
+        synchronized (lock) {
+            if (!running) {
+                throw new IOException("page cleaner is shut down");
+            }
+            requests.add(request);
+            lock.notifyAll();
+            try {
+                while (!request.done) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for the page cleaner");
+            }
+        }
+        if (request.error != null) {
+            throw request.error;
+        }
+    }
+
+    /**
+     * Stop the thread once the pending flush requests are written.
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            List<FlushRequest> batch;
+            synchronized (lock) {
+                while (requests.isEmpty() && running) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (requests.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(requests);
+                requests.clear();
+            }
+            flushBatch(batch);
+        }
+    }
+
+    private void flushBatch(List<FlushRequest> batch) {
+        List<Page> pages = new ArrayList<>();
+        for (FlushRequest request : batch) {
+            pages.addAll(request.pages);
+        }
+        IOException error = null;
+        try {
+            writes.addAndGet(bufferPool.writePages(pages));
+            pagesFlushed.addAndGet(pages.size());
+            flushRequests.addAndGet(batch.size());
+            count(pages.size());
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (lock) {
+            for (FlushRequest request : batch) {
+                request.error = error;
+                request.done = true;
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void count(long pages) {
+        long now = System.currentTimeMillis();
+        windowPages += pages;
+        if (now - windowStart >= 1000) {
+            pagesPerSecond = windowPages * 1000 / (now - windowStart);
+            windowStart = now;
+            windowPages = 0;
+        }
+    }
+
+    /**
+     * @return pages written for commits, gathered writes issued, commit
+     * requests served and the recent pages per second
+     */
+    public Map<String, Long> getStats() {
+        LinkedHashMap<String, Long> stats = new LinkedHashMap<>();
+        stats.put("flushRequests", flushRequests.get());
+        stats.put("pagesFlushed", pagesFlushed.get());
+        stats.put("writes", writes.get());
+        stats.put("pagesPerSecond", pagesPerSecond);
+        return stats;
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed number of page sized frames carved out of one direct (off-heap)
+ * ByteBuffer. BufferPool hands frames to the pages it caches, so the cached
+ * bytes live outside of the Java heap and the garbage collector never has to
+ * trace or copy them.
+ * <p>
+ * Frames are identified by their index. Callers must only use absolute
+ * get/put methods on a frame, the buffers are shared between threads.
+ */
+public class PageFrameArena {
+    private final int frameSize;
+    private final ByteBuffer[] frames;
+    // stack of unused frame indexes
+    private final int[] free;
+    private int freeTop;
+
+    public PageFrameArena(int numFrames, int frameSize) {
+        if (numFrames <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException("invalid arena size");
+        }
+        this.frameSize = frameSize;
+        ByteBuffer arena = ByteBuffer.allocateDirect(Math.multiplyExact(numFrames, frameSize));
+        frames = new ByteBuffer[numFrames];
+        free = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            arena.limit((i + 1) * frameSize);
+            arena.position(i * frameSize);
+            frames[i] = arena.slice();
+            free[i] = numFrames - 1 - i;
+        }
+        freeTop = numFrames;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getNumFrames() {
+        return frames.length;
+    }
+
+    public synchronized int getNumFreeFrames() {
+        return freeTop;
+    }
+
+    /**
+     * @return the index of an unused frame, or -1 if every frame is in use
+     */
+    public synchronized int allocate() {
+        if (freeTop == 0) {
+            return -1;
+        }
+        return free[--freeTop];
+    }
+
+    /**
+     * Give a frame returned by {@link #allocate()} back to the arena. The
+     * caller must not touch the frame afterwards.
+     */
+    public synchronized void release(int frame) {
+        if (frame < 0 || frame >= frames.length || freeTop == frames.length) {
+            throw new IllegalArgumentException("invalid frame " + frame);
+        }
+        free[freeTop++] = frame;
+    }
+
+    public ByteBuffer frame(int frame) {
+        return frames[frame];
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * Sequential access detector of one scan. The scan reports every page it moves
+ * to, once it has moved forward SEQUENTIAL_RUN times in a row the BufferPool is
+ * asked to load the next {@link BufferPool#getReadAheadDepth()} pages in the
+ * background, so the scan finds them resident.
+ * <p>
+ * Not thread safe, each iterator has its own.
+ */
+public class ReadAhead {
+    /**
+     * Number of consecutive forward moves after which a scan counts as sequential.
+     */
+    public static final int SEQUENTIAL_RUN = 2;
+
+    private final BufferPool bufferPool;
+    private int lastPageNumber = -1;
+    private int run = 0;
+    // highest page number requested so far
+    private int requested = -1;
+    // leaves read since the last chain was requested
+    private int sinceRequest = 0;
+
+    public ReadAhead(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Report a move to pid of a file whose pages are numbered 0..numPages-1 in
+     * scan order, like a HeapFile.
+     *
+     * @param pageIdOf creates the id of the page with the given number
+     */
+    public void onPage(PageId pid, int numPages, IntFunction<PageId> pageIdOf) {
+        int pageNumber = pid.getPageNumber();
+        run = pageNumber == lastPageNumber + 1 ? run + 1 : 1;
+        lastPageNumber = pageNumber;
+        int depth = bufferPool.getReadAheadDepth();
+        if (run < SEQUENTIAL_RUN || depth <= 0) {
+            return;
+        }
+        // top up the window once half of it has been consumed
+        if (requested - pageNumber > depth / 2) {
+            return;
+        }
+        int from = Math.max(pageNumber, requested) + 1;
+        int to = Math.min(numPages - 1, pageNumber + depth);
+        if (from > to) {
+            return;
+        }
+        List<PageId> pids = new ArrayList<>(to - from + 1);
+        for (int i = from; i <= to; i++) {
+            pids.add(pageIdOf.apply(i));
+        }
+        requested = to;
+        bufferPool.prefetch(pids);
+    }
+
+    /**
+     * Report a move to page of a file whose pages are chained, like the leaves
+     * of a B+ tree.
+     *
+     * @param next returns the id of the page after a page, or null at the end
+     */
+    public void onChainedPage(Page page, Function<Page, PageId> next) {
+        run++;
+        int depth = bufferPool.getReadAheadDepth();
+        if (run < SEQUENTIAL_RUN || depth <= 0) {
+            return;
+        }
+        if (run > SEQUENTIAL_RUN && ++sinceRequest < Math.max(1, depth / 2)) {
+            return;
+        }
+        sinceRequest = 0;
+        PageId first = next.apply(page);
+        if (first != null) {
+            bufferPool.prefetchChain(first, depth, next);
+        }
+    }
+}
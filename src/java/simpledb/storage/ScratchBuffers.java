@@ -0,0 +1,40 @@
+package simpledb.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Buffers pages are serialized into on their way to a file or the log, see
+ * {@link Page#writePageData}. Each thread reuses its own buffer, so writing a
+ * page does not allocate its bytes. A buffer is only valid until the thread
+ * asks for the next one.
+ */
+public class ScratchBuffers {
+    /**
+     * Buffers larger than this are allocated for one use only, to not keep
+     * them around for every thread which once wrote many pages at once.
+     */
+    public static final int MAX_BYTES = 1 << 18;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = new ThreadLocal<>();
+
+    private ScratchBuffers() {
+    }
+
+    /**
+     * @return a heap buffer with position 0 and limit size, its contents are
+     * undefined
+     */
+    public static ByteBuffer get(int size) {
+        if (size > MAX_BYTES) {
+            return ByteBuffer.allocate(size);
+        }
+        ByteBuffer buf = BUFFERS.get();
+        if (buf == null || buf.capacity() < size) {
+            buf = ByteBuffer.allocate(Math.max(size, BufferPool.getPageSize()));
+            BUFFERS.set(buf);
+        }
+        buf.clear();
+        buf.limit(size);
+        return buf;
+    }
+}
@@ -0,0 +1,213 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static simpledb.common.Permissions.READ_WRITE;
+
+/**
+ * SlottedHeapFile is a DbFile storing a collection of tuples in no particular
+ * order, like HeapFile, on SlottedHeapPages. Their variable-length records
+ * only take the bytes strings use, where a HeapFile pads every string to
+ * STRING_LEN, so tables of short strings fit several times as many tuples on
+ * a page and scans read that many fewer pages. The format of the pages is
+ * described in SlottedHeapPage.
+ * <p>
+ * Tuples are inserted and deleted under page locks. Inserts go to the first
+ * page with room for the tuple, looking from the first page no insert has
+ * found full since a tuple was last deleted before it, or to a page appended
+ * to the file.
+ *
+ * @see SlottedHeapPage
+ * @see HeapFileEncoder#convertSlotted
+ */
+public class SlottedHeapFile implements DbFile {
+    private final File file;
+    private final TupleDesc td;
+    private final int tableId;
+    // serializes writes, reads go through the channel without it
+    private final ReentrantLock lock = new ReentrantLock();
+    private final DbFileChannel channel;
+    private final BufferPool bufferPool;
+    // the length of the file in bytes, it only grows through writePage(s)
+    // unless the file is appended to behind our back, see readPage
+    private volatile long length;
+    // pages before it had no room for the tuple last tried on them
+    private final AtomicInteger firstWithRoom = new AtomicInteger();
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.tableId = f.getAbsolutePath().hashCode();
+        this.channel = new DbFileChannel(f);
+        this.bufferPool = Database.getBufferPool();
+        this.length = f.length();
+    }
+
+    /**
+     * Returns the File backing this SlottedHeapFile on disk.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableId;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getClass() != HeapPageId.class) {
+            throw new IllegalArgumentException("not a page id of a slotted heap file: " + pid);
+        }
+        long offset = (long) pid.getPageNumber() * BufferPool.getPageSize();
+        if (offset >= this.length) {
+            // the file may have been appended to by someone else
+            this.length = Math.max(this.length, this.file.length());
+            if (offset >= this.length) {
+                throw new IllegalArgumentException();
+            }
+        }
+        try {
+            byte[] bytes = new byte[BufferPool.getPageSize()];
+            if (channel.read(ByteBuffer.wrap(bytes), offset) == -1) {
+                throw new IllegalArgumentException("no page " + pid.getPageNumber() + " in " + file);
+            }
+            return new SlottedHeapPage((HeapPageId) pid, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("unable to read page " + pid.getPageNumber() + " of " + file, e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        lock.lock();
+        try {
+            long offset = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+            ByteBuffer data = ScratchBuffers.get(BufferPool.getPageSize());
+            page.writePageData(data);
+            data.flip();
+            channel.write(data, offset);
+            this.length = Math.max(this.length, offset + data.limit());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public int writePages(List<Page> pages) throws IOException {
+        lock.lock();
+        try {
+            int writes = CoalescedWriter.write(this.channel, pages,
+                    page -> (long) page.getId().getPageNumber() * BufferPool.getPageSize());
+            for (Page page : pages) {
+                this.length = Math.max(this.length, (page.getId().getPageNumber() + 1L) * BufferPool.getPageSize());
+            }
+            return writes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this file, from the length it had when
+     * it was last read or written here.
+     */
+    public int numPages() {
+        return (int) ((this.length + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td)) {
+            throw new DbException("tuple desc not equal");
+        }
+        if (SlottedHeapPage.HEADER_SIZE + SlottedHeapPage.spaceFor(SlottedHeapPage.recordLength(t))
+                > BufferPool.getPageSize()) {
+            throw new DbException("tuple too large for a page");
+        }
+        while (true) {
+            int numPages = numPages();
+            for (int i = firstWithRoom.get(); i < numPages; i++) {
+                HeapPageId pid = new HeapPageId(tableId, i);
+                SlottedHeapPage page = (SlottedHeapPage) bufferPool.getPage(tid, pid, READ_WRITE);
+                if (page.hasRoomFor(t)) {
+                    page.insertTuple(t);
+                    page.markDirty(true, tid);
+                    return List.of(page);
+                }
+                bufferPool.unpinPage(tid, pid);
+                bufferPool.releasePage(tid, pid, READ_WRITE);
+                firstWithRoom.compareAndSet(i, i + 1);
+            }
+            // append an empty page, unless another transaction has appended
+            // one meanwhile
+            lock.lock();
+            try {
+                if (numPages == numPages()) {
+                    writePage(new SlottedHeapPage(new HeapPageId(tableId, numPages),
+                            SlottedHeapPage.createEmptyPageData()));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null) {
+            throw new DbException("tuple is not stored in a file");
+        }
+        SlottedHeapPage page = (SlottedHeapPage) bufferPool.getPage(tid, rid.getPageId(), READ_WRITE);
+        page.deleteTuple(t);
+        page.markDirty(true, tid);
+        firstWithRoom.accumulateAndGet(rid.getPageId().getPageNumber(), Math::min);
+        ArrayList<Page> pages = new ArrayList<>();
+        pages.add(page);
+        return pages;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HeapFileIterator(tid, tableId, this::numPages);
+    }
+
+    public DbFileIterator iterator(TransactionId tid, BufferRing ring) {
+        return new HeapFileIterator(tid, tableId, this::numPages, ring);
+    }
+
+    public String toString() {
+        return "tableId: " + tableId + " file: " + file;
+    }
+}
@@ -0,0 +1,401 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Each instance of SlottedHeapPage stores data for one page of a
+ * SlottedHeapFile. Unlike a HeapPage, which gives every tuple a slot of
+ * {@link TupleDesc#getSize} bytes, it stores tuples as variable-length records
+ * in which a string only takes the bytes it uses.
+ * <p>
+ * The page starts with a header of two ints: the number of entries of the
+ * slot directory, and the offset of the first byte of record data, 0 meaning
+ * the end of the page, so that a page of zeroes is empty. The slot directory
+ * follows, entry i holding the offset and the length of the record in slot i
+ * as two unsigned shorts, an offset of 0 marking an empty slot. Records fill
+ * the page from its end towards the directory, the fields of a record one
+ * after the other in the on-disk format, except that a string is only its
+ * length and its bytes.
+ * <p>
+ * Records are kept packed against the end of the page: deleting one moves the
+ * records in front of it over the gap, so the free space is always the room
+ * between the directory and the records. Slots keep their number, which
+ * RecordIds refer to; an empty slot is reused by the next insert, and empty
+ * slots at the end of the directory are dropped.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage implements TuplePage {
+
+    /**
+     * Bytes of the header at the start of the page.
+     */
+    public static final int HEADER_SIZE = 8;
+
+    /**
+     * Bytes of an entry of the slot directory.
+     */
+    public static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    private final int pageSize;
+
+    // the bytes of the page, guarded by lock
+    private final byte[] data;
+    private final ByteBuffer buf;
+    private final Object lock = new Object();
+    private byte[] oldData;
+
+    private volatile TransactionId dirtier = null;
+
+    /**
+     * Create a SlottedHeapPage from the bytes of a page read from disk.
+     *
+     * @throws IOException if the bytes are not a slotted page
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = BufferPool.getPageSize();
+        if (pageSize > 1 << 16) {
+            throw new IOException("pages of " + pageSize + " bytes are too large for slot offsets");
+        }
+        if (data.length < pageSize) {
+            throw new IOException("page data too short");
+        }
+        this.data = Arrays.copyOf(data, pageSize);
+        this.buf = ByteBuffer.wrap(this.data);
+        int slots = numSlots();
+        if (slots < 0 || HEADER_SIZE + slots * SLOT_SIZE > dataStart() || dataStart() > pageSize) {
+            throw new IOException("corrupt slotted page " + id);
+        }
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the bytes of an empty page
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    /**
+     * Lay out records, encoded as {@link #insertTuple} does, on a page of
+     * pageSize bytes, in slots 0, 1, ...
+     *
+     * @throws IllegalArgumentException if they don't fit, see {@link #spaceFor}
+     */
+    static byte[] createPageData(List<byte[]> records, int pageSize) {
+        byte[] page = new byte[pageSize];
+        ByteBuffer b = ByteBuffer.wrap(page);
+        int start = pageSize;
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            start -= record.length;
+            if (start < HEADER_SIZE + (i + 1) * SLOT_SIZE) {
+                throw new IllegalArgumentException("records don't fit on a page");
+            }
+            System.arraycopy(record, 0, page, start, record.length);
+            b.putChar(HEADER_SIZE + i * SLOT_SIZE, (char) start);
+            b.putChar(HEADER_SIZE + i * SLOT_SIZE + 2, (char) record.length);
+        }
+        b.putInt(0, records.size());
+        b.putInt(4, start == pageSize ? 0 : start);
+        return page;
+    }
+
+    /**
+     * @return the bytes of a page a record of recordLength bytes takes,
+     * with its entry of the slot directory
+     */
+    public static int spaceFor(int recordLength) {
+        return recordLength + SLOT_SIZE;
+    }
+
+    /**
+     * @return the length of the record t is stored as
+     */
+    public static int recordLength(Tuple t) {
+        int length = 0;
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            if (t.getTupleDesc().getFieldType(i) == Type.STRING_TYPE) {
+                length += 4 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN);
+            } else {
+                length += t.getTupleDesc().getFieldType(i).getLen();
+            }
+        }
+        return length;
+    }
+
+    // the caller holds lock
+    private int numSlots() {
+        return buf.getInt(0);
+    }
+
+    // the caller holds lock
+    private int dataStart() {
+        int start = buf.getInt(4);
+        return start == 0 ? pageSize : start;
+    }
+
+    // the caller holds lock
+    private int slotOffset(int slot) {
+        return buf.getChar(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    // the caller holds lock
+    private int slotLength(int slot) {
+        return buf.getChar(HEADER_SIZE + slot * SLOT_SIZE + 2);
+    }
+
+    // the caller holds lock
+    private void setSlot(int slot, int offset, int length) {
+        buf.putChar(HEADER_SIZE + slot * SLOT_SIZE, (char) offset);
+        buf.putChar(HEADER_SIZE + slot * SLOT_SIZE + 2, (char) length);
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of entries of the slot directory, used or not
+     */
+    public int getNumSlots() {
+        synchronized (lock) {
+            return numSlots();
+        }
+    }
+
+    /**
+     * @return true if slot i holds a tuple
+     */
+    public boolean isSlotUsed(int i) {
+        synchronized (lock) {
+            return i >= 0 && i < numSlots() && slotOffset(i) != 0;
+        }
+    }
+
+    /**
+     * @return the number of bytes between the slot directory and the records
+     */
+    public int getFreeSpace() {
+        synchronized (lock) {
+            return dataStart() - HEADER_SIZE - numSlots() * SLOT_SIZE;
+        }
+    }
+
+    /**
+     * @return true if t can be inserted into this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        synchronized (lock) {
+            return needed(t) <= dataStart() - HEADER_SIZE - numSlots() * SLOT_SIZE;
+        }
+    }
+
+    // the bytes inserting t takes, the caller holds lock
+    private int needed(Tuple t) {
+        return emptySlot() < numSlots() ? recordLength(t) : spaceFor(recordLength(t));
+    }
+
+    // the first empty slot, numSlots if there is none, the caller holds lock
+    private int emptySlot() {
+        int slots = numSlots();
+        for (int i = 0; i < slots; i++) {
+            if (slotOffset(i) == 0) {
+                return i;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the page has no room for it or tupledesc is
+     *                     mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("tuple desc not equal");
+        }
+        synchronized (lock) {
+            if (needed(t) > dataStart() - HEADER_SIZE - numSlots() * SLOT_SIZE) {
+                throw new DbException("no room for the tuple on page " + pid);
+            }
+            int slot = emptySlot();
+            int length = recordLength(t);
+            int start = dataStart() - length;
+            int offset = start;
+            for (int j = 0; j < td.numFields(); j++) {
+                Field f = t.getField(j);
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    String s = ((StringField) f).getValue();
+                    int len = Math.min(s.length(), Type.STRING_LEN);
+                    buf.putInt(offset, len);
+                    offset += 4;
+                    for (int k = 0; k < len; k++) {
+                        data[offset++] = (byte) s.charAt(k);
+                    }
+                } else {
+                    f.serialize(buf, offset);
+                    offset += td.getFieldType(j).getLen();
+                }
+            }
+            if (slot == numSlots()) {
+                buf.putInt(0, slot + 1);
+            }
+            setSlot(slot, start, length);
+            buf.putInt(4, start);
+            t.setRecordId(new RecordId(pid, slot));
+        }
+    }
+
+    /**
+     * Delete the specified tuple from the page, and move the records in front
+     * of it over the bytes it took.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *                     already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("not found tuple");
+        }
+        int slot = rid.getTupleNumber();
+        synchronized (lock) {
+            if (slot < 0 || slot >= numSlots() || slotOffset(slot) == 0) {
+                throw new DbException("already deleted");
+            }
+            int offset = slotOffset(slot);
+            int length = slotLength(slot);
+            int start = dataStart();
+            System.arraycopy(data, start, data, start + length, offset - start);
+            Arrays.fill(data, start, start + length, (byte) 0);
+            int slots = numSlots();
+            for (int i = 0; i < slots; i++) {
+                int o = slotOffset(i);
+                if (o != 0 && o < offset) {
+                    setSlot(i, o + length, slotLength(i));
+                }
+            }
+            setSlot(slot, 0, 0);
+            while (slots > 0 && slotOffset(slots - 1) == 0) {
+                slots--;
+            }
+            buf.putInt(0, slots);
+            buf.putInt(4, start + length == pageSize ? 0 : start + length);
+        }
+    }
+
+    /**
+     * Read the tuple in slot, its fields are decoded from a copy of the record
+     * when the tuple is asked for them.
+     *
+     * @return the tuple, or null if the slot is empty
+     */
+    private Tuple readTuple(int slot) {
+        byte[] record;
+        synchronized (lock) {
+            if (slot >= numSlots() || slotOffset(slot) == 0) {
+                return null;
+            }
+            int offset = slotOffset(slot);
+            record = Arrays.copyOfRange(data, offset, offset + slotLength(slot));
+        }
+        Tuple t = new Tuple(td, record);
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * @return an iterator over the tuples of this page, in slot order. Tuples
+     * are read as the iterator reaches them, tuples deleted in the meantime
+     * are skipped.
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = -1;
+            private Tuple next = null;
+
+            public boolean hasNext() {
+                while (next == null && ++slot < getNumSlots()) {
+                    next = readTuple(slot);
+                }
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = next;
+                next = null;
+                return t;
+            }
+        };
+    }
+
+    public byte[] getPageData() {
+        synchronized (lock) {
+            return data.clone();
+        }
+    }
+
+    public void writePageData(ByteBuffer dst) {
+        synchronized (lock) {
+            dst.put(data);
+        }
+    }
+
+    public SlottedHeapPage getBeforeImage() {
+        byte[] before;
+        synchronized (lock) {
+            before = oldData;
+        }
+        try {
+            return new SlottedHeapPage(pid, before);
+        } catch (IOException e) {
+            e.printStackTrace();
+            // should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized (lock) {
+            oldData = data.clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public String toString() {
+        return "PageId: " + pid + " slots: " + getNumSlots() + " free: " + getFreeSpace();
+    }
+}
@@ -1,25 +1,31 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Iterator;
 
 import simpledb.common.Type;
-import simpledb.storage.TupleDesc.TDItem;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * A tuple read from a page keeps a copy of its bytes, and only decodes a
+ * field into a Field object the first time it is asked for.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
     private RecordId rid;
-    private ArrayList<Field> fields;
+    // null where a field is not decoded yet, or not set
+    private Field[] fields;
+    // the fields one after the other in the on-disk format, with strings only
+    // taking the bytes they use, if read from a page
+    private transient byte[] encoded;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -31,14 +37,20 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         this.td = td;
-        this.fields = new ArrayList<>();
-        for (TDItem t : td.getTupleItems()) {
-            if (t.fieldType == Type.INT_TYPE) {
-                this.fields.add(new IntField(0));
-            } else if (t.fieldType == Type.STRING_TYPE) {
-                this.fields.add(new StringField("", 0));
-            }
-        }
+        this.fields = new Field[td.numFields()];
+    }
+
+    /**
+     * Create a tuple whose fields are decoded from encoded when read.
+     *
+     * @param encoded
+     *           the fields one after the other in the on-disk format, except
+     *           that strings are not padded to STRING_LEN. It must not change
+     *           while the tuple is in use.
+     */
+    Tuple(TupleDesc td, byte[] encoded) {
+        this(td);
+        this.encoded = encoded;
     }
 
     /**
@@ -47,12 +59,19 @@ public class Tuple implements Serializable {
      */
     public Tuple(Tuple... tps) {
         TupleDesc[] descs = new TupleDesc[tps.length];
-        fields = new ArrayList<>();
-        for(int i = 0; i < tps.length; i++) {
-            fields.addAll(tps[i].fields);
+        int n = 0;
+        for (int i = 0; i < tps.length; i++) {
             descs[i] = tps[i].getTupleDesc();
+            n += tps[i].fields.length;
         }
         td = new TupleDesc(descs);
+        fields = new Field[n];
+        n = 0;
+        for (Tuple tp : tps) {
+            for (int j = 0; j < tp.fields.length; j++) {
+                fields[n++] = tp.getField(j);
+            }
+        }
     }
 
     /**
@@ -93,7 +112,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        this.fields.set(i, f);
+        this.fields[i] = f;
     }
 
     /**
@@ -104,7 +123,41 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return this.fields.get(i);
+        Field f = this.fields[i];
+        if (f == null) {
+            f = decode(i);
+            this.fields[i] = f;
+        }
+        return f;
+    }
+
+    // the ith field from encoded, or the default value of its type if unset
+    private Field decode(int i) {
+        Type type = td.getFieldType(i);
+        if (encoded != null) {
+            int offset = 0;
+            for (int j = 0; j < i; j++) {
+                offset += td.getFieldType(j) == Type.STRING_TYPE ? 4 + readInt(offset) : td.getFieldType(j).getLen();
+            }
+            if (type == Type.INT_TYPE) {
+                return new IntField(readInt(offset));
+            }
+            return new StringField(new String(encoded, offset + 4, readInt(offset)), Type.STRING_LEN);
+        }
+        return type == Type.INT_TYPE ? new IntField(0) : new StringField("", 0);
+    }
+
+    private int readInt(int offset) {
+        return (encoded[offset] & 0xff) << 24 | (encoded[offset + 1] & 0xff) << 16
+                | (encoded[offset + 2] & 0xff) << 8 | (encoded[offset + 3] & 0xff);
+    }
+
+    // decode all fields, after which encoded is no longer needed
+    private void decodeAll() {
+        for (int i = 0; i < fields.length; i++) {
+            getField(i);
+        }
+        encoded = null;
     }
 
     /**
@@ -119,8 +172,8 @@ public class Tuple implements Serializable {
         // some code goes here
         StringBuilder sb = new StringBuilder();
         sb.append("recordId: ").append(this.getRecordId().toString()).append("\t");
-        for (Field f : this.fields) {
-            sb.append(f.toString()).append("\t");
+        for (int i = 0; i < this.fields.length; i++) {
+            sb.append(getField(i).toString()).append("\t");
         }
         return sb.substring(0, sb.length() - 1);
         // throw new UnsupportedOperationException("Implement this");
@@ -132,7 +185,8 @@ public class Tuple implements Serializable {
      */
     public Iterator<Field> fields() {
         // some code goes here
-        return this.fields.iterator();
+        decodeAll();
+        return Arrays.asList(this.fields).iterator();
     }
 
     /**
@@ -140,14 +194,14 @@ public class Tuple implements Serializable {
      */
     public void resetTupleDesc(TupleDesc td) {
         // some code goes here
+        decodeAll();
         this.td = td;
-        for (TDItem t : td.getTupleItems()) {
-            if (t.fieldType == Type.INT_TYPE) {
-                this.fields.add(new IntField(0));
-            } else if (t.fieldType == Type.STRING_TYPE) {
-                this.fields.add(new StringField("", 0));
-            }
-        }
+        this.fields = Arrays.copyOf(this.fields, td.numFields());
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        decodeAll();
+        out.defaultWriteObject();
     }
 
     public Boolean equals(Tuple t){
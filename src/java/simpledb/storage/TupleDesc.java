@@ -50,6 +50,8 @@ public class TupleDesc implements Serializable {
     private static final long serialVersionUID = 1L;
     private ArrayList<TDItem> tupleDescItems;
     private int tupleDescSize;
+    // byte offset of each field within a tuple in the on-disk format
+    private int[] fieldOffsets;
 
     /**
      * @return
@@ -83,6 +85,7 @@ public class TupleDesc implements Serializable {
             tupleDescItems.add(new TDItem(typeAr[i], fieldAr[i]));
             tupleDescSize += typeAr[i].getLen();
         }
+        computeOffsets();
     }
 
     /**
@@ -100,7 +103,7 @@ public class TupleDesc implements Serializable {
             tupleDescItems.add(new TDItem(typeAr[i], null));
             tupleDescSize += typeAr[i].getLen();
         }
-
+        computeOffsets();
     }
 
     /**
@@ -112,6 +115,16 @@ public class TupleDesc implements Serializable {
             this.tupleDescSize += desc.getSize();
             this.tupleDescItems.addAll(desc.getTupleItems());
         }
+        computeOffsets();
+    }
+
+    private void computeOffsets() {
+        fieldOffsets = new int[tupleDescItems.size()];
+        int offset = 0;
+        for (int i = 0; i < fieldOffsets.length; i++) {
+            fieldOffsets[i] = offset;
+            offset += tupleDescItems.get(i).fieldType.getLen();
+        }
     }
 
 
@@ -187,6 +200,23 @@ public class TupleDesc implements Serializable {
         return tupleDescSize;
     }
 
+    /**
+     * Gets the offset of the ith field from the start of a tuple in the
+     * on-disk format, fields being stored one after the other.
+     *
+     * @param i
+     *          The index of the field. It must be a valid index.
+     * @return the offset in bytes of the ith field
+     * @throws NoSuchElementException
+     *                                if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= fieldOffsets.length) {
+            throw new NoSuchElementException();
+        }
+        return fieldOffsets[i];
+    }
+
     public int getItemSize() {
         return tupleDescItems.size();
     }
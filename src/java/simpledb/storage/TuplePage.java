@@ -0,0 +1,19 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+
+/**
+ * A page of a heap file format, holding tuples in no particular order.
+ * {@link HeapFileIterator} scans files of such pages whatever their format.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return an iterator over the tuples on this page, which doesn't return
+     * empty slots (calling remove on it throws an UnsupportedOperationException)
+     */
+    Iterator<Tuple> iterator();
+}
@@ -0,0 +1,233 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Committed page versions still needed by read-only transactions reading a
+ * snapshot, see {@link BufferPool#beginSnapshot}.
+ * <p>
+ * Every commit writing pages gets the next commit number. A snapshot is the
+ * number of the last commit when it began, it sees the pages as they were
+ * after that commit. Before a commit writes a page while snapshots are
+ * active, the committed image the page had until then (its before image) is
+ * stored here, valid until the commit's number. A snapshot reads the oldest
+ * version of a page valid until after the snapshot, or the page's current
+ * committed image if there is none.
+ * <p>
+ * Versions no active snapshot can read are dropped when snapshots end. At
+ * most a fixed number of versions is kept, once it is reached the oldest are
+ * dropped, and snapshots which would have read one of them are aborted.
+ */
+class VersionStore {
+    private static class Version {
+        final PageId pid;
+        final long validUntil;
+        final Page page;
+
+        Version(PageId pid, long validUntil, Page page) {
+            this.pid = pid;
+            this.validUntil = validUntil;
+            this.page = page;
+        }
+    }
+
+    // the versions of one page, oldest first
+    private static class Chain {
+        final ArrayDeque<Version> versions = new ArrayDeque<>();
+        // the latest validUntil of the versions dropped to stay within the limit
+        long droppedUntil;
+    }
+
+    /*
+     * Commits hold the read lock from deciding whether to keep versions until
+     * their pages are written, a snapshot begins under the write lock. So a
+     * snapshot never begins during a commit which may not have kept versions,
+     * and every commit numbered up to the snapshot has been written.
+     */
+    private final ReentrantReadWriteLock commitLock = new ReentrantReadWriteLock();
+    private final AtomicLong lastCommit = new AtomicLong();
+
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    // number of active snapshots by snapshot, the first is the oldest
+    private final TreeMap<Long, Integer> active = new TreeMap<>();
+
+    private final HashMap<PageId, Chain> chains = new HashMap<>();
+    // all versions in the order they were kept
+    private final ArrayDeque<Version> kept = new ArrayDeque<>();
+    private int limit;
+
+    private final AtomicLong versionsKept = new AtomicLong();
+    private final AtomicLong versionReads = new AtomicLong();
+    private final AtomicLong tooOld = new AtomicLong();
+
+    VersionStore(int limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Begin a snapshot for tid, as of the last commit.
+     */
+    void begin(TransactionId tid) {
+        commitLock.writeLock().lock();
+        try {
+            long snapshot = lastCommit.get();
+            synchronized (this) {
+                if (snapshots.putIfAbsent(tid, snapshot) == null) {
+                    active.merge(snapshot, 1, Integer::sum);
+                }
+            }
+        } finally {
+            commitLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * End the snapshot of tid, if it has one, and drop the versions no other
+     * snapshot needs.
+     *
+     * @return true if tid had a snapshot
+     */
+    synchronized boolean end(TransactionId tid) {
+        Long snapshot = snapshots.remove(tid);
+        if (snapshot == null) {
+            return false;
+        }
+        active.computeIfPresent(snapshot, (k, n) -> n > 1 ? n - 1 : null);
+        collect();
+        return true;
+    }
+
+    /**
+     * @return the snapshot of tid, -1 if it doesn't read a snapshot
+     */
+    long snapshotOf(TransactionId tid) {
+        Long snapshot = snapshots.get(tid);
+        return snapshot == null ? -1 : snapshot;
+    }
+
+    /**
+     * Start committing pages, the returned commit must be passed to
+     * {@link #commitDone} once they are written.
+     *
+     * @param pages the pages the commit writes
+     * @return the number of the commit
+     */
+    long beginCommit(List<Page> pages) {
+        commitLock.readLock().lock();
+        long commit = lastCommit.incrementAndGet();
+        // no snapshot can begin before the commit is done
+        if (!pages.isEmpty() && !snapshots.isEmpty()) {
+            synchronized (this) {
+                for (Page page : pages) {
+                    keep(new Version(page.getId(), commit, page.getBeforeImage()));
+                }
+            }
+        }
+        return commit;
+    }
+
+    /**
+     * The pages of a commit are written, their before images are now what
+     * they contain.
+     */
+    void commitDone(List<Page> pages) {
+        try {
+            for (Page page : pages) {
+                page.setBeforeImage();
+            }
+        } finally {
+            commitLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param current the committed image of pid, read before calling this
+     * @return the image of pid snapshot reads
+     * @throws TransactionAbortedException if the version snapshot reads has
+     *                                     been dropped
+     */
+    synchronized Page read(PageId pid, long snapshot, Page current) throws TransactionAbortedException {
+        Chain chain = chains.get(pid);
+        if (chain == null) {
+            return current;
+        }
+        if (snapshot < chain.droppedUntil) {
+            tooOld.incrementAndGet();
+            throw new TransactionAbortedException();
+        }
+        for (Version v : chain.versions) {
+            if (v.validUntil > snapshot) {
+                versionReads.incrementAndGet();
+                return v.page;
+            }
+        }
+        return current;
+    }
+
+    synchronized void setLimit(int limit) {
+        this.limit = limit;
+        while (kept.size() > limit) {
+            drop();
+        }
+    }
+
+    synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of versions held and of active snapshots, the
+     * versions kept so far, snapshot reads served from them, and snapshots
+     * aborted because their version was dropped
+     */
+    synchronized Map<String, Long> getStats() {
+        HashMap<String, Long> stats = new HashMap<>();
+        stats.put("versions", (long) kept.size());
+        stats.put("snapshots", (long) snapshots.size());
+        stats.put("versionsKept", versionsKept.get());
+        stats.put("versionReads", versionReads.get());
+        stats.put("snapshotTooOld", tooOld.get());
+        return stats;
+    }
+
+    private void keep(Version v) {
+        chains.computeIfAbsent(v.pid, k -> new Chain()).versions.addLast(v);
+        kept.addLast(v);
+        versionsKept.incrementAndGet();
+        while (kept.size() > limit) {
+            drop();
+        }
+    }
+
+    // drop the oldest version to make room
+    private void drop() {
+        Version v = kept.removeFirst();
+        Chain chain = chains.get(v.pid);
+        chain.versions.remove(v);
+        chain.droppedUntil = Math.max(chain.droppedUntil, v.validUntil);
+    }
+
+    private void collect() {
+        if (active.isEmpty()) {
+            chains.clear();
+            kept.clear();
+            return;
+        }
+        // versions valid until the oldest snapshot are read by none
+        long oldest = active.firstKey();
+        while (!kept.isEmpty() && kept.peekFirst().validUntil <= oldest) {
+            Version v = kept.removeFirst();
+            Chain chain = chains.get(v.pid);
+            chain.versions.remove(v);
+            if (chain.versions.isEmpty() && chain.droppedUntil <= oldest) {
+                chains.remove(v.pid);
+            }
+        }
+    }
+}
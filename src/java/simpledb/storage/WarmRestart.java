@@ -0,0 +1,169 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.*;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+
+/**
+ * Background thread reloading the pages a BufferPool had cached before the
+ * database was shut down, so the first queries after a restart don't have to
+ * fetch their working set one miss at a time.
+ * <p>
+ * On shutdown the ids of the resident pages are written to a sidecar file,
+ * hottest first (see {@link BufferPool#saveResidentPages}). On startup the
+ * hottest of them, as many as the pool holds, are read back table by table in
+ * file order, runs of adjacent pages with one read (see {@link DbFile#readPages}).
+ * Pages are only loaded into free frames: queries running meanwhile are never
+ * slowed down by evictions, and a page they already loaded or changed wins.
+ */
+public class WarmRestart extends Thread {
+    /**
+     * Appended to the log file name to get the name of the sidecar file.
+     */
+    public static final String SUFFIX = ".pages";
+
+    /**
+     * Number of page ids handed to {@link DbFile#readPages} at once.
+     */
+    public static final int BATCH_PAGES = 64;
+
+    private final BufferPool bufferPool;
+    private final List<PageId> pids;
+
+    private volatile long startMillis;
+    private volatile long elapsedMillis = -1;
+    private volatile long loaded;
+    private volatile long skipped;
+
+    WarmRestart(BufferPool bufferPool, List<PageId> pids) {
+        super("WarmRestart");
+        this.bufferPool = bufferPool;
+        this.pids = pids;
+        setDaemon(true);
+    }
+
+    /**
+     * Write pids to f, replacing what it contains.
+     */
+    public static void save(List<PageId> pids, File f) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)))) {
+            out.writeInt(pids.size());
+            for (PageId pid : pids) {
+                int[] data = pid.serialize();
+                out.writeUTF(pid.getClass().getName());
+                out.writeInt(data.length);
+                for (int i : data) {
+                    out.writeInt(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the page ids written by {@link #save}, in the same order.
+     */
+    public static List<PageId> read(File f) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            int count = in.readInt();
+            List<PageId> pids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String idClassName = in.readUTF();
+                Object[] idArgs = new Object[in.readInt()];
+                for (int j = 0; j < idArgs.length; j++) {
+                    idArgs[j] = in.readInt();
+                }
+                try {
+                    Constructor<?>[] idConsts = Class.forName(idClassName).getDeclaredConstructors();
+                    pids.add((PageId) idConsts[0].newInstance(idArgs));
+                } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException
+                        | InstantiationException | IllegalArgumentException e) {
+                    throw new IOException("bad page id in " + f + ": " + idClassName, e);
+                }
+            }
+            return pids;
+        }
+    }
+
+    @Override
+    public void run() {
+        startMillis = System.currentTimeMillis();
+        // the hottest pages, as many as fit
+        List<PageId> wanted = pids.subList(0, Math.min(pids.size(), bufferPool.getNumPages()));
+        TreeMap<Integer, List<PageId>> byTable = new TreeMap<>();
+        for (PageId pid : wanted) {
+            byTable.computeIfAbsent(pid.getTableId(), k -> new ArrayList<>()).add(pid);
+        }
+        skipped = pids.size() - wanted.size();
+        for (Map.Entry<Integer, List<PageId>> table : byTable.entrySet()) {
+            DbFile file;
+            try {
+                file = Database.getCatalog().getDatabaseFile(table.getKey());
+            } catch (NoSuchElementException e) {
+                // the table is gone
+                skipped += table.getValue().size();
+                continue;
+            }
+            List<PageId> tablePids = table.getValue();
+            tablePids.sort(Comparator.comparingInt(PageId::getPageNumber));
+            for (int from = 0; from < tablePids.size(); from += BATCH_PAGES) {
+                List<PageId> batch = tablePids.subList(from, Math.min(tablePids.size(), from + BATCH_PAGES));
+                load(file, batch);
+            }
+        }
+        elapsedMillis = System.currentTimeMillis() - startMillis;
+        if (!pids.isEmpty()) {
+            System.out.printf("Warm restart: loaded %d of %d pages in %d ms%n", loaded, pids.size(), elapsedMillis);
+        }
+    }
+
+    private void load(DbFile file, List<PageId> batch) {
+        // epochs before the read, a page written meanwhile must not be loaded
+        HashMap<PageId, Long> epochs = new HashMap<>();
+        for (PageId pid : batch) {
+            epochs.put(pid, bufferPool.epochOf(pid));
+        }
+        List<Page> pages;
+        try {
+            pages = file.readPages(batch);
+        } catch (IOException | RuntimeException e) {
+            // not loaded, the queries read them when they need them
+            skipped += batch.size();
+            return;
+        }
+        long added = 0;
+        for (Page page : pages) {
+            if (bufferPool.preload(page, epochs.get(page.getId()))) {
+                added++;
+            }
+        }
+        loaded += added;
+        skipped += batch.size() - added;
+    }
+
+    /**
+     * @return true once every page has been loaded or skipped
+     */
+    public boolean isDone() {
+        return elapsedMillis >= 0;
+    }
+
+    /**
+     * @return the number of page ids in the sidecar file, the pages loaded and
+     * skipped so far, and the milliseconds spent
+     */
+    public Map<String, Long> getProgress() {
+        LinkedHashMap<String, Long> progress = new LinkedHashMap<>();
+        progress.put("total", (long) pids.size());
+        progress.put("loaded", loaded);
+        progress.put("skipped", skipped);
+        long elapsed = elapsedMillis;
+        if (elapsed < 0) {
+            elapsed = startMillis == 0 ? 0 : System.currentTimeMillis() - startMillis;
+        }
+        progress.put("elapsedMillis", elapsed);
+        return progress;
+    }
+}
@@ -11,15 +11,30 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly true if the transaction only reads, it then reads a
+     *                 snapshot as of its start without locks and writes no
+     *                 log records, see {@link simpledb.storage.BufferPool#beginSnapshot}
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (readOnly) {
+            Database.getBufferPool().beginSnapshot(tid);
+            return;
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -31,6 +46,10 @@ public class Transaction {
         return tid;
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -44,14 +63,24 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && readOnly) {
+            // nothing to log or roll back
+            Database.getBufferPool().transactionComplete(tid, !abort);
+            started = false;
+        } else if (started) {
             //write abort log record and rollback transaction
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } 
 
             // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            try {
+                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+            } catch (UncheckedIOException e) {
+                // the commit has been rolled back
+                started = false;
+                throw e.getCause();
+            }
 
             // write commit log record
             if (!abort) {
@@ -0,0 +1,229 @@
+package simpledb.util;
+
+import simpledb.common.DbException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement.
+ * <p>
+ * Entries live in a fixed array of frames, each frame has a reference bit which is
+ * set on every access. To evict, the hand sweeps the frames: a frame with the bit set
+ * gets its bit cleared and is skipped, the first frame without it is the victim.
+ * Lookups, puts and removes are O(1), unlike LRU which has to reorder a list.
+ * <p>
+ * Sequential accesses don't set the reference bit, so pages read by a scan are the
+ * first ones to go.
+ */
+public class Clock<K, V> implements ReplacementPolicy<K, V> {
+    private K[] keys;
+    private V[] values;
+    private boolean[] referenced;
+    // key to frame index
+    private final HashMap<K, Integer> frames;
+    // stack of unused frame indexes
+    private int[] free;
+    private int freeTop;
+    private int hand;
+    private int capacity;
+
+    @SuppressWarnings("unchecked")
+    public Clock(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity");
+        }
+        this.capacity = capacity;
+        keys = (K[]) new Object[capacity];
+        values = (V[]) new Object[capacity];
+        referenced = new boolean[capacity];
+        frames = new HashMap<>(capacity * 2);
+        free = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = capacity - 1 - i;
+        }
+        freeTop = capacity;
+        hand = 0;
+    }
+
+    public int size() {
+        return frames.size();
+    }
+
+    public Boolean isFull() {
+        return size() >= capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Moves the entries to new frames, in the order the hand would have visited
+     * them, so the reference bits keep their meaning.
+     */
+    @SuppressWarnings("unchecked")
+    public void setCapacity(int capacity) {
+        if (capacity <= 0 || capacity < size()) {
+            throw new IllegalArgumentException("invalid capacity");
+        }
+        K[] oldKeys = keys;
+        V[] oldValues = values;
+        boolean[] oldReferenced = referenced;
+        keys = (K[]) new Object[capacity];
+        values = (V[]) new Object[capacity];
+        referenced = new boolean[capacity];
+        frames.clear();
+        int n = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            int f = (hand + i) % oldKeys.length;
+            if (oldKeys[f] == null) {
+                continue;
+            }
+            keys[n] = oldKeys[f];
+            values[n] = oldValues[f];
+            referenced[n] = oldReferenced[f];
+            frames.put(keys[n], n);
+            n++;
+        }
+        free = new int[capacity];
+        freeTop = 0;
+        for (int f = capacity - 1; f >= n; f--) {
+            free[freeTop++] = f;
+        }
+        hand = 0;
+        this.capacity = capacity;
+    }
+
+    public void put(K k, V v, Predicate<V> valid) throws DbException {
+        put(k, v, valid, false);
+    }
+
+    @Override
+    public void put(K k, V v, Predicate<V> valid, boolean sequential) throws DbException {
+        Integer frame = frames.get(k);
+        if (frame != null) {
+            values[frame] = v;
+            referenced[frame] |= !sequential;
+            return;
+        }
+        if (isFull()) {
+            evict(valid);
+        }
+        int f = free[--freeTop];
+        keys[f] = k;
+        values[f] = v;
+        referenced[f] = !sequential;
+        frames.put(k, f);
+    }
+
+    public V evict(Predicate<V> valid) throws DbException {
+        if (size() == 0) {
+            throw new IllegalStateException("size == 0, invalid evict");
+        }
+        // the first round clears reference bits, the second one must find every
+        // unreferenced frame accepted by valid
+        for (int i = 0; i < 2 * capacity; i++) {
+            int f = hand;
+            hand = (hand + 1) % capacity;
+            if (keys[f] == null) {
+                continue;
+            }
+            if (referenced[f]) {
+                referenced[f] = false;
+                continue;
+            }
+            if (valid == null || valid.test(values[f])) {
+                V v = values[f];
+                release(f);
+                return v;
+            }
+        }
+        throw new DbException("no valid value to evict");
+    }
+
+    public V remove(K k) {
+        Integer frame = frames.get(k);
+        if (frame == null) {
+            return null;
+        }
+        V v = values[frame];
+        release(frame);
+        return v;
+    }
+
+    public V get(K k) {
+        return get(k, false);
+    }
+
+    @Override
+    public V get(K k, boolean sequential) {
+        Integer frame = frames.get(k);
+        if (frame == null) {
+            return null;
+        }
+        referenced[frame] |= !sequential;
+        return values[frame];
+    }
+
+    public V peek(K k) {
+        Integer frame = frames.get(k);
+        return frame == null ? null : values[frame];
+    }
+
+    public Boolean containsKey(K k) {
+        return frames.containsKey(k);
+    }
+
+    public Iterator<K> iterator() {
+        return frames.keySet().iterator();
+    }
+
+    public Iterator<V> valueIterator() {
+        Iterator<Integer> it = frames.values().iterator();
+        return new Iterator<V>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public V next() {
+                if (!it.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return values[it.next()];
+            }
+        };
+    }
+
+    /**
+     * Entries with the reference bit set first.
+     */
+    @Override
+    public Iterator<K> hotIterator() {
+        ArrayList<K> hot = new ArrayList<>(size());
+        ArrayList<K> cold = new ArrayList<>();
+        for (int f = 0; f < capacity; f++) {
+            if (keys[f] != null) {
+                (referenced[f] ? hot : cold).add(keys[f]);
+            }
+        }
+        hot.addAll(cold);
+        return hot.iterator();
+    }
+
+    private void release(int f) {
+        frames.remove(keys[f]);
+        keys[f] = null;
+        values[f] = null;
+        referenced[f] = false;
+        free[freeTop++] = f;
+    }
+
+    @Override
+    public String toString() {
+        return " clock: " + frames.keySet().toString();
+    }
+}
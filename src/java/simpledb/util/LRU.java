@@ -3,6 +3,7 @@ package simpledb.util;
 import simpledb.common.DbException;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -11,12 +12,12 @@ import java.util.function.Predicate;
 /**
  * Least Recently Used Algorithm
  */
-public class LRU<K, V> {
+public class LRU<K, V> implements ReplacementPolicy<K, V> {
     // new element is inserted in tail
     // remove old element in head
     private final ArrayList<K> list;
     private final HashMap<K, V> map;
-    private final int capacity;
+    private int capacity;
 
     public LRU(int capacity) {
         if (capacity <= 0) {
@@ -35,6 +36,17 @@ public class LRU<K, V> {
         return size() >= capacity;
     }
 
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity <= 0 || capacity < size()) {
+            throw new IllegalArgumentException("invalid capacity");
+        }
+        this.capacity = capacity;
+    }
+
     public void put(K k, V v, Predicate<V> valid) throws DbException {
         if (map.containsKey(k)) {
             // update K V
@@ -77,6 +89,16 @@ public class LRU<K, V> {
         return list.iterator();
     }
 
+    /**
+     * Most recently inserted first.
+     */
+    @Override
+    public Iterator<K> hotIterator() {
+        ArrayList<K> keys = new ArrayList<>(list);
+        Collections.reverse(keys);
+        return keys.iterator();
+    }
+
     public V remove(K k) {
         list.remove(k);
         return map.remove(k);
@@ -86,6 +108,10 @@ public class LRU<K, V> {
         return map.get(k);
     }
 
+    public V peek(K k) {
+        return map.get(k);
+    }
+
     public Iterator<Map.Entry<K, V>> iterator1() {
         return map.entrySet().iterator();
     }
@@ -98,6 +124,10 @@ public class LRU<K, V> {
         return map.values().iterator();
     }
 
+    public Iterator<V> valueIterator() {
+        return iterator3();
+    }
+
     public Boolean containsKey(K k) {
         return map.containsKey(k);
     }
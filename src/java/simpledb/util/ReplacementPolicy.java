@@ -0,0 +1,123 @@
+package simpledb.util;
+
+import simpledb.common.DbException;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A bounded cache which decides which entry should leave when a new
+ * one has to be admitted. BufferPool keeps its resident pages in one of these.
+ * <p>
+ * Implementations are not thread safe, the caller is responsible for locking.
+ */
+public interface ReplacementPolicy<K, V> {
+
+    /**
+     * The replacement algorithms BufferPool can be configured with.
+     */
+    enum Kind {
+        CLOCK, LRU, TWO_QUEUE;
+
+        public <K, V> ReplacementPolicy<K, V> create(int capacity) {
+            switch (this) {
+                case LRU:
+                    return new LRU<>(capacity);
+                case TWO_QUEUE:
+                    return new TwoQueue<>(capacity);
+                case CLOCK:
+                default:
+                    return new Clock<>(capacity);
+            }
+        }
+    }
+
+    int size();
+
+    Boolean isFull();
+
+    int getCapacity();
+
+    /**
+     * Change the capacity. A cache holding more than capacity entries has to be
+     * brought down to it with {@link #evict(Predicate)} first.
+     *
+     * @throws IllegalArgumentException if capacity is not positive or below size()
+     */
+    void setCapacity(int capacity);
+
+    /**
+     * Insert or replace the value of k. If the cache is full, an entry accepted by
+     * valid is evicted first.
+     *
+     * @param valid decides which values may be evicted, null means any value
+     * @throws DbException if the cache is full and no value can be evicted
+     */
+    void put(K k, V v, Predicate<V> valid) throws DbException;
+
+    /**
+     * Same as {@link #put(Object, Object, Predicate)}, sequential tells the policy
+     * the value was loaded by a sequential scan and is unlikely to be used again.
+     * Policies which don't care about access patterns ignore it.
+     */
+    default void put(K k, V v, Predicate<V> valid, boolean sequential) throws DbException {
+        put(k, v, valid);
+    }
+
+    /**
+     * Remove and return the value chosen by the policy among those accepted by valid.
+     *
+     * @param valid decides which values may be evicted, null means any value
+     * @throws DbException if no value can be evicted
+     */
+    V evict(Predicate<V> valid) throws DbException;
+
+    V remove(K k);
+
+    /**
+     * Look up k and record the access.
+     */
+    V get(K k);
+
+    /**
+     * Look up k and record the access, sequential tells the policy the access comes
+     * from a sequential scan.
+     */
+    default V get(K k, boolean sequential) {
+        return get(k);
+    }
+
+    /**
+     * Look up k without recording an access.
+     */
+    V peek(K k);
+
+    Boolean containsKey(K k);
+
+    /**
+     * @return an iterator over the keys, in no particular order
+     */
+    Iterator<K> iterator();
+
+    /**
+     * @return an iterator over the values, in no particular order
+     */
+    Iterator<V> valueIterator();
+
+    /**
+     * @return an iterator over the keys, the ones the policy would keep longest
+     * first. Policies without a notion of hotness return {@link #iterator()}.
+     */
+    default Iterator<K> hotIterator() {
+        return iterator();
+    }
+
+    /**
+     * @return policy specific counters, e.g. hits per queue
+     */
+    default Map<String, Long> getStats() {
+        return Collections.emptyMap();
+    }
+}
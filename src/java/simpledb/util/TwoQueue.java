@@ -0,0 +1,290 @@
+package simpledb.util;
+
+import simpledb.common.DbException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Scan resistant 2Q replacement.
+ * <p>
+ * New entries go to a FIFO probation queue (A1in) and only move to the main LRU
+ * queue (Am) once they are referenced again. Keys evicted from probation are
+ * remembered in a ghost queue (A1out), an entry whose key is still there when it is
+ * loaded again goes straight to the main queue.
+ * <p>
+ * Entries loaded by sequential scans get a queue of their own which is always
+ * emptied first, and a sequential re-reference doesn't promote them, so a large
+ * scan only recycles its own pages and leaves the main queue alone.
+ */
+public class TwoQueue<K, V> implements ReplacementPolicy<K, V> {
+    // loaded by sequential scans, FIFO
+    private final LinkedHashMap<K, V> scan;
+    // A1in, FIFO
+    private final LinkedHashMap<K, V> probation;
+    // Am, least recently used first
+    private final LinkedHashMap<K, V> main;
+    // A1out, keys recently evicted from probation
+    private final LinkedHashMap<K, Boolean> ghost;
+
+    private int capacity;
+    private int probationSize;
+    private int ghostSize;
+
+    private long scanHits;
+    private long probationHits;
+    private long mainHits;
+    private long ghostHits;
+    private long misses;
+    private long promotions;
+
+    public TwoQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid capacity");
+        }
+        this.capacity = capacity;
+        // the usual 2Q tuning: Kin = 25% and Kout = 50% of the capacity
+        this.probationSize = Math.max(1, capacity / 4);
+        this.ghostSize = Math.max(1, capacity / 2);
+        scan = new LinkedHashMap<>();
+        probation = new LinkedHashMap<>();
+        main = new LinkedHashMap<>(16, 0.75f, true);
+        ghost = new LinkedHashMap<>();
+    }
+
+    public int size() {
+        return scan.size() + probation.size() + main.size();
+    }
+
+    public Boolean isFull() {
+        return size() >= capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity <= 0 || capacity < size()) {
+            throw new IllegalArgumentException("invalid capacity");
+        }
+        this.capacity = capacity;
+        this.probationSize = Math.max(1, capacity / 4);
+        this.ghostSize = Math.max(1, capacity / 2);
+        Iterator<K> it = ghost.keySet().iterator();
+        while (ghost.size() > ghostSize) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public void put(K k, V v, Predicate<V> valid) throws DbException {
+        put(k, v, valid, false);
+    }
+
+    @Override
+    public void put(K k, V v, Predicate<V> valid, boolean sequential) throws DbException {
+        if (main.containsKey(k)) {
+            main.put(k, v);
+            return;
+        }
+        if (probation.containsKey(k)) {
+            probation.put(k, v);
+            return;
+        }
+        if (scan.containsKey(k)) {
+            scan.put(k, v);
+            return;
+        }
+        misses++;
+        // look at the ghost queue first, the eviction below may push k out of it
+        boolean remembered = ghost.remove(k) != null;
+        if (isFull()) {
+            evict(valid);
+        }
+        if (remembered && !sequential) {
+            ghostHits++;
+            promotions++;
+            main.put(k, v);
+        } else if (sequential) {
+            scan.put(k, v);
+        } else {
+            probation.put(k, v);
+        }
+    }
+
+    public V evict(Predicate<V> valid) throws DbException {
+        if (size() == 0) {
+            throw new IllegalStateException("size == 0, invalid evict");
+        }
+        Map.Entry<K, V> victim = removeFirst(scan, valid);
+        if (victim == null && probation.size() > probationSize) {
+            victim = removeFirst(probation, valid);
+            if (victim != null) {
+                remember(victim.getKey());
+            }
+        }
+        if (victim == null) {
+            victim = removeFirst(main, valid);
+        }
+        if (victim == null) {
+            victim = removeFirst(probation, valid);
+            if (victim != null) {
+                remember(victim.getKey());
+            }
+        }
+        if (victim == null) {
+            throw new DbException("no valid value to evict");
+        }
+        return victim.getValue();
+    }
+
+    public V remove(K k) {
+        V v = main.remove(k);
+        if (v == null) {
+            v = probation.remove(k);
+        }
+        if (v == null) {
+            v = scan.remove(k);
+        }
+        return v;
+    }
+
+    public V get(K k) {
+        return get(k, false);
+    }
+
+    @Override
+    public V get(K k, boolean sequential) {
+        V v = main.get(k);
+        if (v != null) {
+            mainHits++;
+            return v;
+        }
+        v = probation.get(k);
+        if (v != null) {
+            probationHits++;
+            if (!sequential) {
+                promote(probation, k, v);
+            }
+            return v;
+        }
+        v = scan.get(k);
+        if (v != null) {
+            scanHits++;
+            if (!sequential) {
+                promote(scan, k, v);
+            }
+        }
+        return v;
+    }
+
+    public V peek(K k) {
+        V v = main.get(k);
+        if (v == null) {
+            v = probation.get(k);
+        }
+        if (v == null) {
+            v = scan.get(k);
+        }
+        return v;
+    }
+
+    public Boolean containsKey(K k) {
+        return main.containsKey(k) || probation.containsKey(k) || scan.containsKey(k);
+    }
+
+    /**
+     * Keys of the three queues. The iterator works on a copy, the cache may be
+     * modified while iterating.
+     */
+    public Iterator<K> iterator() {
+        ArrayList<K> keys = new ArrayList<>(size());
+        keys.addAll(scan.keySet());
+        keys.addAll(probation.keySet());
+        keys.addAll(main.keySet());
+        return keys.iterator();
+    }
+
+    /**
+     * Values of the three queues. The iterator works on a copy, the cache may be
+     * modified while iterating.
+     */
+    public Iterator<V> valueIterator() {
+        ArrayList<V> values = new ArrayList<>(size());
+        values.addAll(scan.values());
+        values.addAll(probation.values());
+        values.addAll(main.values());
+        return values.iterator();
+    }
+
+    /**
+     * The main queue from the most recently used entry on, then probation and
+     * scan entries, newest first.
+     */
+    @Override
+    public Iterator<K> hotIterator() {
+        ArrayList<K> keys = new ArrayList<>(size());
+        addNewestFirst(keys, main);
+        addNewestFirst(keys, probation);
+        addNewestFirst(keys, scan);
+        return keys.iterator();
+    }
+
+    private static <K> void addNewestFirst(ArrayList<K> keys, LinkedHashMap<K, ?> queue) {
+        int from = keys.size();
+        keys.addAll(queue.keySet());
+        Collections.reverse(keys.subList(from, keys.size()));
+    }
+
+    @Override
+    public Map<String, Long> getStats() {
+        LinkedHashMap<String, Long> stats = new LinkedHashMap<>();
+        stats.put("scanHits", scanHits);
+        stats.put("probationHits", probationHits);
+        stats.put("mainHits", mainHits);
+        stats.put("ghostHits", ghostHits);
+        stats.put("misses", misses);
+        stats.put("promotions", promotions);
+        stats.put("scanSize", (long) scan.size());
+        stats.put("probationSize", (long) probation.size());
+        stats.put("mainSize", (long) main.size());
+        return stats;
+    }
+
+    private void promote(LinkedHashMap<K, V> queue, K k, V v) {
+        queue.remove(k);
+        main.put(k, v);
+        promotions++;
+    }
+
+    private void remember(K k) {
+        ghost.put(k, Boolean.TRUE);
+        if (ghost.size() > ghostSize) {
+            Iterator<K> it = ghost.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+    }
+
+    private Map.Entry<K, V> removeFirst(LinkedHashMap<K, V> queue, Predicate<V> valid) {
+        Iterator<Map.Entry<K, V>> it = queue.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<K, V> e = it.next();
+            if (valid == null || valid.test(e.getValue())) {
+                it.remove();
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return " scan: " + scan.keySet() + " probation: " + probation.keySet() + " main: " + main.keySet();
+    }
+}
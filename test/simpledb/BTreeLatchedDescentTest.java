@@ -0,0 +1,167 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class BTreeLatchedDescentTest extends SimpleDbTestBase {
+	private TransactionId tid;
+	private BTreeFile bf;
+	private BufferPool bp;
+	private PageId rootPtrId;
+	private PageId rootId;
+
+	private static final int TIMEOUT = 100;
+
+	/**
+	 * Set up initial resources for each unit test.
+	 */
+	@Before
+	public void setUp() throws Exception {
+		// This should create a B+ tree with 100 leaf pages under an internal root
+		bf = BTreeUtility.createRandomBTreeFile(2, 50200, null, null, 0);
+		bp = Database.getBufferPool();
+		tid = new TransactionId();
+		rootPtrId = BTreeRootPtrPage.getId(bf.getId());
+		TransactionId t = new TransactionId();
+		rootId = ((BTreeRootPtrPage) bp.getPage(t, rootPtrId, Permissions.READ_ONLY)).getRootId();
+		bp.transactionComplete(t);
+	}
+
+	@After
+	public void tearDown() {
+		bp.transactionComplete(tid);
+	}
+
+	private int search(int key) throws Exception {
+		return search(tid, key);
+	}
+
+	private int search(TransactionId t, int key) throws Exception {
+		DbFileIterator it = bf.indexIterator(t, new IndexPredicate(Op.EQUALS, new IntField(key)));
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	/**
+	 * A search only keeps the lock of the leaf pages it read.
+	 */
+	@Test
+	public void searchLocksOnlyLeaves() throws Exception {
+		search(100);
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+		assertFalse(bp.holdsLock(tid, rootId));
+		assertEquals(0, bf.getDescentRetries());
+	}
+
+	@Test
+	public void lockedDescentLocksPath() throws Exception {
+		bf.setLatchedDescent(false);
+		search(100);
+		assertTrue(bp.holdsLock(tid, rootPtrId));
+		assertTrue(bp.holdsLock(tid, rootId));
+	}
+
+	/**
+	 * A transaction may lock the root exclusively, to split it, while another
+	 * one which searched the tree is still running.
+	 */
+	@Test
+	public void rootWriterDoesNotWaitForSearch() throws Exception {
+		search(100);
+		TestUtil.LockGrabber t = new TestUtil.LockGrabber(new TransactionId(), rootId, Permissions.READ_WRITE);
+		t.start();
+		t.join(TIMEOUT * 10);
+		assertTrue(t.acquired());
+	}
+
+	/**
+	 * A search waits for a transaction changing an internal page on its path.
+	 */
+	@Test
+	public void searchWaitsForStructureChange() throws Exception {
+		TransactionId writer = new TransactionId();
+		bp.getPage(writer, rootId, Permissions.READ_WRITE);
+		Thread t = new Thread(() -> {
+			try {
+				search(100);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		t.start();
+		Thread.sleep(TIMEOUT);
+		assertTrue(t.isAlive());
+
+		bp.transactionComplete(writer);
+		t.join(TIMEOUT * 10);
+		assertFalse(t.isAlive());
+		assertFalse(bp.holdsLock(tid, rootId));
+	}
+
+	/**
+	 * A search whose leaf is split while it waits for it starts over, and
+	 * finds the key without keeping the root pointer locked.
+	 */
+	@Test
+	public void searchRetriesAfterSplit() throws Exception {
+		int key = BTreeUtility.MAX_RAND_VALUE / 2;
+		TransactionId counter = new TransactionId();
+		int before = search(counter, key);
+		bp.transactionComplete(counter);
+		TransactionId writer = new TransactionId();
+		bp.insertTuple(writer, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+
+		int[] found = new int[1];
+		Thread t = new Thread(() -> {
+			try {
+				found[0] = search(key);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		t.start();
+		Thread.sleep(TIMEOUT);
+		assertTrue(t.isAlive());
+
+		// enough duplicates to split the leaf the search waits for
+		int inserted = 1 + BTreeUtility.getNumTuplesPerPage(2);
+		for (int i = 1; i < inserted; i++) {
+			bp.insertTuple(writer, bf.getId(), BTreeUtility.getBTreeTuple(key, 2));
+		}
+		bp.transactionComplete(writer);
+		t.join(TIMEOUT * 10);
+		assertFalse(t.isAlive());
+		assertEquals(before + inserted, found[0]);
+		assertTrue(bf.getDescentRetries() >= 1);
+		assertFalse(bp.holdsLock(tid, rootPtrId));
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeLatchedDescentTest.class);
+	}
+}
@@ -18,6 +18,7 @@ import simpledb.systemtest.SystemTestUtil;
 
 //import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
@@ -91,6 +92,20 @@ public class BTreeLeafPageTest extends SimpleDbTestBase {
 		assertEquals(pid, page.getId());
 	}
 
+	/**
+	 * Unit test for BTreeLeafPage.writePageData(), which writes what
+	 * getPageData() returns at the position of the buffer.
+	 */
+	@Test public void writePageData() throws Exception {
+		BTreeLeafPage page = new BTreeLeafPage(pid, EXAMPLE_DATA, 0);
+		ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize() + 3);
+		buf.position(3);
+		page.writePageData(buf);
+		assertFalse(buf.hasRemaining());
+		assertArrayEquals(EXAMPLE_DATA, Arrays.copyOfRange(buf.array(), 3, buf.capacity()));
+		assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+	}
+
 	/**
 	 * Unit test for BTreeLeafPage.getParentId()
 	 */
@@ -0,0 +1,77 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolPinTest extends SimpleDbTestBase {
+
+    @Test
+    public void testPinnedPageIsNotEvicted() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        HeapPageId first = new HeapPageId(f.getId(), 0);
+        Page pinned = bp.getPage(tid, first, Permissions.READ_ONLY);
+        Assert.assertTrue(bp.isPinned(first));
+
+        // read the rest, unpinning every page once done with it
+        for (int i = 1; i < f.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(f.getId(), i);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            bp.unpinPage(tid, pid);
+            Assert.assertFalse(bp.isPinned(pid));
+        }
+        Assert.assertSame(pinned, bp.getPage(tid, first, Permissions.READ_ONLY));
+        Assert.assertEquals(Long.valueOf(0), bp.getReplacementStats().get("pinOverflows"));
+
+        // two getPage calls, two pins
+        bp.unpinPage(tid, first);
+        Assert.assertTrue(bp.isPinned(first));
+        bp.unpinPage(tid, first);
+        Assert.assertFalse(bp.isPinned(first));
+        bp.transactionComplete(tid);
+    }
+
+    @Test
+    public void testTransactionCompleteDropsPins() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(f.getId(), 1);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        Assert.assertTrue(bp.isPinned(pid));
+        bp.transactionComplete(tid);
+        Assert.assertFalse(bp.isPinned(pid));
+    }
+
+    @Test
+    public void testFullyPinnedPoolOverflows() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        Assert.assertEquals(Long.valueOf(2), bp.getReplacementStats().get("pinOverflows"));
+        bp.transactionComplete(tid);
+
+        // the partition is back to its size once the pins are gone
+        tid = new TransactionId();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        for (int i = 0; i < other.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(other.getId(), i);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            bp.unpinPage(tid, pid);
+        }
+        Assert.assertEquals(Long.valueOf(2), bp.getReplacementStats().get("pinOverflows"));
+        Assert.assertTrue(bp.resize(4, 0));
+        bp.transactionComplete(tid);
+    }
+}
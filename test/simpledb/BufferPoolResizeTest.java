@@ -0,0 +1,93 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BufferPoolResizeTest extends SimpleDbTestBase {
+
+    private static List<Page> readAll(BufferPool bp, HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < f.numPages(); i++) {
+            pages.add(bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY));
+        }
+        bp.transactionComplete(tid);
+        return pages;
+    }
+
+    private static int resident(BufferPool bp, HeapFile f, List<Page> pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        int resident = 0;
+        for (int i = 0; i < pages.size(); i++) {
+            HeapPageId pid = new HeapPageId(f.getId(), i);
+            if (bp.getPage(tid, pid, Permissions.READ_ONLY) == pages.get(i)) {
+                resident++;
+            }
+            bp.unpinPage(tid, pid);
+        }
+        bp.transactionComplete(tid);
+        return resident;
+    }
+
+    @Test
+    public void testGrowKeepsPages() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        List<Page> pages = readAll(bp, small);
+
+        Assert.assertTrue(bp.resize(20, 0));
+        Assert.assertEquals(20, bp.getNumPages());
+        // the pool has room for another 10 pages without evicting the cached ones
+        readAll(bp, other);
+        Assert.assertEquals(10, resident(bp, small, pages));
+    }
+
+    @Test
+    public void testShrinkEvictsCleanPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, null);
+        BufferPool bp = Database.resetBufferPool(20);
+        List<Page> pages = readAll(bp, f);
+        Assert.assertEquals(20, resident(bp, f, pages));
+
+        Assert.assertTrue(bp.resize(5, 0));
+        Assert.assertEquals(5, bp.getNumPages());
+        Assert.assertTrue(resident(bp, f, pages) <= 5);
+    }
+
+    @Test
+    public void testShrinkWaitsForDirtyPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < 4; i++) {
+            HeapPageId pid = new HeapPageId(f.getId(), i);
+            HeapPage page = (HeapPage) bp.getPage(writer, pid, Permissions.READ_WRITE);
+            page.deleteTuple(page.iterator().next());
+            page.markDirty(true, writer);
+        }
+
+        // nothing can leave while the writer runs
+        Assert.assertFalse(bp.resize(2, 50));
+
+        Thread committer = new Thread(() -> bp.transactionComplete(writer));
+        committer.start();
+        Assert.assertTrue(bp.resize(2, 5000));
+        committer.join();
+
+        // the pool works with the new size
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(7, 2));
+        bp.transactionComplete(tid);
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import simpledb.util.ReplacementPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    @Test
+    public void testRingOnlyForLargeTables() {
+        BufferPool bp = Database.resetBufferPool(100);
+        Assert.assertNull(bp.bulkReadRing(100));
+        BufferRing ring = bp.bulkReadRing(101);
+        Assert.assertNotNull(ring);
+        Assert.assertEquals(100 / 8, ring.getSize());
+    }
+
+    @Test
+    public void testLargeScanKeepsHotPages() throws Exception {
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile large = SystemTestUtil.createRandomHeapFile(2, 504 * 100, null, tuples);
+        // plain LRU would lose every hot page to a scan twice the pool size
+        BufferPool bp = Database.resetBufferPool(50, ReplacementPolicy.Kind.LRU);
+
+        TransactionId tid = new TransactionId();
+        List<Page> hotPages = new ArrayList<>();
+        for (int i = 0; i < hot.numPages(); i++) {
+            hotPages.add(bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY));
+        }
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, large.getId());
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+        Assert.assertEquals(tuples.size(), count);
+        Assert.assertEquals(Long.valueOf(100 - 50 / 8), bp.getReplacementStats().get("ringRecycled"));
+
+        tid = new TransactionId();
+        for (int i = 0; i < hot.numPages(); i++) {
+            Assert.assertSame(hotPages.get(i), bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY));
+        }
+        bp.transactionComplete(tid);
+    }
+}
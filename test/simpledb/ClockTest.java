@@ -0,0 +1,90 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.DbException;
+import simpledb.util.Clock;
+
+public class ClockTest {
+
+    @Test
+    public void testClockBasicFunction() throws DbException {
+        int capacity = 10;
+        int overflow = 100;
+        Clock<Integer, Integer> clock = new Clock<>(capacity);
+        for (int i = 0; i < capacity + overflow; i++) {
+            clock.put(i, i, null);
+        }
+        Assert.assertEquals(capacity, clock.size());
+        for (int i = overflow; i < capacity + overflow; i++) {
+            Assert.assertEquals(Integer.valueOf(i), clock.get(i));
+        }
+    }
+
+    @Test
+    public void testReferencedEntrySurvives() throws DbException {
+        Clock<Integer, Integer> clock = new Clock<>(3);
+        clock.put(0, 0, null);
+        clock.put(1, 1, null);
+        clock.put(2, 2, null);
+        // every bit is set, the sweep clears them and evicts 0
+        clock.put(3, 3, null);
+        Assert.assertFalse(clock.containsKey(0));
+        // 1 gets a second chance, 2 does not
+        clock.get(1);
+        clock.put(4, 4, null);
+        Assert.assertTrue(clock.containsKey(1));
+        Assert.assertFalse(clock.containsKey(2));
+    }
+
+    @Test
+    public void testEvictSkipsInvalid() throws DbException {
+        Clock<Integer, Integer> clock = new Clock<>(3);
+        clock.put(0, 0, null);
+        clock.put(1, 1, null);
+        clock.put(2, 2, null);
+        Assert.assertEquals(Integer.valueOf(1), clock.evict(v -> v == 1));
+        Assert.assertEquals(2, clock.size());
+        Assert.assertEquals(Integer.valueOf(2), clock.remove(2));
+        Assert.assertNull(clock.remove(2));
+    }
+
+    @Test(expected = DbException.class)
+    public void testNothingToEvict() throws DbException {
+        Clock<Integer, Integer> clock = new Clock<>(2);
+        clock.put(0, 0, null);
+        clock.put(1, 1, null);
+        clock.put(2, 2, v -> false);
+    }
+
+    @Test
+    public void testResize() throws DbException {
+        Clock<Integer, Integer> clock = new Clock<>(4);
+        for (int i = 0; i < 4; i++) {
+            clock.put(i, i, null);
+        }
+        clock.setCapacity(8);
+        for (int i = 4; i < 8; i++) {
+            clock.put(i, i, null);
+        }
+        Assert.assertEquals(8, clock.size());
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(Integer.valueOf(i), clock.get(i));
+        }
+
+        try {
+            clock.setCapacity(2);
+            Assert.fail("shrinking below the size must fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        for (int i = 0; i < 6; i++) {
+            clock.evict(null);
+        }
+        clock.setCapacity(2);
+        Assert.assertTrue(clock.isFull());
+        clock.put(100, 100, null);
+        Assert.assertEquals(2, clock.size());
+        Assert.assertEquals(Integer.valueOf(100), clock.get(100));
+    }
+}
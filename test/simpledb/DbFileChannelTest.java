@@ -0,0 +1,79 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.storage.DbFileChannel;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class DbFileChannelTest extends TestUtil.CreateHeapFile {
+    private HeapPageId p0;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        p0 = new HeapPageId(empty.getId(), 0);
+    }
+
+    /**
+     * A thread interrupted, e.g. by the deadlock detector, still reads and
+     * writes, keeps its interrupt status, and leaves the channel open.
+     */
+    @Test public void interruptedThread() throws Exception {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        AtomicReference<Boolean> interrupted = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            try {
+                Thread.currentThread().interrupt();
+                empty.writePage(new HeapPage(new HeapPageId(empty.getId(), 1), HeapPage.createEmptyPageData()));
+                assertNotNull(empty.readPage(p0));
+                interrupted.set(Thread.currentThread().isInterrupted());
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        t.start();
+        t.join();
+        assertNull(error.get());
+        assertTrue(interrupted.get());
+        assertEquals(2, empty.numPages());
+        assertNotNull(empty.readPage(new HeapPageId(empty.getId(), 1)));
+    }
+
+    /**
+     * Clearing the catalog closes the files, which open again when used.
+     */
+    @Test public void closedByCatalog() throws Exception {
+        Database.getCatalog().addTable(empty);
+        Database.getCatalog().clear();
+        // pages are parsed with the schema of the catalog
+        Database.getCatalog().addTable(empty);
+        assertNotNull(empty.readPage(p0));
+    }
+
+    @Test public void readPastEnd() throws Exception {
+        File f = File.createTempFile("channel", ".dat");
+        f.deleteOnExit();
+        DbFileChannel channel = new DbFileChannel(f);
+        channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 0);
+        ByteBuffer dst = ByteBuffer.allocate(4);
+        assertEquals(3, channel.read(dst, 0));
+        assertEquals(-1, channel.read(ByteBuffer.allocate(4), 3));
+        channel.close();
+        assertEquals(3, channel.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DbFileChannelTest.class);
+    }
+}
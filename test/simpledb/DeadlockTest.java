@@ -7,6 +7,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -14,6 +15,8 @@ import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -219,6 +222,79 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Deadlock on records of a single page: t1 locks r0, t2 locks r1, t1
+   * attempts r1, t2 attempts r0. The page locks don't conflict, the second
+   * record request closes the cycle and aborts.
+   */
+  @Test public void testRecordDeadlock() throws Exception {
+    RecordId r0 = new RecordId(p0, 0);
+    RecordId r1 = new RecordId(p0, 1);
+    bp.getPageForRecordUpdate(tid1, p0);
+    bp.lockRecord(tid1, r0);
+    bp.getPageForRecordUpdate(tid2, p0);
+    bp.lockRecord(tid2, r1);
+
+    LockGrabber lg1 = new LockGrabber(tid1, r1);
+    LockGrabber lg2 = new LockGrabber(tid2, r0);
+    lg1.start();
+    Thread.sleep(POLL_INTERVAL);
+    lg2.start();
+
+    long deadline = System.currentTimeMillis() + 20 * POLL_INTERVAL;
+    while (!lg1.acquired() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(lg1.acquired());
+    assertTrue(lg2.getError() instanceof TransactionAbortedException);
+  }
+
+  /**
+   * Build a write-write deadlock between tid1 (the older transaction) and
+   * tid2 under policy, first has its request in before the other. Checks that
+   * the victim aborts and the other one gets its lock.
+   */
+  private void resolveWriteWriteDeadlock(BufferPool.DeadlockPolicy policy,
+      TransactionId first, TransactionId victim) throws Exception {
+    bp.setDeadlockPolicy(policy);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber lg1 = new LockGrabber(tid1, p1, Permissions.READ_WRITE);
+    LockGrabber lg2 = new LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    LockGrabber firstGrabber = first == tid1 ? lg1 : lg2;
+    LockGrabber secondGrabber = first == tid1 ? lg2 : lg1;
+    firstGrabber.start();
+    Thread.sleep(POLL_INTERVAL);
+    secondGrabber.start();
+
+    LockGrabber victimGrabber = victim == tid1 ? lg1 : lg2;
+    LockGrabber survivor = victim == tid1 ? lg2 : lg1;
+    long deadline = System.currentTimeMillis() + 20 * POLL_INTERVAL;
+    while (!survivor.acquired() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue(survivor.acquired());
+    assertTrue(victimGrabber.getError() instanceof TransactionAbortedException);
+    assertEquals(Long.valueOf(1), bp.getLockStats().get(policy + ".aborts"));
+  }
+
+  @Test public void testWaitDie() throws Exception {
+    // the older transaction waits, the younger one dies
+    resolveWriteWriteDeadlock(BufferPool.DeadlockPolicy.WAIT_DIE, tid1, tid2);
+  }
+
+  @Test public void testWoundWait() throws Exception {
+    // the younger transaction waits, and is wounded by the older one
+    resolveWriteWriteDeadlock(BufferPool.DeadlockPolicy.WOUND_WAIT, tid2, tid2);
+  }
+
+  @Test public void testPeriodicDetection() throws Exception {
+    // the transaction which has dirtied fewer pages is the victim, whatever its age
+    bp.getPage(tid2, new HeapPageId(empty.getId(), 2), Permissions.READ_WRITE);
+    resolveWriteWriteDeadlock(BufferPool.DeadlockPolicy.DETECT_PERIODIC, tid1, tid1);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,119 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    // tuples of two int fields on a page
+    private static final int PAGE_TUPLES = 504;
+
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // the pool the file was opened with
+        bp = Database.getBufferPool();
+        empty.setInsertTargets(false);
+    }
+
+    private void insert(int count) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < count; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages written full are stored as such, and left out by inserts.
+     */
+    @Test public void fullPagesAreSkipped() throws Exception {
+        insert(2 * PAGE_TUPLES + 1);
+        assertEquals(3, empty.numPages());
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.getFreeSlots(0));
+        assertEquals(0, fsm.getFreeSlots(1));
+        assertEquals(PAGE_TUPLES - 1, fsm.getFreeSlots(2));
+        assertEquals(2, fsm.nextPageWithRoom(0, empty.numPages()));
+    }
+
+    /**
+     * The map survives the file being closed and opened again.
+     */
+    @Test public void reopen() throws Exception {
+        insert(PAGE_TUPLES + 1);
+        empty.close();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(2, reopened.numPages());
+        assertEquals(0, reopened.getFreeSpaceMap().getFreeSlots(0));
+        assertEquals(1, reopened.getFreeSpaceMap().nextPageWithRoom(0, reopened.numPages()));
+    }
+
+    /**
+     * A page gaining room empties the saved map, which doesn't come back
+     * after a crash.
+     */
+    @Test public void gainDiscardsSavedMap() throws Exception {
+        insert(PAGE_TUPLES + 1);
+        empty.close();
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+        bp.transactionComplete(tid);
+
+        // opened again without a close, as after a crash
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(FreeSpaceMap.UNKNOWN, reopened.getFreeSpaceMap().getFreeSlots(0));
+        assertEquals(0, reopened.getFreeSpaceMap().nextPageWithRoom(0, reopened.numPages()));
+    }
+
+    /**
+     * A slot freed by a delete is found by the next insert once the delete
+     * committed.
+     */
+    @Test public void deleteFreesPage() throws Exception {
+        insert(PAGE_TUPLES + 1);
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+        bp.transactionComplete(tid);
+        assertEquals(1, empty.getFreeSpaceMap().getFreeSlots(0));
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(1000, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        bp.transactionComplete(tid);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(0, empty.getFreeSpaceMap().getFreeSlots(0));
+    }
+
+    /**
+     * numPages follows pages appended by this file and, once read, by others.
+     */
+    @Test public void numPagesFollowsAppends() throws Exception {
+        assertEquals(1, empty.numPages());
+        empty.writePage(new HeapPage(new HeapPageId(empty.getId(), 1), HeapPage.createEmptyPageData()));
+        assertEquals(2, empty.numPages());
+
+        HeapFile other = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        other.writePage(new HeapPage(new HeapPageId(other.getId(), 2), HeapPage.createEmptyPageData()));
+        assertEquals(2, empty.numPages());
+        assertNotNull(empty.readPage(new HeapPageId(empty.getId(), 2)));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -81,6 +81,14 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * readPage throws for a page id of another kind of file.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void readPageOfOtherFormat() {
+        hf.readPage(new simpledb.index.BTreePageId(hf.getId(), 0, simpledb.index.BTreePageId.LEAF));
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
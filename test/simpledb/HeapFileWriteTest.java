@@ -90,6 +90,55 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Insert the tuple value for a new transaction of a new thread.
+     *
+     * @return the tuple, once inserted
+     */
+    private Tuple insertFromOtherThread(int value) throws Exception {
+        Tuple t = Utility.getHeapTuple(value, 2);
+        Thread thread = new Thread(() -> {
+            TransactionId other = new TransactionId();
+            try {
+                empty.insertTuple(other, t);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            Database.getBufferPool().transactionComplete(other);
+        });
+        thread.start();
+        thread.join();
+        return t;
+    }
+
+    /**
+     * Each inserting thread gets a page of its own, from an extent of as many
+     * pages as there are inserters.
+     */
+    @Test public void insertTargetPerThread() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(1, empty.numPages());
+
+        // this thread still owns page 0
+        Tuple t = insertFromOtherThread(1);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * The target page of a thread which died is free for other inserters.
+     */
+    @Test public void insertTargetOfDeadThread() throws Exception {
+        Tuple t = insertFromOtherThread(0);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+
+        t = Utility.getHeapTuple(1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(1, empty.numPages());
+    }
+
     /**
      * JUnit suite target
      */
@@ -16,6 +16,7 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -102,6 +103,39 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getInt()
+     */
+    @Test public void getInt() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][0], page.getInt(row, 0));
+            assertEquals(EXAMPLE_VALUES[row][1], page.getInt(row, 1));
+        }
+        try {
+            page.getInt(EXAMPLE_VALUES.length, 0);
+            fail("expected exception");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Tuples decode their fields when asked for them, from their own copy of
+     * the bytes, which later changes of the page don't touch.
+     */
+    @Test public void lazyTuple() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple tup = page.iterator().next();
+        page.deleteTuple(tup);
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        assertEquals(1, page.getInt(0, 0));
+
+        assertEquals(EXAMPLE_VALUES[0][1], ((IntField) tup.getField(1)).getValue());
+        tup.setField(0, new IntField(5));
+        assertEquals(5, ((IntField) tup.getField(0)).getValue());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,139 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.TestUtil.LockGrabber;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockMonitor;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class LockMonitorTest extends TestUtil.CreateHeapFile {
+    private PageId p0;
+    private PageId p1;
+    private BufferPool bp;
+    private LockMonitor monitor;
+
+    /** Time to let a grabber block, in ms */
+    private static final int POLL_INTERVAL = 100;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1025; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        bp = Database.getBufferPool();
+        bp.transactionComplete(tid);
+        p0 = new HeapPageId(empty.getId(), 0);
+        p1 = new HeapPageId(empty.getId(), 1);
+        monitor = bp.getLockMonitor();
+        monitor.reset();
+        monitor.setEnabled(true);
+    }
+
+    private static long sum(long[] counts) {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    @Test public void disabledCountsNothing() throws Exception {
+        monitor.setEnabled(false);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, p0, Permissions.READ_WRITE);
+        bp.transactionComplete(tid);
+        for (long count : monitor.getStats().values()) {
+            assertEquals(0, count);
+        }
+    }
+
+    /**
+     * An S lock upgraded to X counts as an acquisition of each, and an
+     * upgrade, as does the IS lock of the table upgraded to IX.
+     */
+    @Test public void acquisitionsAndUpgrades() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        bp.getPage(tid, p0, Permissions.READ_WRITE);
+        bp.transactionComplete(tid);
+        Map<String, Long> stats = monitor.getStats();
+        assertEquals(1, (long) stats.get("acquired.S"));
+        assertEquals(1, (long) stats.get("acquired.X"));
+        assertEquals(1, (long) stats.get("acquired.IS"));
+        assertEquals(1, (long) stats.get("acquired.IX"));
+        assertEquals(2, (long) stats.get("upgrades"));
+        assertEquals(0, (long) stats.get("waits"));
+    }
+
+    /**
+     * A wait shows in the histogram and makes its page hot.
+     */
+    @Test public void waitsAndHotPages() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        bp.getPage(tid1, p1, Permissions.READ_WRITE);
+        LockGrabber grabber = new LockGrabber(tid2, p1, Permissions.READ_ONLY);
+        grabber.start();
+        Thread.sleep(POLL_INTERVAL);
+        assertFalse(grabber.acquired());
+        bp.transactionComplete(tid1);
+        grabber.join(POLL_INTERVAL * 10);
+        assertTrue(grabber.acquired());
+        bp.transactionComplete(tid2);
+
+        Map<String, Long> stats = monitor.getStats();
+        assertEquals(1, (long) stats.get("waits"));
+        assertTrue(stats.get("maxWaitMicros") >= POLL_INTERVAL * 1000 / 2);
+        assertEquals(1, sum(monitor.getWaitHistogram()));
+        List<LockMonitor.HotPage> hot = monitor.getHotPages(5);
+        assertEquals(1, hot.size());
+        assertEquals(p1, hot.get(0).pid);
+        assertEquals(1, hot.get(0).waits);
+    }
+
+    /**
+     * A transaction closing a cycle of waits aborts because of a deadlock.
+     */
+    @Test public void deadlockAbort() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        bp.getPage(tid2, p1, Permissions.READ_WRITE);
+        LockGrabber grabber1 = new LockGrabber(tid1, p1, Permissions.READ_WRITE);
+        grabber1.start();
+        Thread.sleep(POLL_INTERVAL);
+        LockGrabber grabber2 = new LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        grabber2.start();
+        grabber2.join(POLL_INTERVAL * 10);
+        assertNotNull(grabber2.getError());
+        bp.transactionComplete(tid2, false);
+        grabber1.join(POLL_INTERVAL * 10);
+        assertTrue(grabber1.acquired());
+        bp.transactionComplete(tid1);
+
+        Map<String, Long> stats = monitor.getStats();
+        assertEquals(1, (long) stats.get("aborts." + LockMonitor.AbortReason.DEADLOCK));
+        assertEquals(0, (long) stats.get("aborts." + LockMonitor.AbortReason.PREVENTION));
+        assertTrue(monitor.report(5).contains(p1.toString()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockMonitorTest.class);
+    }
+}
@@ -7,11 +7,13 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
 import simpledb.transaction.TransactionId;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class LockingTest extends TestUtil.CreateHeapFile {
   private PageId p0;
@@ -103,6 +105,29 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     t.stop();
   }
 
+  /**
+   * Lock record rid for tid, as a change of its page would.
+   */
+  private void lockRecord(TransactionId tid, RecordId rid) throws Exception {
+    bp.getPageForRecordUpdate(tid, rid.getPageId());
+    bp.lockRecord(tid, rid);
+  }
+
+  /**
+   * Same as grabLock, for the lock of record rid.
+   */
+  public void grabRecordLock(TransactionId tid, RecordId rid,
+      boolean expected) throws Exception {
+
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, rid);
+    t.start();
+
+    Thread.sleep(TIMEOUT);
+    assertEquals(expected, t.acquired());
+
+    t.stop();
+  }
+
   /**
    * Unit test for BufferPool.getPage() assuming locking.
    * Acquires two read locks on the same page.
@@ -193,6 +218,202 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A conflicting request waits, and is granted once the holder completes.
+   */
+  @Test public void waitThenAcquire() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(t.acquired());
+
+    bp.transactionComplete(tid1);
+    t.join(TIMEOUT * 10);
+    assertTrue(t.acquired());
+    assertNull(t.getError());
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A read request queues behind a waiting write request, and a holder
+   * upgrading its read lock goes before both.
+   */
+  @Test public void waitInArrivalOrder() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT);
+    TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_ONLY);
+    reader.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(writer.acquired());
+    assertFalse(reader.acquired());
+
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.transactionComplete(tid1);
+    writer.join(TIMEOUT * 10);
+    assertTrue(writer.acquired());
+    Thread.sleep(TIMEOUT);
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid2);
+    reader.join(TIMEOUT * 10);
+    assertTrue(reader.acquired());
+    bp.transactionComplete(tid3);
+  }
+
+  /**
+   * Unit test for BufferPool.holdsLock() and BufferPool.transactionComplete().
+   * Locks are tracked per transaction until it completes.
+   */
+  @Test public void holdsLockUntilComplete() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_WRITE);
+    bp.getPage(tid2, p0, Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid1, p0));
+    assertTrue(bp.holdsLock(tid1, p1));
+    assertFalse(bp.holdsLock(tid2, p1));
+
+    bp.releasePage(tid1, p0, Permissions.READ_ONLY);
+    assertFalse(bp.holdsLock(tid1, p0));
+    assertTrue(bp.holdsLock(tid2, p0));
+
+    bp.transactionComplete(tid1);
+    assertFalse(bp.holdsLock(tid1, p1));
+    grabLock(tid2, p1, Permissions.READ_WRITE, true);
+  }
+
+  /**
+   * Unit test for HeapFile.iterator() assuming locking. A scan keeps the
+   * pages it has read locked until its transaction completes.
+   */
+  @Test public void scanHoldsReadLocksUntilComplete() throws Exception {
+    DbFileIterator it = empty.iterator(tid1);
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+    }
+    it.close();
+    assertTrue(bp.holdsLock(tid1, p0));
+    assertTrue(bp.holdsLock(tid1, p1));
+    grabLock(tid2, p0, Permissions.READ_WRITE, false);
+
+    bp.transactionComplete(tid1);
+    grabLock(tid2, p1, Permissions.READ_WRITE, true);
+  }
+
+  /**
+   * Unit test for BufferPool.lockTable() assuming locking.
+   * A shared table lock lets others read its pages, but not write them.
+   */
+  @Test public void tableLockBlocksWriters() throws Exception {
+    bp.lockTable(tid1, empty.getId(), Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid1, p1));
+    grabLock(tid2, p0, Permissions.READ_ONLY, true);
+    grabLock(tid2, p1, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Unit test for BufferPool.lockTable() assuming locking.
+   * A page locked exclusively keeps others from locking its table.
+   */
+  @Test public void pageWriterBlocksTableLock() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    Thread t = new Thread(() -> {
+      try {
+        bp.lockTable(tid2, empty.getId(), Permissions.READ_ONLY);
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    });
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertTrue(t.isAlive());
+
+    bp.transactionComplete(tid1);
+    t.join(TIMEOUT * 10);
+    assertFalse(t.isAlive());
+    assertTrue(bp.holdsLock(tid2, p0));
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * Page locks beyond the escalation threshold are replaced with a table lock.
+   */
+  @Test public void lockEscalation() throws Exception {
+    bp.setLockEscalationThreshold(2);
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(Long.valueOf(0), bp.getLockStats().get("escalations"));
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    assertEquals(Long.valueOf(1), bp.getLockStats().get("escalations"));
+
+    assertTrue(bp.holdsLock(tid1, p0));
+    assertTrue(bp.holdsLock(tid1, p2));
+    grabLock(tid2, p1, Permissions.READ_ONLY, true);
+    grabLock(tid2, p2, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Unit test for BufferPool.lockRecord() assuming locking.
+   * Acquires the locks of different records on the same page.
+   */
+  @Test public void acquireRecordLocksOnSamePage() throws Exception {
+    lockRecord(tid1, new RecordId(p0, 0));
+    grabRecordLock(tid2, new RecordId(p0, 1), true);
+  }
+
+  /**
+   * Unit test for BufferPool.lockRecord() assuming locking.
+   * Acquires the lock of the same record twice.
+   */
+  @Test public void acquireRecordLocksOnSameRecord() throws Exception {
+    lockRecord(tid1, new RecordId(p0, 0));
+    grabRecordLock(tid2, new RecordId(p0, 0), false);
+  }
+
+  /**
+   * Unit test for BufferPool.lockRecord() assuming locking.
+   * A transaction changing records keeps others from reading their page.
+   */
+  @Test public void recordWriterBlocksPageReader() throws Exception {
+    lockRecord(tid1, new RecordId(p0, 0));
+    grabLock(tid2, p0, Permissions.READ_ONLY, false);
+  }
+
+  /**
+   * Unit test for BufferPool.lockRecord() assuming locking.
+   * A transaction reading a page keeps others from changing its records.
+   */
+  @Test public void pageReaderBlocksRecordWriter() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    grabRecordLock(tid2, new RecordId(p0, 1), false);
+  }
+
+  /**
+   * Unit test for BufferPool.holdsRecordLock() and
+   * BufferPool.transactionComplete(). Record locks are held until the
+   * transaction completes, a page lock held exclusively covers them.
+   */
+  @Test public void holdsRecordLockUntilComplete() throws Exception {
+    RecordId r0 = new RecordId(p0, 0);
+    lockRecord(tid1, r0);
+    assertTrue(bp.holdsRecordLock(tid1, r0));
+    assertFalse(bp.holdsRecordLock(tid1, new RecordId(p0, 1)));
+    assertTrue(bp.holdsLock(tid1, p0));
+
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+    assertTrue(bp.holdsRecordLock(tid2, new RecordId(p1, 0)));
+
+    bp.transactionComplete(tid1);
+    assertFalse(bp.holdsRecordLock(tid1, r0));
+    grabRecordLock(tid2, r0, true);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,111 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MappedHeapFileTest extends TestUtil.CreateHeapFile {
+    private BufferPool bp;
+    private HeapPageId p0;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // the pool the file was opened with
+        bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        p0 = new HeapPageId(empty.getId(), 0);
+    }
+
+    private static List<Integer> values(HeapPage page) {
+        List<Integer> values = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return values;
+    }
+
+    @Test public void readsSameTuples() throws Exception {
+        List<Integer> copied = values((HeapPage) empty.readPage(p0));
+        empty.setMapped(true);
+        HeapPage mapped = (HeapPage) empty.readPage(p0);
+        assertEquals(copied, values(mapped));
+        assertArrayEquals(empty.readPages(List.of(p0)).get(0).getPageData(), mapped.getPageData());
+    }
+
+    /**
+     * A mapped page is copied when it is changed, the file only changes once
+     * the page is written, and the before image is what was mapped.
+     */
+    @Test public void changeCopiesPage() throws Exception {
+        empty.setMapped(true);
+        HeapPage page = (HeapPage) empty.readPage(p0);
+        byte[] before = page.getPageData();
+        Tuple t = page.iterator().next();
+        page.deleteTuple(t);
+
+        assertArrayEquals(before, empty.readPage(p0).getPageData());
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        empty.writePage(page);
+        assertEquals(values(page), values((HeapPage) empty.readPage(p0)));
+        assertFalse(values((HeapPage) empty.readPage(p0)).contains(((IntField) t.getField(0)).getValue()));
+    }
+
+    /**
+     * Pages appended after the file has been mapped are read too.
+     */
+    @Test public void fileGrows() throws Exception {
+        empty.setMapped(true);
+        assertNotNull(empty.readPage(p0));
+        int pages = empty.numPages();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        assertTrue(empty.numPages() > pages);
+
+        tid = new TransactionId();
+        HeapPage last = (HeapPage) bp.getPage(tid, new HeapPageId(empty.getId(), empty.numPages() - 1),
+                Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+        assertArrayEquals(last.getPageData(),
+                empty.readPage(new HeapPageId(empty.getId(), empty.numPages() - 1)).getPageData());
+    }
+
+    @Test public void catalogOption() throws Exception {
+        File dir = empty.getFile().getParentFile();
+        File schema = File.createTempFile("catalog", ".txt", dir);
+        schema.deleteOnExit();
+        String name = empty.getFile().getName().replace(".dat", "");
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write(name + " (a int, b int) mmap\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(table.isMapped());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
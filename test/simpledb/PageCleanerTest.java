@@ -0,0 +1,104 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().stopPageCleaner();
+    }
+
+    @Test
+    public void testAdjacentPagesAreCoalesced() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        Assert.assertEquals(4, f.numPages());
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            pages.add(f.readPage(new HeapPageId(f.getId(), i)));
+        }
+        Assert.assertEquals(1, f.writePages(pages));
+        Assert.assertEquals(2, f.writePages(Arrays.asList(pages.get(3), pages.get(0), pages.get(2))));
+    }
+
+    @Test
+    public void testCommitGoesThroughCleaner() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.getBufferPool();
+        bp.startPageCleaner();
+
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(7, 2));
+        bp.transactionComplete(tid);
+
+        Assert.assertEquals(Long.valueOf(1), bp.getCleanerStats().get("flushRequests"));
+        HeapPage onDisk = (HeapPage) f.readPage(new HeapPageId(f.getId(), 0));
+        Assert.assertEquals(504 - 11, onDisk.getNumEmptySlots());
+    }
+
+    /**
+     * A heap file whose writes fail once failing is set.
+     */
+    private static class FailingHeapFile extends HeapFile {
+        volatile boolean failing;
+
+        FailingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public int writePages(List<Page> pages) throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            return super.writePages(pages);
+        }
+    }
+
+    @Test
+    public void testFailedCommitIsRolledBack() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        FailingHeapFile failing = new FailingHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        BufferPool bp = Database.getBufferPool();
+        bp.startPageCleaner();
+
+        TransactionId tid = new TransactionId();
+        bp.insertTuple(tid, failing.getId(), Utility.getHeapTuple(7, 2));
+        HeapPageId pid = new HeapPageId(failing.getId(), 0);
+        failing.failing = true;
+        try {
+            bp.transactionComplete(tid);
+            Assert.fail("expected the commit to fail");
+        } catch (UncheckedIOException e) {
+            Assert.assertEquals("disk full", e.getCause().getMessage());
+        }
+        Assert.assertFalse(bp.holdsLock(tid, pid));
+
+        // neither the pool nor the file has the row
+        failing.failing = false;
+        TransactionId reader = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY);
+        Assert.assertEquals(504 - 10, page.getNumEmptySlots());
+        Assert.assertNull(page.isDirty());
+        bp.transactionComplete(reader);
+        HeapPage onDisk = (HeapPage) failing.readPage(pid);
+        Assert.assertEquals(504 - 10, onDisk.getNumEmptySlots());
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import simpledb.util.ReplacementPolicy;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class PageFrameArenaTest extends SimpleDbTestBase {
+
+    @Test
+    public void testAllocateAndRelease() {
+        PageFrameArena arena = new PageFrameArena(2, 16);
+        int a = arena.allocate();
+        int b = arena.allocate();
+        Assert.assertNotEquals(a, b);
+        Assert.assertEquals(-1, arena.allocate());
+        arena.frame(a).putInt(0, 42);
+        Assert.assertEquals(0, arena.frame(b).getInt(0));
+        arena.release(a);
+        Assert.assertEquals(a, arena.allocate());
+    }
+
+    @Test
+    public void testOffHeapPagesSurviveEviction() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        Assert.assertTrue(f.numPages() > 2);
+        BufferPool bp = Database.resetBufferPool(2, ReplacementPolicy.Kind.CLOCK, 1, true);
+
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+        Assert.assertTrue(first.isOffHeap());
+
+        // the other pages push the first one out of its frame once it is unpinned
+        bp.unpinPage(tid, first.getId());
+        for (int i = 1; i < f.numPages(); i++) {
+            HeapPageId pid = new HeapPageId(f.getId(), i);
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+            bp.unpinPage(tid, pid);
+        }
+        Assert.assertFalse(first.isOffHeap());
+
+        List<List<Integer>> onFirstPage = new ArrayList<>();
+        Iterator<Tuple> it = first.iterator();
+        while (it.hasNext()) {
+            onFirstPage.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        Assert.assertFalse(onFirstPage.isEmpty());
+        Assert.assertEquals(tuples.subList(0, onFirstPage.size()), onFirstPage);
+        bp.transactionComplete(tid);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+}
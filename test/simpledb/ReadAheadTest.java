@@ -0,0 +1,75 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private static void awaitIssued(BufferPool bp, long issued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getReadAheadStats().get("prefetchIssued") < issued && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(bp.getReadAheadStats().get("prefetchIssued") >= issued);
+    }
+
+    @Test
+    public void testDisabledForSmallPools() {
+        Assert.assertEquals(0, Database.getBufferPool().getReadAheadDepth());
+    }
+
+    @Test
+    public void testSequentialHeapScan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 10, null, null);
+        BufferPool bp = Database.getBufferPool();
+        bp.setReadAheadDepth(4);
+        ReadAhead readAhead = new ReadAhead(bp);
+        TransactionId tid = new TransactionId();
+
+        // a single page read is not a sequential scan yet
+        HeapPageId first = new HeapPageId(f.getId(), 0);
+        bp.getPage(tid, first, Permissions.READ_ONLY);
+        readAhead.onPage(first, f.numPages(), n -> new HeapPageId(f.getId(), n));
+        Assert.assertEquals(Long.valueOf(0), bp.getReadAheadStats().get("prefetchIssued"));
+
+        HeapPageId second = new HeapPageId(f.getId(), 1);
+        bp.getPage(tid, second, Permissions.READ_ONLY);
+        readAhead.onPage(second, f.numPages(), n -> new HeapPageId(f.getId(), n));
+        awaitIssued(bp, 4);
+
+        for (int i = 2; i < 6; i++) {
+            bp.getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        }
+        Assert.assertEquals(Long.valueOf(4), bp.getReadAheadStats().get("prefetchHits"));
+        bp.transactionComplete(tid);
+    }
+
+    @Test
+    public void testScanResultUnchanged() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 20, null, tuples);
+        Database.getBufferPool().setReadAheadDepth(8);
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test
+    public void testBTreeLeafChain() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 20000, null, tuples, 0);
+        BufferPool bp = Database.resetBufferPool(500);
+        bp.setReadAheadDepth(8);
+        SystemTestUtil.matchTuples(f, tuples);
+        awaitIssued(bp, 1);
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordLockingTest extends TestUtil.CreateHeapFile {
+    private PageId p0;
+    private BufferPool bp;
+    private List<Tuple> tuples;
+
+    /** Time to wait for a transaction which shouldn't block, in ms */
+    private static final int TIMEOUT = 1000;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // the pool the file was opened with
+        bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        p0 = new HeapPageId(empty.getId(), 0);
+
+        tid = new TransactionId();
+        tuples = values(bp.getPage(tid, p0, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+    }
+
+    private static List<Tuple> values(Object page) {
+        List<Tuple> values = new ArrayList<>();
+        for (Iterator<Tuple> it = ((HeapPage) page).iterator(); it.hasNext(); ) {
+            values.add(it.next());
+        }
+        return values;
+    }
+
+    private static boolean contains(List<Tuple> tuples, int value) {
+        for (Tuple t : tuples) {
+            if (((IntField) t.getField(0)).getValue() == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the tuples of p0 after every transaction changing it completed
+    private List<Tuple> committed() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> values = values(bp.getPage(tid, p0, Permissions.READ_ONLY));
+        bp.transactionComplete(tid);
+        return values;
+    }
+
+    private Thread start(Callable body) {
+        Thread t = new Thread(() -> {
+            try {
+                body.call();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    private interface Callable {
+        void call() throws Exception;
+    }
+
+    /**
+     * Two transactions delete tuples of the same page without waiting for
+     * each other, and only the tuple of the one aborting comes back.
+     */
+    @Test public void deleteRecordsOfOnePage() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        bp.deleteTuple(tid1, tuples.get(0));
+        Thread t = start(() -> bp.deleteTuple(tid2, tuples.get(1)));
+        t.join(TIMEOUT);
+        assertFalse(t.isAlive());
+
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, true);
+        List<Tuple> values = committed();
+        assertEquals(9, values.size());
+        assertTrue(contains(values, 0));
+        assertFalse(contains(values, 1));
+        assertEquals(9, values(empty.readPage(p0)).size());
+    }
+
+    /**
+     * A delete waits for a transaction which has read the page, and isn't
+     * seen by it, until that one completes.
+     */
+    @Test public void deleteWaitsForReader() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        DbFileIterator it = empty.iterator(reader);
+        it.open();
+        int read = 0;
+        while (it.hasNext()) {
+            it.next();
+            read++;
+        }
+        it.close();
+        assertEquals(10, read);
+
+        Thread t = start(() -> bp.deleteTuple(writer, tuples.get(0)));
+        t.join(TIMEOUT / 10);
+        assertTrue(t.isAlive());
+        assertEquals(10, values(bp.getPage(reader, p0, Permissions.READ_ONLY)).size());
+
+        bp.transactionComplete(reader);
+        t.join(TIMEOUT);
+        assertFalse(t.isAlive());
+        bp.transactionComplete(writer);
+        assertEquals(9, committed().size());
+    }
+
+    /**
+     * A commit writes the page without the changes of another transaction
+     * still running, which stays dirty until that one completes.
+     */
+    @Test public void commitWritesOnlyOwnRecords() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        // inserted by the same thread, into its insert target
+        bp.insertTuple(tid1, empty.getId(), Utility.getHeapTuple(100, 2));
+        bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(200, 2));
+
+        bp.transactionComplete(tid1, true);
+        List<Tuple> onDisk = values(empty.readPage(p0));
+        assertTrue(contains(onDisk, 100));
+        assertFalse(contains(onDisk, 200));
+        HeapPage page = (HeapPage) bp.getPageWithoutLock(tid1, p0);
+        assertEquals(tid2, page.isDirty());
+
+        bp.transactionComplete(tid2, false);
+        assertNull(page.isDirty());
+        List<Tuple> values = committed();
+        assertEquals(11, values.size());
+        assertTrue(contains(values, 100));
+        assertFalse(contains(values, 200));
+    }
+
+    /**
+     * A slot emptied by a running transaction isn't reused, it is refilled
+     * if that transaction aborts.
+     */
+    @Test public void insertSkipsSlotOfRunningDelete() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        bp.deleteTuple(tid1, tuples.get(0));
+        Tuple inserted = Utility.getHeapTuple(100, 2);
+        bp.insertTuple(tid2, empty.getId(), inserted);
+        assertNotEquals(tuples.get(0).getRecordId(), inserted.getRecordId());
+
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, true);
+        List<Tuple> values = committed();
+        assertEquals(11, values.size());
+        assertTrue(contains(values, 0));
+        assertTrue(contains(values, 100));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
@@ -0,0 +1,259 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class SlottedHeapFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private SlottedHeapFile file;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE});
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        file = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(file, "slotted");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private SlottedHeapPage emptyPage() throws Exception {
+        return new SlottedHeapPage(new HeapPageId(file.getId(), 0), SlottedHeapPage.createEmptyPageData());
+    }
+
+    private static List<Tuple> tuples(Iterator<Tuple> it) {
+        List<Tuple> tuples = new ArrayList<>();
+        it.forEachRemaining(tuples::add);
+        return tuples;
+    }
+
+    /**
+     * Short strings only take their bytes, so a page holds many more tuples
+     * than a HeapPage, whose slots have room for STRING_LEN bytes.
+     */
+    @Test public void insertUntilFull() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "name " + n))) {
+            Tuple t = tuple(n, "name " + n);
+            page.insertTuple(t);
+            assertEquals(n, t.getRecordId().getTupleNumber());
+            n++;
+        }
+        int fixed = BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        assertTrue(n > 4 * fixed);
+        assertTrue(page.getFreeSpace() < SlottedHeapPage.spaceFor(SlottedHeapPage.recordLength(tuple(n, "name " + n))));
+
+        try {
+            page.insertTuple(tuple(n, "name " + n));
+            fail("page should be full");
+        } catch (simpledb.common.DbException e) {
+            // expected
+        }
+
+        List<Tuple> read = tuples(page.iterator());
+        assertEquals(n, read.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, ((IntField) read.get(i).getField(0)).getValue());
+            assertEquals("name " + i, ((StringField) read.get(i).getField(1)).getValue());
+        }
+    }
+
+    /**
+     * Deleting a record frees its bytes, tuples keep their slots, an empty
+     * slot is reused and empty slots at the end of the directory are dropped.
+     */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        Tuple[] ts = {tuple(0, "a"), tuple(1, "a much longer string"), tuple(2, "bc")};
+        for (Tuple t : ts) {
+            page.insertTuple(t);
+        }
+        int free = page.getFreeSpace();
+
+        page.deleteTuple(ts[1]);
+        assertEquals(free + SlottedHeapPage.recordLength(ts[1]), page.getFreeSpace());
+        assertFalse(page.isSlotUsed(1));
+        List<Tuple> read = tuples(page.iterator());
+        assertEquals(2, read.size());
+        assertEquals(ts[0].getRecordId(), read.get(0).getRecordId());
+        assertEquals("a", ((StringField) read.get(0).getField(1)).getValue());
+        assertEquals(ts[2].getRecordId(), read.get(1).getRecordId());
+        assertEquals("bc", ((StringField) read.get(1).getField(1)).getValue());
+
+        Tuple t = tuple(3, "def");
+        page.insertTuple(t);
+        assertEquals(1, t.getRecordId().getTupleNumber());
+
+        page.deleteTuple(ts[2]);
+        page.deleteTuple(t);
+        assertEquals(1, page.getNumSlots());
+        page.deleteTuple(ts[0]);
+        assertEquals(0, page.getNumSlots());
+        assertArrayEquals(SlottedHeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /**
+     * A page reads back from the bytes it writes.
+     */
+    @Test public void pageDataRoundTrip() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        for (int i = 0; i < 10; i++) {
+            page.insertTuple(tuple(i, "s" + i));
+        }
+        page.deleteTuple(tuples(page.iterator()).get(4));
+
+        SlottedHeapPage copy = new SlottedHeapPage(page.getId(), page.getPageData());
+        assertArrayEquals(page.getPageData(), copy.getPageData());
+        List<Tuple> read = tuples(copy.iterator());
+        assertEquals(9, read.size());
+        assertFalse(copy.isSlotUsed(4));
+        assertEquals("s5", ((StringField) read.get(4).getField(1)).getValue());
+    }
+
+    /**
+     * HeapFileEncoder.convertSlotted lays out a text file on slotted pages.
+     */
+    @Test public void convertAndScan() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        int rows = 2000;
+        try (PrintWriter w = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++) {
+                w.println(i + ",row " + i);
+            }
+        }
+        HeapFileEncoder.convertSlotted(text, file.getFile(), BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, ',');
+        SlottedHeapFile converted = new SlottedHeapFile(file.getFile(), td);
+        Database.getCatalog().addTable(converted, "converted");
+        assertTrue(converted.numPages() > 1);
+        assertTrue(converted.numPages() < rows / (BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1)));
+
+        DbFileIterator it = converted.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("row " + i, ((StringField) t.getField(1)).getValue());
+            i++;
+        }
+        it.close();
+        assertEquals(rows, i);
+    }
+
+    /**
+     * Tuples inserted and deleted through the BufferPool are on disk once the
+     * transaction commits; inserts go back to pages deletes made room on.
+     */
+    @Test public void insertDeleteThroughBufferPool() throws Exception {
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tuple(i, "value " + i);
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            inserted.add(t);
+        }
+        int pages = file.numPages();
+        assertTrue(pages > 1);
+        Database.getBufferPool().deleteTuple(tid, inserted.get(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        Tuple t = tuple(-1, "x");
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        int count = 0;
+        long sum = 0;
+        while (it.hasNext()) {
+            sum += ((IntField) it.next().getField(0)).getValue();
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+        assertEquals(999L * 1000 / 2 - 1, sum);
+        assertEquals(pages, file.numPages());
+    }
+
+    /**
+     * A tuple too large for any page is refused.
+     */
+    @Test public void insertTooLarge() throws Exception {
+        Type[] types = new Type[BufferPool.getPageSize() / Type.STRING_LEN];
+        java.util.Arrays.fill(types, Type.STRING_TYPE);
+        TupleDesc wide = new TupleDesc(types);
+        File f = File.createTempFile("wide", ".dat");
+        f.deleteOnExit();
+        SlottedHeapFile wideFile = new SlottedHeapFile(f, wide);
+        Database.getCatalog().addTable(wideFile, "wide");
+        Tuple t = new Tuple(wide);
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN; i++) {
+            s.append('x');
+        }
+        for (int i = 0; i < types.length; i++) {
+            t.setField(i, new StringField(s.toString(), Type.STRING_LEN));
+        }
+        try {
+            wideFile.insertTuple(tid, t);
+            fail("tuple should not fit");
+        } catch (simpledb.common.DbException e) {
+            // expected
+        }
+        assertEquals(0, wideFile.numPages());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readPageOfOtherFormat() {
+        file.readPage(new simpledb.index.BTreePageId(file.getId(), 0, simpledb.index.BTreePageId.LEAF));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readMissingPage() {
+        file.readPage(new HeapPageId(file.getId(), 3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapFileTest.class);
+    }
+}
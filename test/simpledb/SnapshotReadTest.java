@@ -0,0 +1,167 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+
+public class SnapshotReadTest extends TestUtil.CreateHeapFile {
+    private PageId p0;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // the pool the file was opened with
+        bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        bp.transactionComplete(tid);
+        p0 = new HeapPageId(empty.getId(), 0);
+    }
+
+    private int countTuples(TransactionId tid) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY);
+        int count = 0;
+        for (Iterator<?> it = page.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private void insert(TransactionId tid, int value) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, p0, Permissions.READ_WRITE);
+        page.insertTuple(Utility.getHeapTuple(value, 2));
+        page.markDirty(true, tid);
+    }
+
+    /**
+     * A snapshot neither waits for nor sees a writer, before or after it
+     * commits, and holds no locks.
+     */
+    @Test public void snapshotIgnoresLaterWrites() throws Exception {
+        TransactionId writer = new TransactionId();
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        insert(writer, 100);
+
+        assertEquals(10, countTuples(reader));
+        assertFalse(bp.holdsLock(reader, p0));
+
+        bp.transactionComplete(writer);
+        assertEquals(10, countTuples(reader));
+        assertEquals(Long.valueOf(1), bp.getSnapshotStats().get("versions"));
+
+        TransactionId later = new TransactionId();
+        bp.beginSnapshot(later);
+        assertEquals(11, countTuples(later));
+
+        bp.transactionComplete(reader);
+        bp.transactionComplete(later);
+        assertEquals(Long.valueOf(0), bp.getSnapshotStats().get("versions"));
+    }
+
+    /**
+     * Writers don't wait for snapshots which have read a page.
+     */
+    @Test public void writerDoesNotWaitForSnapshot() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertEquals(10, countTuples(reader));
+
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(new TransactionId(), p0, Permissions.READ_WRITE);
+        t.start();
+        t.join(1000);
+        assertTrue(t.acquired());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Versions are only kept while snapshots are active.
+     */
+    @Test public void noVersionsWithoutSnapshots() throws Exception {
+        TransactionId writer = new TransactionId();
+        insert(writer, 100);
+        bp.transactionComplete(writer);
+        assertEquals(Long.valueOf(0), bp.getSnapshotStats().get("versionsKept"));
+    }
+
+    @Test(expected = DbException.class)
+    public void snapshotCannotWrite() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        bp.getPage(reader, p0, Permissions.READ_WRITE);
+    }
+
+    /**
+     * A snapshot reading a version dropped to stay within the version store
+     * size is aborted.
+     */
+    @Test(expected = TransactionAbortedException.class)
+    public void snapshotTooOld() throws Exception {
+        bp.setVersionStorePages(1);
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        for (int i = 0; i < 2; i++) {
+            TransactionId writer = new TransactionId();
+            insert(writer, 100 + i);
+            bp.transactionComplete(writer);
+        }
+        countTuples(reader);
+    }
+
+    /**
+     * A page read from a mapped table when the pool is full isn't cached, the
+     * snapshot still gets a copy the commits to come don't show through.
+     */
+    @Test public void mappedPageNotCachedIsCopied() throws Exception {
+        empty.setMapped(true);
+        bp.discardPage(p0);
+        // fill the pool with the pages of another table
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 504 * (bp.getNumPages() + 10), null, null);
+        TransactionId filler = new TransactionId();
+        for (int i = 0; i < other.numPages(); i++) {
+            bp.getPage(filler, new HeapPageId(other.getId(), i), Permissions.READ_ONLY);
+            bp.unpinPage(filler, new HeapPageId(other.getId(), i));
+        }
+        bp.transactionComplete(filler);
+
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        HeapPage page = (HeapPage) bp.getPage(reader, p0, Permissions.READ_ONLY);
+
+        TransactionId writer = new TransactionId();
+        insert(writer, 100);
+        bp.transactionComplete(writer);
+
+        int count = 0;
+        for (Iterator<?> it = page.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        assertEquals(10, count);
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}
@@ -313,6 +313,7 @@ public class TestUtil {
         final TransactionId tid;
         final PageId pid;
         final Permissions perm;
+        final RecordId rid;
         boolean acquired;
         Exception error;
         final Object alock;
@@ -324,9 +325,22 @@ public class TestUtil {
          * @param perm the desired lock permissions
          */
         public LockGrabber(TransactionId tid, PageId pid, Permissions perm) {
+            this(tid, pid, perm, null);
+        }
+
+        /**
+         * @param tid the transaction on whose behalf we want to acquire the lock
+         * @param rid the record we want to lock exclusively
+         */
+        public LockGrabber(TransactionId tid, RecordId rid) {
+            this(tid, rid.getPageId(), Permissions.READ_WRITE, rid);
+        }
+
+        private LockGrabber(TransactionId tid, PageId pid, Permissions perm, RecordId rid) {
             this.tid = tid;
             this.pid = pid;
             this.perm = perm;
+            this.rid = rid;
             this.acquired = false;
             this.error = null;
             this.alock = new Object();
@@ -335,7 +349,12 @@ public class TestUtil {
 
         public void run() {
             try {
-                Database.getBufferPool().getPage(tid, pid, perm);
+                if (rid != null) {
+                    Database.getBufferPool().getPageForRecordUpdate(tid, pid);
+                    Database.getBufferPool().lockRecord(tid, rid);
+                } else {
+                    Database.getBufferPool().getPage(tid, pid, perm);
+                }
                 synchronized(alock) {
                     acquired = true;
                 }
@@ -378,6 +397,7 @@ public class TestUtil {
                 throw new RuntimeException(e);
             }
             emptyFile.deleteOnExit();
+            FreeSpaceMap.fileOf(emptyFile).deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -136,6 +136,23 @@ public class TupleDescTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for TupleDesc.getFieldOffset()
+     */
+    @Test public void getFieldOffset() {
+        TupleDesc td = TupleDesc.merge(new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE}),
+                Utility.getTupleDesc(2));
+        assertEquals(0, td.getFieldOffset(0));
+        assertEquals(Type.STRING_TYPE.getLen(), td.getFieldOffset(1));
+        assertEquals(Type.STRING_TYPE.getLen() + 2 * Type.INT_TYPE.getLen(), td.getFieldOffset(3));
+        try {
+            td.getFieldOffset(4);
+            Assert.fail("expected exception");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
     /**
      * Unit test for TupleDesc.numFields()
      */
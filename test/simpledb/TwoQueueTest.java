@@ -0,0 +1,69 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.DbException;
+import simpledb.util.TwoQueue;
+
+public class TwoQueueTest {
+
+    @Test
+    public void testTwoQueueBasicFunction() throws DbException {
+        int capacity = 10;
+        int overflow = 100;
+        TwoQueue<Integer, Integer> q = new TwoQueue<>(capacity);
+        for (int i = 0; i < capacity + overflow; i++) {
+            q.put(i, i, null);
+        }
+        Assert.assertEquals(capacity, q.size());
+        Assert.assertEquals(Long.valueOf(capacity + overflow), q.getStats().get("misses"));
+    }
+
+    @Test
+    public void testScanDoesNotFlushHotEntries() throws DbException {
+        int capacity = 20;
+        TwoQueue<Integer, Integer> q = new TwoQueue<>(capacity);
+        // load and re-reference ten hot entries so they are promoted
+        for (int i = 0; i < 10; i++) {
+            q.put(i, i, null);
+            q.get(i);
+        }
+        Assert.assertEquals(Long.valueOf(10), q.getStats().get("promotions"));
+
+        // a scan much larger than the cache
+        for (int i = 100; i < 1000; i++) {
+            if (q.get(i, true) == null) {
+                q.put(i, i, null, true);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(q.containsKey(i));
+        }
+        Assert.assertEquals(Long.valueOf(10), q.getStats().get("mainSize"));
+    }
+
+    @Test
+    public void testGhostHitGoesToMain() throws DbException {
+        TwoQueue<Integer, Integer> q = new TwoQueue<>(4);
+        for (int i = 0; i < 6; i++) {
+            q.put(i, i, null);
+        }
+        // 0 and 1 were evicted from probation and are remembered
+        Assert.assertFalse(q.containsKey(0));
+        q.put(0, 0, null);
+        Assert.assertEquals(Long.valueOf(1), q.getStats().get("ghostHits"));
+        Assert.assertEquals(Long.valueOf(1), q.getStats().get("promotions"));
+        Assert.assertEquals(Long.valueOf(1), q.getStats().get("mainSize"));
+    }
+
+    @Test
+    public void testEvictSkipsInvalid() throws DbException {
+        TwoQueue<Integer, Integer> q = new TwoQueue<>(3);
+        q.put(0, 0, null);
+        q.put(1, 1, null);
+        q.put(2, 2, null);
+        Assert.assertEquals(Integer.valueOf(2), q.evict(v -> v == 2));
+        Assert.assertEquals(Integer.valueOf(1), q.remove(1));
+        Assert.assertEquals(1, q.size());
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import org.junit.Assert;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class WarmRestartTest extends SimpleDbTestBase {
+
+    @Test
+    public void testSaveAndRead() throws Exception {
+        File f = File.createTempFile("warm", WarmRestart.SUFFIX);
+        f.deleteOnExit();
+        List<PageId> pids = new ArrayList<>();
+        pids.add(new HeapPageId(7, 3));
+        pids.add(new simpledb.index.BTreePageId(9, 2, simpledb.index.BTreePageId.LEAF));
+        pids.add(new HeapPageId(7, 0));
+        WarmRestart.save(pids, f);
+        Assert.assertEquals(pids, WarmRestart.read(f));
+    }
+
+    @Test
+    public void testRestartLoadsHotPages() throws Exception {
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 504 * 30, null, null);
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile btree = BTreeUtility.createRandomBTreeFile(2, 2000, null, tuples, 0);
+        BufferPool bp = Database.resetBufferPool(20);
+
+        TransactionId tid = new TransactionId();
+        List<PageId> hot = new ArrayList<>();
+        for (int i = 10; i < 20; i++) {
+            hot.add(new HeapPageId(heap.getId(), i));
+        }
+        for (PageId pid : hot) {
+            bp.getPage(tid, pid, Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        SystemTestUtil.matchTuples(btree, tuples);
+
+        File f = File.createTempFile("warm", WarmRestart.SUFFIX);
+        f.deleteOnExit();
+        bp.saveResidentPages(f);
+        List<PageId> saved = WarmRestart.read(f);
+        Assert.assertTrue(saved.containsAll(hot));
+
+        // a cold pool, as after a restart
+        bp = Database.resetBufferPool(20);
+        WarmRestart loader = bp.warmUp(f);
+        loader.join(10000);
+        Assert.assertTrue(loader.isDone());
+        Assert.assertEquals(Long.valueOf(saved.size()), loader.getProgress().get("loaded"));
+        List<PageId> resident = bp.residentPagesByHotness();
+        Assert.assertTrue(resident.containsAll(hot));
+        SystemTestUtil.matchTuples(btree, tuples);
+    }
+
+    @Test
+    public void testMissingFileLoadsNothing() throws Exception {
+        File f = new File(System.getProperty("java.io.tmpdir"), "missing" + System.nanoTime() + WarmRestart.SUFFIX);
+        WarmRestart loader = Database.getBufferPool().warmUp(f);
+        loader.join(10000);
+        Assert.assertTrue(loader.isDone());
+        Assert.assertEquals(Long.valueOf(0), loader.getProgress().get("total"));
+    }
+
+    @Test
+    public void testQuitRollsBackOpenTransaction() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        // an insert left uncommitted when the user quits
+        Transaction t = new Transaction();
+        t.start();
+        Parser p = new Parser();
+        p.setTransaction(t);
+        Database.getBufferPool().insertTuple(t.getId(), heap.getId(),
+                Utility.getHeapTuple(new int[] { 1, 2 }));
+        p.shutdown();
+        Database.getLogFile().getWarmRestartFile().delete();
+        Assert.assertNull(p.getTransaction());
+
+        // read the pages straight from disk
+        HeapFile onDisk = new HeapFile(heap.getFile(), heap.getTupleDesc());
+        Database.getCatalog().addTable(onDisk, "on_disk");
+        int count = 0;
+        for (int i = 0; i < onDisk.numPages(); i++) {
+            Page page = onDisk.readPage(new HeapPageId(onDisk.getId(), i));
+            for (java.util.Iterator<Tuple> it = ((HeapPage) page).iterator(); it.hasNext(); it.next()) {
+                count++;
+            }
+        }
+        Assert.assertEquals(tuples.size(), count);
+    }
+}
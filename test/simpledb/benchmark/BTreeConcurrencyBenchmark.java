@@ -0,0 +1,97 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads running single-key lookups and inserts on one B+ tree, once with
+ * searches descending under latches and once locking every page on their
+ * path (see {@link BTreeFile#setLatchedDescent}). Reports committed lookups
+ * and inserts per second and the share of attempts that aborted.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=BTreeConcurrencyBenchmark},
+ * the optional system properties {@code threads}, {@code seconds},
+ * {@code rows} (of the initial tree) and {@code lookups} (percentage of
+ * transactions which are lookups) change the setup.
+ */
+public class BTreeConcurrencyBenchmark {
+    private static final int POOL_PAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("threads", 8);
+        int seconds = Integer.getInteger("seconds", 5);
+        int rows = Integer.getInteger("rows", 50000);
+        int lookups = Integer.getInteger("lookups", 80);
+
+        for (boolean latched : new boolean[]{false, true}) {
+            BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+            tree.setLatchedDescent(latched);
+            BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+
+            AtomicLong lookupCommits = new AtomicLong();
+            AtomicLong insertCommits = new AtomicLong();
+            AtomicLong aborts = new AtomicLong();
+            long deadline = System.currentTimeMillis() + seconds * 1000L;
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                Random random = new Random(i);
+                workers[i] = new Thread(() -> {
+                    while (System.currentTimeMillis() < deadline) {
+                        TransactionId tid = new TransactionId();
+                        int key = random.nextInt(BTreeUtility.MAX_RAND_VALUE);
+                        boolean lookup = random.nextInt(100) < lookups;
+                        try {
+                            if (lookup) {
+                                DbFileIterator it = tree.indexIterator(tid,
+                                        new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+                                it.open();
+                                while (it.hasNext()) {
+                                    it.next();
+                                }
+                                it.close();
+                            } else {
+                                bp.insertTuple(tid, tree.getId(), BTreeUtility.getBTreeTuple(new int[]{key, key}));
+                            }
+                            bp.transactionComplete(tid, true);
+                            (lookup ? lookupCommits : insertCommits).incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            bp.transactionComplete(tid, false);
+                            aborts.incrementAndGet();
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                });
+            }
+            long start = System.currentTimeMillis();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.currentTimeMillis() - start;
+
+            long commits = lookupCommits.get() + insertCommits.get();
+            long attempts = commits + aborts.get();
+            System.out.printf("%s descent, %d threads, %d%% lookups, %d ms%n",
+                    latched ? "latched" : "locked", threads, lookups, elapsed);
+            System.out.printf("lookups: %d (%.1f/s), inserts: %d (%.1f/s)%n",
+                    lookupCommits.get(), lookupCommits.get() * 1000.0 / elapsed,
+                    insertCommits.get(), insertCommits.get() * 1000.0 / elapsed);
+            System.out.printf("aborted: %d (%.1f%% of %d attempts), descent retries: %d%n", aborts.get(),
+                    attempts == 0 ? 0.0 : aborts.get() * 100.0 / attempts, attempts, tree.getDescentRetries());
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+import simpledb.util.ReplacementPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures BufferPool.getPage throughput when every page is resident, with a
+ * growing number of reader threads, once with a single page table partition and
+ * once with MAX_DEFAULT_PARTITIONS partitions.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=BufferPoolConcurrencyBenchmark}.
+ */
+public class BufferPoolConcurrencyBenchmark {
+    private static final int TABLE_PAGES = 1024;
+    private static final int POOL_PAGES = 2048;
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32};
+    private static final long RUN_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        // 504 rows of two int columns fit in a 4KB page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * 504, null, null);
+        int numPages = table.numPages();
+        System.out.println("table pages: " + numPages);
+
+        for (int partitions : new int[]{1, BufferPool.MAX_DEFAULT_PARTITIONS}) {
+            System.out.println("partitions: " + partitions);
+            for (int threads : THREADS) {
+                Database.resetBufferPool(POOL_PAGES, ReplacementPolicy.Kind.CLOCK, partitions);
+                warmUp(table.getId(), numPages);
+                long ops = run(table.getId(), numPages, threads);
+                System.out.printf("  threads %2d: %,12d getPage/s%n", threads, ops * 1000 / RUN_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Loads every page and creates its lock entry from a single thread, so the
+     * measured phase only contains hits.
+     */
+    private static void warmUp(int tableId, int numPages) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < numPages; i++) {
+            Database.getBufferPool().getPage(tid, new HeapPageId(tableId, i), Permissions.READ_ONLY);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static long run(int tableId, int numPages, int threads) throws Exception {
+        AtomicLong total = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                Random random = new Random();
+                TransactionId tid = new TransactionId();
+                PageId[] pids = new PageId[numPages];
+                for (int i = 0; i < numPages; i++) {
+                    pids[i] = new HeapPageId(tableId, i);
+                }
+                long ops = 0;
+                try {
+                    start.await();
+                    long deadline = System.currentTimeMillis() + RUN_MILLIS;
+                    while (System.currentTimeMillis() < deadline) {
+                        for (int i = 0; i < 256; i++) {
+                            Database.getBufferPool().getPage(tid, pids[random.nextInt(numPages)], Permissions.READ_ONLY);
+                        }
+                        ops += 256;
+                    }
+                    Database.getBufferPool().transactionComplete(tid);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                total.addAndGet(ops);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return total.get();
+    }
+}
@@ -0,0 +1,86 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Threads inserting into one heap file, each transaction inserting a batch of
+ * tuples, once with every insert going for the first page with room and once
+ * with an insert target page per thread (see {@link HeapFile#setInsertTargets}),
+ * for 1, 2, 4, ... up to the given number of threads. Reports inserted tuples
+ * per second, the share of transactions that aborted and the pages the file
+ * ends up with.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=HeapInsertBenchmark}, the
+ * optional system properties {@code threads}, {@code seconds} and
+ * {@code batch} (tuples inserted per transaction) change the setup.
+ */
+public class HeapInsertBenchmark {
+    public static void main(String[] args) throws Exception {
+        int maxThreads = Integer.getInteger("threads", 8);
+        int seconds = Integer.getInteger("seconds", 3);
+        int batch = Integer.getInteger("batch", 20);
+
+        for (boolean targets : new boolean[]{false, true}) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                // the file works with the pool it is opened with
+                BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                File f = File.createTempFile("insert", ".dat");
+                f.deleteOnExit();
+                FreeSpaceMap.fileOf(f).deleteOnExit();
+                HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+                table.setInsertTargets(targets);
+
+                AtomicLong inserted = new AtomicLong();
+                AtomicLong commits = new AtomicLong();
+                AtomicLong aborts = new AtomicLong();
+                long deadline = System.currentTimeMillis() + seconds * 1000L;
+                Thread[] workers = new Thread[threads];
+                for (int i = 0; i < threads; i++) {
+                    int thread = i;
+                    workers[i] = new Thread(() -> {
+                        int value = 0;
+                        while (System.currentTimeMillis() < deadline) {
+                            TransactionId tid = new TransactionId();
+                            try {
+                                for (int j = 0; j < batch; j++) {
+                                    bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{thread, value++}));
+                                }
+                                bp.transactionComplete(tid, true);
+                                inserted.addAndGet(batch);
+                                commits.incrementAndGet();
+                            } catch (TransactionAbortedException e) {
+                                bp.transactionComplete(tid, false);
+                                aborts.incrementAndGet();
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    });
+                }
+                long start = System.currentTimeMillis();
+                for (Thread worker : workers) {
+                    worker.start();
+                }
+                for (Thread worker : workers) {
+                    worker.join();
+                }
+                long elapsed = System.currentTimeMillis() - start;
+
+                long attempts = commits.get() + aborts.get();
+                System.out.printf("%s, %d threads: %d tuples (%.1f/s), aborted %.1f%% of %d transactions, %d pages%n",
+                        targets ? "insert targets" : "first free page", threads, inserted.get(),
+                        inserted.get() * 1000.0 / elapsed, attempts == 0 ? 0.0 : aborts.get() * 100.0 / attempts,
+                        attempts, table.numPages());
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transactions of several threads reading and updating a few pages of one
+ * small table. Reports committed transactions per second and the share of
+ * attempts that aborted.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=LockContentionBenchmark}, the
+ * optional system properties {@code threads}, {@code pages},
+ * {@code seconds} and {@code policy} (a {@link BufferPool.DeadlockPolicy})
+ * change the setup.
+ */
+public class LockContentionBenchmark {
+    // pages each transaction reads, and then updates one of them
+    private static final int READS_PER_TRANSACTION = 2;
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("threads", 8);
+        int pages = Integer.getInteger("pages", 8);
+        int seconds = Integer.getInteger("seconds", 10);
+        BufferPool.DeadlockPolicy policy = BufferPool.DeadlockPolicy.valueOf(
+                System.getProperty("policy", BufferPool.DEFAULT_DEADLOCK_POLICY.name()));
+
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setDeadlockPolicy(policy);
+
+        AtomicLong commits = new AtomicLong();
+        AtomicLong aborts = new AtomicLong();
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            Random random = new Random(i);
+            workers[i] = new Thread(() -> {
+                while (System.currentTimeMillis() < deadline) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        Page page = null;
+                        for (int r = 0; r < READS_PER_TRANSACTION; r++) {
+                            HeapPageId pid = new HeapPageId(table.getId(), random.nextInt(pages));
+                            page = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                        }
+                        page = bp.getPage(tid, page.getId(), Permissions.READ_WRITE);
+                        page.markDirty(true, tid);
+                        bp.transactionComplete(tid, true);
+                        commits.incrementAndGet();
+                    } catch (TransactionAbortedException e) {
+                        bp.transactionComplete(tid, false);
+                        aborts.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        long start = System.currentTimeMillis();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.currentTimeMillis() - start;
+
+        long attempts = commits.get() + aborts.get();
+        System.out.printf("%s, %d threads, %d pages, %d ms%n", policy, threads, pages, elapsed);
+        System.out.printf("committed: %d (%.1f/s)%n", commits.get(), commits.get() * 1000.0 / elapsed);
+        System.out.printf("aborted: %d (%.1f%% of %d attempts)%n", aborts.get(),
+                attempts == 0 ? 0.0 : aborts.get() * 100.0 / attempts, attempts);
+        for (Map.Entry<String, Long> stat : bp.getLockStats().entrySet()) {
+            System.out.println(stat.getKey() + ": " + stat.getValue());
+        }
+    }
+}
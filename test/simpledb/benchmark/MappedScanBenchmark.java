@@ -0,0 +1,76 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+/**
+ * Full scans of a heap file larger than the BufferPool, so every scan reads
+ * every page from the file, once reading pages into the heap and once over a
+ * memory mapping (see {@link HeapFile#setMapped}). The cold scan is the first
+ * one after the file is opened, the warm one the average of the following
+ * scans. The file stays in the OS page cache, so this measures the cost of
+ * the read path rather than of the disk.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=MappedScanBenchmark}, the
+ * optional system properties {@code pages} (of the table) and {@code scans}
+ * (warm ones) change the setup.
+ */
+public class MappedScanBenchmark {
+    // rows of two int columns on a page
+    private static final int PAGE_ROWS = 504;
+
+    public static void main(String[] args) throws Exception {
+        int pages = Integer.getInteger("pages", 2048);
+        int scans = Integer.getInteger("scans", 5);
+
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, pages * PAGE_ROWS, 1 << 16, null, null);
+        FreeSpaceMap.fileOf(f).deleteOnExit();
+        double megabytes = f.length() / (1024.0 * 1024.0);
+
+        for (boolean mapped : new boolean[]{false, true}) {
+            // the file works with the pool it is opened with
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            HeapFile table = Utility.openHeapFile(2, f);
+            table.setMapped(mapped);
+
+            long cold = scan(table);
+            long warm = 0;
+            for (int i = 0; i < scans; i++) {
+                warm += scan(table);
+            }
+            warm /= scans;
+            System.out.printf("%s: cold %.1f ms (%.0f MB/s), warm %.1f ms (%.0f MB/s), %d pages%n",
+                    mapped ? "mapped" : "read into heap", cold / 1e6, megabytes / (cold / 1e9),
+                    warm / 1e6, megabytes / (warm / 1e9), table.numPages());
+            table.close();
+        }
+    }
+
+    // nanoseconds to scan table
+    private static long scan(HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        long rows = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            rows++;
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        if (rows == 0) {
+            throw new IllegalStateException("empty table");
+        }
+        return elapsed;
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb.benchmark;
+
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads random pages of a heap file straight from the file, the way the
+ * BufferPool does on a miss: first one read at a time to measure the latency
+ * of a miss, then from 1, 2, 4, ... up to the given number of threads at once
+ * to measure read throughput. The file is small enough to stay in the OS page
+ * cache, so this measures the cost of the read path rather than of the disk.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=PageReadBenchmark}, the
+ * optional system properties {@code pages} (of the file), {@code reads} (for
+ * the latency), {@code threads} and {@code seconds} change the setup.
+ */
+public class PageReadBenchmark {
+    public static void main(String[] args) throws Exception {
+        int numPages = Integer.getInteger("pages", 2048);
+        int reads = Integer.getInteger("reads", 100000);
+        int maxThreads = Integer.getInteger("threads", 8);
+        int seconds = Integer.getInteger("seconds", 3);
+
+        File f = File.createTempFile("read", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileOf(f).deleteOnExit();
+        HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        List<Page> pages = new ArrayList<>(numPages);
+        for (int i = 0; i < numPages; i++) {
+            pages.add(new HeapPage(new HeapPageId(table.getId(), i), HeapPage.createEmptyPageData()));
+        }
+        table.writePages(pages);
+
+        Random random = new Random(0);
+        // warm up the page cache and the JIT
+        for (int i = 0; i < reads; i++) {
+            table.readPage(new HeapPageId(table.getId(), random.nextInt(numPages)));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < reads; i++) {
+            table.readPage(new HeapPageId(table.getId(), random.nextInt(numPages)));
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("miss latency: %.2f us per page (%d reads of %d byte pages)%n",
+                elapsed / 1000.0 / reads, reads, BufferPool.getPageSize());
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            AtomicLong read = new AtomicLong();
+            long deadline = System.currentTimeMillis() + seconds * 1000L;
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                Random r = new Random(i);
+                workers[i] = new Thread(() -> {
+                    long count = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        table.readPage(new HeapPageId(table.getId(), r.nextInt(numPages)));
+                        count++;
+                    }
+                    read.addAndGet(count);
+                });
+            }
+            long begin = System.currentTimeMillis();
+            for (Thread worker : workers) {
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long millis = System.currentTimeMillis() - begin;
+            System.out.printf("%d threads: %d pages read (%.0f/s)%n", threads, read.get(), read.get() * 1000.0 / millis);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.benchmark;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFileEncoder;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.ScratchBuffers;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serializes full heap pages, half full BTree leaf pages and BTree internal
+ * pages the way they are written out on a flush or to the log, and reports the
+ * time taken and the bytes allocated per page: once with getPageData, once
+ * with writePageData into a reused buffer. Finally writes a run of adjacent
+ * heap pages through HeapFile.writePages, as the BufferPool does on a flush.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=PageWriteBenchmark}, the
+ * optional system property {@code writes} (per measurement) changes the setup.
+ */
+public class PageWriteBenchmark {
+    private interface Write {
+        void run(Page page) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int writes = Integer.getInteger("writes", 100000);
+
+        File f = File.createTempFile("write", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileOf(f).deleteOnExit();
+        HeapFile table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+
+        List<Page> heapPages = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            HeapPage page = new HeapPage(new HeapPageId(table.getId(), i), HeapPage.createEmptyPageData());
+            while (page.getNumEmptySlots() > 0) {
+                page.insertTuple(Utility.getHeapTuple(i, 2));
+            }
+            heapPages.add(page);
+        }
+        Page leaf = BTreeUtility.createRandomLeafPage(new BTreePageId(table.getId(), 1, BTreePageId.LEAF), 2, 0,
+                BTreeUtility.getNumTuplesPerPage(2) / 2, 0, BTreeUtility.MAX_RAND_VALUE);
+        Page internal = new BTreeInternalPage(new BTreePageId(table.getId(), 2, BTreePageId.INTERNAL),
+                BTreeFileEncoder.convertToInternalPage(
+                        BTreeUtility.generateRandomEntries(BTreeUtility.getNumEntriesPerPage(), table.getId(),
+                                BTreePageId.LEAF, 0, BTreeUtility.MAX_RAND_VALUE, 3),
+                        BufferPool.getPageSize(), Type.INT_TYPE, BTreePageId.LEAF), 0);
+
+        String[] names = {"heap page", "btree leaf page", "btree internal page"};
+        Page[] pages = {heapPages.get(0), leaf, internal};
+        for (int i = 0; i < pages.length; i++) {
+            run(names[i] + " getPageData", pages[i], writes, page -> page.getPageData());
+            run(names[i] + " writePageData", pages[i], writes,
+                    page -> page.writePageData(ScratchBuffers.get(BufferPool.getPageSize())));
+        }
+
+        int runs = Math.max(1, writes / heapPages.size() / 10);
+        run("HeapFile.writePages, per page", null, runs, page -> table.writePages(heapPages));
+    }
+
+    private static void run(String name, Page page, int writes, Write write) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        // warm up the JIT
+        for (int i = 0; i < writes; i++) {
+            write.run(page);
+        }
+        long allocated = threads.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        for (int i = 0; i < writes; i++) {
+            write.run(page);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(id) - allocated;
+        int perRun = page == null ? 64 : 1;
+        System.out.printf("%s: %.0f ns and %.0f bytes per page%n", name,
+                (double) elapsed / writes / perRun, (double) allocated / writes / perRun);
+    }
+}
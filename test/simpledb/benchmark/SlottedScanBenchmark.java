@@ -0,0 +1,94 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.SlottedHeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+
+/**
+ * Converts the same text file of (int, string, string) rows with short
+ * strings to a HeapFile and to a SlottedHeapFile, and reports the rows per
+ * page, the size of each file and the time of full scans of it. The cold scan
+ * is the first one after the file is opened, the warm one the average of the
+ * following scans; the files stay in the OS page cache, so scans mostly
+ * measure the number of pages read and decoded.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=SlottedScanBenchmark}, the
+ * optional system properties {@code rows} (of the table) and {@code scans}
+ * (warm ones) change the setup.
+ */
+public class SlottedScanBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rows = Integer.getInteger("rows", 200000);
+        int scans = Integer.getInteger("scans", 5);
+
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE};
+        TupleDesc td = new TupleDesc(types, new String[]{"id", "name", "city"});
+        File text = File.createTempFile("rows", ".txt");
+        text.deleteOnExit();
+        try (PrintWriter w = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++) {
+                w.println(i + ",name " + i + ",city " + i % 100);
+            }
+        }
+
+        File fixed = File.createTempFile("fixed", ".dat");
+        fixed.deleteOnExit();
+        FreeSpaceMap.fileOf(fixed).deleteOnExit();
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), types.length, types);
+        File slotted = File.createTempFile("slotted", ".dat");
+        slotted.deleteOnExit();
+        HeapFileEncoder.convertSlotted(text, slotted, BufferPool.getPageSize(), types.length, types, ',');
+
+        for (boolean isSlotted : new boolean[]{false, true}) {
+            // the file works with the pool it is opened with
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            File f = isSlotted ? slotted : fixed;
+            DbFile table = isSlotted ? new SlottedHeapFile(f, td) : new HeapFile(f, td);
+            Database.getCatalog().addTable(table, isSlotted ? "slotted" : "fixed");
+            int pages = (int) (f.length() / BufferPool.getPageSize());
+
+            long cold = scan(table, rows);
+            long warm = 0;
+            for (int i = 0; i < scans; i++) {
+                warm += scan(table, rows);
+            }
+            warm /= scans;
+            System.out.printf("%s: %d pages, %.1f rows per page, %.1f MB, cold %.1f ms, warm %.1f ms%n",
+                    isSlotted ? "slotted" : "fixed", pages, (double) rows / pages,
+                    f.length() / (1024.0 * 1024.0), cold / 1e6, warm / 1e6);
+            table.close();
+        }
+    }
+
+    // nanoseconds to scan table
+    private static long scan(DbFile table, int rows) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        scan.open();
+        long read = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            read++;
+        }
+        scan.close();
+        long elapsed = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        if (read != rows) {
+            throw new IllegalStateException("scanned " + read + " of " + rows + " rows");
+        }
+        return elapsed;
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.FreeSpaceMap;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Scans the tuples of pages of an (int, string, string) table held in memory,
+ * the way a SeqScan does once the pages are in the BufferPool, and reports the
+ * bytes allocated and the time taken per tuple: once decoding every field of
+ * each tuple, once only the int field, as a Filter on it or a Project of it
+ * does, and once reading the int straight from the page with
+ * {@link HeapPage#getInt}.
+ * <p>
+ * Run with {@code ant runbenchmark -Dbenchmark=TupleDecodeBenchmark}, the
+ * optional system properties {@code pages} and {@code scans} change the setup.
+ */
+public class TupleDecodeBenchmark {
+    private interface Scan {
+        long run(HeapPage page);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numPages = Integer.getInteger("pages", 1024);
+        int scans = Integer.getInteger("scans", 20);
+
+        TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE},
+                new String[]{"id", "name", "city"});
+        File f = File.createTempFile("decode", ".dat");
+        f.deleteOnExit();
+        FreeSpaceMap.fileOf(f).deleteOnExit();
+        HeapFile table = new HeapFile(f, td);
+        Database.getCatalog().addTable(table, "decode");
+
+        List<HeapPage> pages = new ArrayList<>(numPages);
+        long tuples = 0;
+        for (int i = 0; i < numPages; i++) {
+            HeapPage page = new HeapPage(new HeapPageId(table.getId(), i), HeapPage.createEmptyPageData());
+            while (page.getNumEmptySlots() > 0) {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField((int) tuples));
+                t.setField(1, new StringField("name " + tuples, Type.STRING_LEN));
+                t.setField(2, new StringField("city " + tuples % 100, Type.STRING_LEN));
+                page.insertTuple(t);
+                tuples++;
+            }
+            pages.add(page);
+        }
+
+        run("all fields", pages, tuples, scans, page -> {
+            long sum = 0;
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                Tuple t = it.next();
+                sum += ((IntField) t.getField(0)).getValue();
+                sum += t.getField(1).hashCode() + t.getField(2).hashCode();
+            }
+            return sum;
+        });
+        run("int field", pages, tuples, scans, page -> {
+            long sum = 0;
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                sum += ((IntField) it.next().getField(0)).getValue();
+            }
+            return sum;
+        });
+        run("page accessor", pages, tuples, scans, page -> {
+            long sum = 0;
+            for (int slot = 0; slot < page.getNumSlots(); slot++) {
+                if (page.isSlotUsed(slot)) {
+                    sum += page.getInt(slot, 0);
+                }
+            }
+            return sum;
+        });
+    }
+
+    private static void run(String name, List<HeapPage> pages, long tuples, int scans, Scan scan) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId();
+        long check = 0;
+        // warm up the JIT
+        for (int i = 0; i < scans; i++) {
+            for (HeapPage page : pages) {
+                check += scan.run(page);
+            }
+        }
+        long allocated = threads.getThreadAllocatedBytes(id);
+        long start = System.nanoTime();
+        for (int i = 0; i < scans; i++) {
+            for (HeapPage page : pages) {
+                check += scan.run(page);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(id) - allocated;
+        System.out.printf("%s: %.1f bytes and %.1f ns per tuple (%d tuples, check %d)%n", name,
+                (double) allocated / (tuples * scans), (double) elapsed / (tuples * scans), tuples, check);
+    }
+}
@@ -22,8 +22,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.fail;
+import static org.junit.Assert.*;
 
 /**
  * Tests running concurrent transactions.
@@ -235,6 +234,70 @@ public class TransactionTest extends SimpleDbTestBase {
         validateTransactions(10);
     }
 
+    /**
+     * A scan waiting for a transaction which changes a full page and inserts
+     * rows on a page appended meanwhile must see all of its changes once that
+     * transaction commits, not only those on the pages it knew about.
+     */
+    @Test public void testScanSeesPagesAppendedByWriter()
+            throws Exception {
+        // a single full page
+        int rows = BufferPool.getPageSize() * 8 / (SystemTestUtil.SINGLE_INT_DESCRIPTOR.getSize() * 8 + 1);
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, rows, null, null);
+        assertEquals(1, f.numPages());
+
+        Transaction writer = new Transaction();
+        writer.start();
+        DbFileIterator it = f.iterator(writer.getId());
+        it.open();
+        Tuple old = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(writer.getId(), old);
+
+        // the scan learns the length of the file, then waits for the writer
+        AtomicInteger seen = new AtomicInteger();
+        AtomicInteger inserted = new AtomicInteger();
+        Exception[] failure = new Exception[1];
+        Thread scanner = new Thread(() -> {
+            Transaction reader = new Transaction();
+            reader.start();
+            try {
+                SeqScan ss = new SeqScan(reader.getId(), f.getId(), "");
+                ss.open();
+                while (ss.hasNext()) {
+                    seen.incrementAndGet();
+                    if (((IntField) ss.next().getField(0)).getValue() == -1) {
+                        inserted.incrementAndGet();
+                    }
+                }
+                ss.close();
+                reader.commit();
+            } catch (Exception e) {
+                failure[0] = e;
+            }
+        });
+        scanner.start();
+        Thread.sleep(100);
+        assertTrue(scanner.isAlive());
+
+        // the first row takes the freed slot, the second one a new page
+        for (int i = 0; i < 2; i++) {
+            Tuple t = new Tuple(SystemTestUtil.SINGLE_INT_DESCRIPTOR);
+            t.setField(0, new IntField(-1));
+            Database.getBufferPool().insertTuple(writer.getId(), f.getId(), t);
+        }
+        assertTrue(f.numPages() > 1);
+        writer.commit();
+
+        scanner.join(TIMEOUT_MILLIS);
+        assertFalse(scanner.isAlive());
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        assertEquals(rows + 1, seen.get());
+        assertEquals(2, inserted.get());
+    }
+
     @Test public void testAllDirtyFails()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data